@@ -2,17 +2,19 @@ package org.jetbrains.bazel.bazelrunner.outputs
 
 import com.intellij.execution.process.OSProcessUtil
 import com.intellij.openapi.diagnostic.logger
+import com.intellij.util.concurrency.AppExecutorUtil
 import com.intellij.util.io.awaitExit
 import kotlinx.coroutines.coroutineScope
 import org.jetbrains.annotations.ApiStatus
-import java.io.BufferedReader
+import java.io.ByteArrayOutputStream
 import java.io.InputStream
-import java.io.InputStreamReader
-import java.util.concurrent.Executors
 import java.util.concurrent.Future
 import java.util.concurrent.TimeUnit
 import kotlin.coroutines.cancellation.CancellationException
 
+/**
+ * Receives process output, one line per invocation, keeping its line separator.
+ */
 typealias OutputHandler = (String) -> Unit
 
 @ApiStatus.Internal
@@ -20,13 +22,12 @@ class OutputProcessor(private val process: Process, showStdout: Boolean = false,
   val stdoutCollector = OutputCollector()
   val stderrCollector = OutputCollector()
 
-  private val executorService = Executors.newCachedThreadPool()
   private val runningProcessors = mutableListOf<Future<*>>()
 
   init {
     val stdoutHandler = handler.takeIf { showStdout }
-    start(CollectableInputStream(process.inputStream, stdoutCollector), stdoutHandler)
-    start(CollectableInputStream(process.errorStream, stderrCollector), handler)
+    start(process.inputStream, stdoutCollector, stdoutHandler)
+    start(process.errorStream, stderrCollector, handler)
   }
 
   private fun shutdown() {
@@ -34,64 +35,97 @@ class OutputProcessor(private val process: Process, showStdout: Boolean = false,
     runningProcessors.forEach {
       it.get(1, TimeUnit.MINUTES) // Output handles should not be _that_ heavy after process is terminated
     }
-    executorService.shutdown()
   }
 
-  private fun start(inputStream: InputStream, handler: OutputHandler?) {
+  private fun start(inputStream: InputStream, collector: OutputCollector, handler: OutputHandler?) {
     val runnable =
       Runnable {
         try {
-          BufferedReader(InputStreamReader(inputStream, Charsets.UTF_8)).use { reader ->
-            // Don't use readLine() because it doesn't preserve line separators
-            val currentLine = StringBuilder()
-            var lookAheadChar: Int? = null
-            while (!Thread.currentThread().isInterrupted) {
-              var nextChar: Int
-              if (lookAheadChar != null) {
-                nextChar = lookAheadChar
-                lookAheadChar = null
-              }
-              else {
-                nextChar = reader.read()
-              }
-              if (nextChar == -1) {
-                if (currentLine.isEmpty()) break
-              }
-              else {
-                currentLine.append(nextChar.toChar())
-              }
-              // Don't split on \r if it's actually \r\n
-              if (nextChar.toChar() == '\r') {
-                // Only read the next char if it's already available, because PTY terminal can end a line with just \r to overwrite it.
-                // This .ready() check is probably not 100% reliable, worst case scenario we could send \n as a separate line.
-                if (reader.ready()) {
-                  nextChar = reader.read()
-                  if (nextChar == '\n'.code) {
-                    currentLine.append(nextChar.toChar())
-                  }
-                  else {
-                    lookAheadChar = nextChar
-                  }
-                }
-              }
-              val line: String
-              if (currentLine.isNotEmpty() && (currentLine.last() == '\n' || currentLine.last() == '\r' || nextChar == -1)) {
-                line = currentLine.toString()
-                currentLine.clear()
-              }
-              else {
-                continue
-              }
-              handler?.invoke(line)
-            }
-          }
+          inputStream.use { pump(it, collector, handler) }
         } catch (e: Throwable) {
           if (Thread.currentThread().isInterrupted) return@Runnable
           logger.error("Error processing output", e)
         }
       }
 
-    executorService.submit(runnable).also { runningProcessors.add(it) }
+    pumpExecutor.submit(runnable).also { runningProcessors.add(it) }
+  }
+
+  /**
+   * Copies [inputStream] to [collector] in bulk and splits it into lines on the raw bytes.
+   * This is safe for UTF-8, where `\r` and `\n` never occur inside a multibyte sequence.
+   *
+   * Every line is passed to [handler] on its own, as consumers filter and parse the output line by line.
+   */
+  private fun pump(inputStream: InputStream, collector: OutputCollector, handler: OutputHandler?) {
+    val buffer = ByteArray(BUFFER_SIZE)
+    // bytes of the current line not yet passed to the handler
+    val pending = ByteArrayOutputStream()
+    var pendingCarriageReturn = false
+    while (!Thread.currentThread().isInterrupted) {
+      val read = inputStream.read(buffer)
+      if (read == -1) break
+      if (read == 0) continue
+      collector.append(buffer, 0, read)
+      if (handler == null) continue
+
+      var lineStart = 0
+      var index = 0
+      if (pendingCarriageReturn) {
+        pendingCarriageReturn = false
+        if (buffer[0] == LF) {
+          index = 1
+        }
+        emit(pending, buffer, 0, index, handler)
+        lineStart = index
+      }
+      while (index < read) {
+        when (buffer[index]) {
+          LF -> {
+            emit(pending, buffer, lineStart, index + 1, handler)
+            lineStart = index + 1
+          }
+          CR -> {
+            if (index + 1 < read && buffer[index + 1] == LF) {
+              index++
+              emit(pending, buffer, lineStart, index + 1, handler)
+              lineStart = index + 1
+            }
+            // Only wait for the next byte if it's already available, because PTY terminal can end a line with just \r to overwrite it.
+            else if (index + 1 == read && inputStream.available() > 0) {
+              pending.write(buffer, lineStart, read - lineStart)
+              pendingCarriageReturn = true
+              lineStart = read
+            }
+            else {
+              emit(pending, buffer, lineStart, index + 1, handler)
+              lineStart = index + 1
+            }
+          }
+        }
+        index++
+      }
+      pending.write(buffer, lineStart, read - lineStart)
+    }
+    if (handler != null && pending.size() > 0) {
+      handler(pending.toString(Charsets.UTF_8))
+    }
+  }
+
+  /** Passes [pending] followed by `bytes[from, to)` to [handler] and clears [pending]. */
+  private fun emit(pending: ByteArrayOutputStream, bytes: ByteArray, from: Int, to: Int, handler: OutputHandler) {
+    val text =
+      if (pending.size() == 0) {
+        String(bytes, from, to - from, Charsets.UTF_8)
+      }
+      else {
+        pending.write(bytes, from, to - from)
+        pending.toString(Charsets.UTF_8)
+      }
+    pending.reset()
+    if (text.isNotEmpty()) {
+      handler(text)
+    }
   }
 
   suspend fun waitForExit(killProcessTreeOnCancel: Boolean): Int =
@@ -113,31 +147,19 @@ class OutputProcessor(private val process: Process, showStdout: Boolean = false,
       }
     }
 
-  private class CollectableInputStream(val delegate: InputStream,
-                                       val collector: OutputCollector): InputStream() {
-
-    override fun close() {
-      delegate.close()
-    }
-
-    override fun read(): Int {
-      return delegate.read()
-        .also { if (it != -1) collector.append(it) }
-    }
-
-    override fun read(b: ByteArray, off: Int, len: Int): Int {
-      return delegate.read(b, off, len).also {
-        if (it > 0) collector.append(b, off, it)
-      }
-    }
-
-    override fun available(): Int {
-      return delegate.available()
-    }
-  }
-
-
   companion object {
     private val logger = logger<OutputProcessor>()
+    private const val BUFFER_SIZE = 8192
+    private const val LF = '\n'.code.toByte()
+    private const val CR = '\r'.code.toByte()
+
+    /**
+     * Every running process needs both of its pumps at once, otherwise it may block on a full pipe while the pump queued
+     * for it waits for a thread, so the bound is far above the number of Bazel processes expected to run at the same time.
+     */
+    private const val MAX_PUMP_THREADS = 64
+
+    /** Shared by all Bazel processes, so that pump threads are reused instead of created for every invocation */
+    private val pumpExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Bazel Output Processor", MAX_PUMP_THREADS)
   }
 }
@@ -24,3 +24,13 @@ internal fun BuildEventStreamProtos.BuildMetrics.toActionCacheStats(): BazelActi
 /** Wall time spent in the analysis phase, in milliseconds, or `null` when not reported. */
 internal fun BuildEventStreamProtos.BuildMetrics.analysisPhaseTimeMsOrNull(): Long? =
   if (hasTimingMetrics()) timingMetrics.analysisPhaseTimeInMs.takeIf { it > 0 } else null
+
+/**
+ * Bazel server heap needed by the invocation, in bytes, or `null` when not reported.
+ * Peak post-GC heap is preferred, the heap used after the build is only published with `--memory_profile`.
+ */
+internal fun BuildEventStreamProtos.BuildMetrics.peakHeapSizeOrNull(): Long? {
+  if (!hasMemoryMetrics()) return null
+  return memoryMetrics.peakPostGcHeapSize.takeIf { it > 0 }
+         ?: memoryMetrics.usedHeapSizePostBuild.takeIf { it > 0 }
+}
@@ -1,7 +1,12 @@
 package org.jetbrains.bazel.server.bep
 
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos
 import org.jetbrains.annotations.ApiStatus
 import org.jetbrains.bazel.bazelrunner.BazelProcessResult
 
 @ApiStatus.Internal
-data class BepBuildResult(val processResult: BazelProcessResult, val bepOutput: BepOutput)
+data class BepBuildResult(
+  val processResult: BazelProcessResult,
+  val bepOutput: BepOutput,
+  val buildMetrics: BuildEventStreamProtos.BuildMetrics? = null,
+)
@@ -2,48 +2,78 @@ package org.jetbrains.bazel.server.bep
 
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos
 import com.intellij.openapi.diagnostic.logger
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
 import org.jetbrains.bazel.server.bsp.utils.DelimitedMessageReader
 import java.io.BufferedInputStream
 import java.nio.file.Path
-import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicLong
 import kotlin.io.path.inputStream
+import kotlin.time.Duration
 import kotlin.time.Duration.Companion.milliseconds
 
+/**
+ * Tails the BEP binary file written by Bazel.
+ *
+ * Reading and processing of events run in separate coroutines connected by a bounded queue,
+ * so that slow event handlers do not delay reading the file,
+ * while the reader still suspends when the handlers fall too far behind.
+ * Test XML files are parsed by the [BepServer] on a worker of their own, [start] returns once they are reported too.
+ */
 internal class BepReader(val bepServer: BepServer, val eventFile: Path) {
   val serverPid = AtomicLong(0)
 
-  private val bazelBuildFinished = AtomicBoolean(false)
+  private val bazelBuildFinished = CompletableDeferred<Unit>()
 
   suspend fun start() {
     logger.info("Start listening to BEP events")
     eventFile.setFilePermissions()
-    eventFile.inputStream().buffered().use { inputStream ->
-      readBepEvents(inputStream)
+    coroutineScope {
+      val events = Channel<BuildEventStreamProtos.BuildEvent>(EventQueueCapacity)
+      launch {
+        for (event in events) {
+          bepServer.handleBuildEventStreamProtosEvent(event)
+        }
+      }
+      try {
+        eventFile.inputStream().buffered().use { inputStream ->
+          readBepEvents(inputStream, events)
+        }
+      }
+      finally {
+        events.close()
+      }
     }
+    bepServer.awaitTestReports()
     logger.info("BEP events listening finished")
   }
 
-  private suspend fun readBepEvents(inputStream: BufferedInputStream) {
+  private suspend fun readBepEvents(inputStream: BufferedInputStream, events: Channel<BuildEventStreamProtos.BuildEvent>) {
     val reader =
         DelimitedMessageReader(
             inputStream,
             BuildEventStreamProtos.BuildEvent.parser(),
         )
 
+    var pollInterval = MinPollInterval
     while(true) {
       val event: BuildEventStreamProtos.BuildEvent? = reader.nextMessage()
       if (event == null) {
-        if (bazelBuildFinished.get())
+        if (bazelBuildFinished.isCompleted)
           break
 
-        delay(PollInterval)
+        // back off while Bazel is quiet, but wake up immediately once the build finishes
+        withTimeoutOrNull(pollInterval) { bazelBuildFinished.await() }
+        pollInterval = (pollInterval * 2).coerceAtMost(MaxPollInterval)
         continue
       }
 
-      bepServer.handleBuildEventStreamProtosEvent(event)
+      pollInterval = MinPollInterval
       setServerPid(event)
+      events.send(event)
     }
   }
 
@@ -54,12 +84,14 @@ internal class BepReader(val bepServer: BepServer, val eventFile: Path) {
   }
 
   fun bazelBuildFinished() {
-    bazelBuildFinished.set(true)
+    bazelBuildFinished.complete(Unit)
   }
 
   companion object {
     private val logger = logger<BepReader>()
-    private val PollInterval = 10.milliseconds
+    private val MinPollInterval: Duration = 1.milliseconds
+    private val MaxPollInterval: Duration = 50.milliseconds
+    private const val EventQueueCapacity = 1024
 
     private fun Path.setFilePermissions() {
       with(toFile()) {
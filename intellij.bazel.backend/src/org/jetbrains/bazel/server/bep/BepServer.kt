@@ -11,7 +11,9 @@ import com.google.protobuf.Empty
 import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.project.Project
 import com.intellij.platform.util.progress.RawProgressReporter
+import com.intellij.util.concurrency.AppExecutorUtil
 import io.grpc.stub.StreamObserver
+import kotlinx.coroutines.future.await
 import org.jetbrains.annotations.ApiStatus
 import org.jetbrains.annotations.VisibleForTesting
 import org.jetbrains.bazel.commons.BazelPathsResolver
@@ -47,6 +49,7 @@ import org.jetbrains.bsp.protocol.TestStatus
 import java.io.IOException
 import java.nio.file.FileSystemNotFoundException
 import java.nio.file.Files
+import java.util.concurrent.CompletableFuture
 
 @ApiStatus.Internal
 class BepServer(
@@ -64,6 +67,10 @@ class BepServer(
   private val buildProgressParser = BuildProgressParser()
   private val customBepEventHandlers: List<BepEventHandler>
 
+  // test.xml files are parsed one at a time off the event handling thread, in the order their results arrived
+  @Volatile
+  private var lastTestReport: CompletableFuture<Void> = CompletableFuture.completedFuture(null)
+
   init {
     val bepEventHandlerContext = BepEventHandlerContext(project, parentId, taskEventsHandler, diagnosticsService, bazelPathsResolver)
     customBepEventHandlers = BepEventHandlerProvider.EP_NAME.extensionList.map { it.create(bepEventHandlerContext) }
@@ -191,22 +198,44 @@ class BepServer(
 
       val testXml =
         testResult.testActionOutputList.find { it.name == BazelTestFileNames.XML.filename }?.let { bazelPathsResolver.resolve(it) }
-      // Test cases identified and sent to the client by TestXmlParser.
-      val reportedSuites = testXml?.let { TestXmlParser(bspClientTestNotifier).parseAndReport(taskId, it) } ?: 0
-      if (reportedSuites == 0) {
-        // Nothing was reported per-test: the XML is missing, or present but empty / all-skipped.
-        // Go tests via rules_go without verbose output don't emit <testcase> entries, so the parser
-        // reports nothing. Fall back to a single target-level node so the target shows its status
-        // instead of "No tests were found".
-        val targetName = event.id.testResult.label?.takeIf { it.isNotBlank() } ?: "Test"
-        val childId = taskId.uniqueSubTask("test")
-
-        val testDetails = BazelTestDetails.testSuite(targetName).build()
-        bspClientTestNotifier.startAndFinishTest(testDetails, childId, testStatus, "Test finished")
+      val targetName = event.id.testResult.label?.takeIf { it.isNotBlank() } ?: "Test"
+      submitTestReport {
+        // Test cases identified and sent to the client by TestXmlParser.
+        val reportedSuites = testXml?.let { TestXmlParser(bspClientTestNotifier).parseAndReport(taskId, it) } ?: 0
+        if (reportedSuites == 0) {
+          // Nothing was reported per-test: the XML is missing, or present but empty / all-skipped.
+          // Go tests via rules_go without verbose output don't emit <testcase> entries, so the parser
+          // reports nothing. Fall back to a single target-level node so the target shows its status
+          // instead of "No tests were found".
+          val childId = taskId.uniqueSubTask("test")
+
+          val testDetails = BazelTestDetails.testSuite(targetName).build()
+          bspClientTestNotifier.startAndFinishTest(testDetails, childId, testStatus, "Test finished")
+        }
       }
     }
   }
 
+  private fun submitTestReport(report: () -> Unit) {
+    lastTestReport =
+      lastTestReport.thenRunAsync(
+        {
+          try {
+            report()
+          }
+          catch (e: Exception) {
+            LOGGER.warn("Failed to report test results", e)
+          }
+        },
+        testReportExecutor,
+      )
+  }
+
+  /** Suspends until the test results of all test result events handled so far have been reported. */
+  suspend fun awaitTestReports() {
+    lastTestReport.await()
+  }
+
   private fun processTestSummary(event: BuildEventStreamProtos.BuildEvent) {
     if (event.hasTestSummary()) {
       // TODO: this is probably only relevant in remote scenarios
@@ -495,5 +524,6 @@ class BepServer(
 
   companion object {
     private val LOGGER = logger<BepServer>()
+    private val testReportExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Bazel Test Report Parser", 1)
   }
 }
@@ -1,12 +1,6 @@
 package org.jetbrains.bazel.server.bep
 
-import com.fasterxml.jackson.databind.DeserializationFeature
-import com.fasterxml.jackson.dataformat.xml.XmlMapper
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement
-import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlText
-import com.fasterxml.jackson.module.kotlin.registerKotlinModule
+import com.intellij.openapi.diagnostic.logger
 import org.jetbrains.annotations.ApiStatus
 import org.jetbrains.bazel.testing.BazelTestDetails
 import org.jetbrains.bazel.util.BspClientTestNotifier
@@ -14,95 +8,79 @@ import org.jetbrains.bsp.protocol.JUnitStyleTestCaseData
 import org.jetbrains.bsp.protocol.JUnitStyleTestSuiteData
 import org.jetbrains.bsp.protocol.TaskId
 import org.jetbrains.bsp.protocol.TestStatus
+import java.io.IOException
+import java.io.Writer
+import java.nio.file.Files
 import java.nio.file.Path
 import java.util.UUID
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamException
+import javax.xml.stream.XMLStreamReader
+import kotlin.io.path.bufferedWriter
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.inputStream
 import kotlin.io.path.readText
 
-@JacksonXmlRootElement(localName = "testsuites")
-internal data class TestSuites(
-  @JacksonXmlElementWrapper(useWrapping = false)
-  @JacksonXmlProperty(localName = "testsuite")
-  val testsuite: List<TestSuite> = emptyList(),
-)
-
-internal data class TestSuite(
-  // Individual test cases are grouped within a suite.
-  @JacksonXmlProperty(isAttribute = true)
-  val name: String,
-  @JacksonXmlProperty(isAttribute = true)
-  val timestamp: String,
-  @JacksonXmlProperty(isAttribute = true)
-  val hostname: String,
-  @JacksonXmlProperty(isAttribute = true)
-  val tests: Int,
-  @JacksonXmlProperty(isAttribute = true)
-  val failures: Int,
-  @JacksonXmlProperty(isAttribute = true)
-  val errors: Int,
-  @JacksonXmlProperty(isAttribute = true)
-  val time: Double,
-  @JacksonXmlProperty(isAttribute = true)
-  val id: Int,
-  @JacksonXmlElementWrapper(useWrapping = false)
-  @JacksonXmlProperty(localName = "testcase")
-  val testcase: List<TestCase> = emptyList(),
-  @JacksonXmlProperty(localName = "system-out")
-  val systemOut: Any? = null,
-  @JacksonXmlProperty(localName = "system-err")
-  val systemErr: Any? = null,
-  @JacksonXmlProperty(isAttribute = true, localName = "package")
-  val pkg: String?,
-  val properties: Any? = null,
-)
+// Outputs longer than this are spilled to a temporary file, only their beginning is reported inline.
+private const val MAX_INLINE_OUTPUT_CHARS = 1 shl 20
 
 internal data class TestCase(
   // Name of the test case, typically method name.
-  @JacksonXmlProperty(isAttribute = true)
   val name: String,
-  // Class name corresponding to the test case.
-  @JacksonXmlProperty(isAttribute = true)
-  val classname: String,
+  // Class name corresponding to the test case, absent in the reports Bazel generates itself.
+  val classname: String?,
   // Time value included with the test case.
-  @JacksonXmlProperty(isAttribute = true)
-  val time: Double,
-  @JacksonXmlProperty(isAttribute = true)
+  val time: Double?,
   val file: String?,
-  @JacksonXmlProperty(isAttribute = true)
   val line: Int?,
   // One of the following will be included if test did not pass.
-  @JacksonXmlProperty(localName = "error")
   val error: TestResultDetail? = null,
-  @JacksonXmlProperty(localName = "failure")
   val failure: TestResultDetail? = null,
-  @JacksonXmlProperty(localName = "skipped")
   val skipped: TestResultDetail? = null,
+  val systemOut: TestOutput? = null,
 )
 
-// This is a regular class due to limitations deserializing plain xml tag contents.
-// https://github.com/FasterXML/jackson-dataformat-xml/issues/615
-internal class TestResultDetail {
+internal class TestResultDetail(
   // Shortened error message, as provided by the test framework.
-  @JacksonXmlProperty(isAttribute = true)
-  var message: String? = null
-
+  val message: String?,
   // Error type information.
   // This typically gives the class name of the error, but may be absent or used for a similar alternative value.
-  @JacksonXmlProperty(isAttribute = true)
-  var type: String? = null
-
+  val type: String?,
   // Content between the tags, which typically includes the full error stack trace.
-  @JacksonXmlText(value = true)
-  @JacksonXmlProperty(localName = "")
-  var content: String? = null
+  val content: String?,
+)
+
+/**
+ * The text of an output element, e.g. `system-out`. [text] is cut off after [MAX_INLINE_OUTPUT_CHARS] characters,
+ * in that case the whole output has been written to [spillFile], which is deleted once the test result file is processed.
+ */
+internal class TestOutput(val text: String, private val spillFile: Path?) {
+  fun fullText(): String = spillFile?.let { runCatching { it.readText() }.getOrNull() } ?: text
 }
 
+/**
+ * Processes test result xml files with a pull parser, so that each test case is reported as soon as it has been read
+ * and no more than [MAX_INLINE_OUTPUT_CHARS] characters of any output are held in memory.
+ * Longer outputs are spilled to temporary files in [spillDirectory], the system one by default.
+ */
 @ApiStatus.Internal
-class TestXmlParser(private var bspClientTestNotifier: BspClientTestNotifier) {
+class TestXmlParser(
+  private var bspClientTestNotifier: BspClientTestNotifier,
+  private val spillDirectory: Path? = null,
+) {
   private val fallbackTestXmlParser = FallbackTestXmlParser(bspClientTestNotifier)
+  private val spillFiles = mutableListOf<Path>()
+  private var reportedSuites = 0
 
   /**
    * Processes a test result xml file, reporting suite and test case results as task start and finish notifications.
    * Parent-child relationship is identified within each suite based on the TaskId.
+   *
+   * Suites with the attributes written by test runners are streamed, the ones Bazel generates itself for test runners
+   * without xml output are handed to [FallbackTestXmlParser] once they have been read.
+   * If the file turns out to be malformed, whatever was reported before the error is kept.
+   *
    * @param parentId TaskId associated with the test execution.
    * @param testXml Uri corresponding to the test result xml file to be processed.
    * @return how many test suites were handed to the client (each is expected to emit at least one
@@ -110,73 +88,189 @@ class TestXmlParser(private var bspClientTestNotifier: BspClientTestNotifier) {
    * the file could not be read/parsed — so the caller may report a target-level result instead.
    */
   fun parseAndReport(parentId: TaskId, testXml: Path): Int {
-    val testSuites = parseTestXml(testXml, TestSuites::class.java)
-    if (testSuites != null) {
-      return testSuites.testsuite.sumOf { processSuite(parentId, it) }
+    reportedSuites = 0
+    try {
+      testXml.inputStream().buffered().use { input ->
+        val reader = xmlInputFactory.createXMLStreamReader(input)
+        try {
+          while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.localName == "testsuite") {
+              processSuite(parentId, reader)
+            }
+          }
+        }
+        finally {
+          reader.close()
+        }
+      }
+    }
+    catch (e: XMLStreamException) {
+      LOGGER.warn("Could not parse test result file $testXml", e)
     }
-    val fallbackTestSuites =
-      parseTestXml(testXml, FallbackTestXmlParser.IncompleteTestSuites::class.java)
-    val fallbackSuites = fallbackTestSuites?.testsuite ?: return 0
-    fallbackSuites.forEach { fallbackTestXmlParser.processIncompleteInfoSuite(parentId, it) }
-    return fallbackSuites.size
+    catch (e: IOException) {
+      LOGGER.warn("Could not read test result file $testXml", e)
+    }
+    finally {
+      deleteSpillFiles()
+    }
+    return reportedSuites
   }
 
-  /**
-   * Deserialize the given test report into the TestSuites/IncompleteTestSuites type as defined above.
-   */
-  private fun <T> parseTestXml(testXml: Path, valueType: Class<T>): T? {
-    val xmlMapper =
-      XmlMapper().apply {
-        registerKotlinModule()
-        configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+  private fun deleteSpillFiles() {
+    for (file in spillFiles) {
+      try {
+        file.deleteIfExists()
       }
-
-    return runCatching {
-      // Single empty tag does not deserialize properly, replace with empty pair.
-      val rawContent = testXml.readText().replace("<skipped />", "<skipped></skipped>")
-      xmlMapper.readValue(rawContent, valueType)
-    }.getOrNull()
+      catch (e: IOException) {
+        LOGGER.warn("Could not delete test output file $file", e)
+      }
+    }
+    spillFiles.clear()
   }
 
   /**
-   * Convert each TestSuite into a series of taskStart and taskFinish notification to the client.
-   * The `parents` field in each notification's TaskId will be used to indicate the parent-child relationship.
+   * Reads a `testsuite` element and reports it, leaving [reader] at its end element. A reported suite is counted
+   * in [reportedSuites], also if the file turns out to be malformed after some of its test cases were reported.
    *
    * Test suite is a collection of test cases (usually a test class).
    * If the number of tests inside is not zero, but no test case results are found, it means the test suite was filtered out by Bazel -
    * this happens when the user chooses to run only one test class, not the whole Bazel target.
    * In that case, there is no point in showing such an empty suite to the user.
    *
-   * @param parentId TaskId of the parent test suite or test case.
-   * @param suite TestSuite to be processed.
-   * @return 1 if the suite was reported, 0 if it was skipped (the caller may then report a
-   * target-level result instead).
+   * A skipped suite is not counted, the caller may then report a target-level result instead.
    */
-  private fun processSuite(parentId: TaskId, suite: TestSuite): Int {
-    val suiteStatus =
-      when {
-        suite.tests > 0 && suite.testcase.isEmpty() -> return 0
-        suite.failures > 0 -> TestStatus.FAILED
-        suite.errors > 0 -> TestStatus.FAILED
-        else -> TestStatus.PASSED
+  private fun processSuite(parentId: TaskId, reader: XMLStreamReader) {
+    val name = reader.attribute("name")
+    val tests = reader.attribute("tests")?.toIntOrNull()
+    val failures = reader.attribute("failures")?.toIntOrNull()
+    val errors = reader.attribute("errors")?.toIntOrNull()
+    val time = reader.attribute("time")?.toDoubleOrNull()
+    if (name == null || tests == null || failures == null || errors == null || time == null ||
+      reader.attribute("timestamp") == null || reader.attribute("hostname") == null ||
+      reader.attribute("id")?.toIntOrNull() == null
+    ) {
+      processIncompleteSuite(parentId, reader, name, failures, errors)
+      return
+    }
+
+    val suiteStatus = if (failures > 0 || errors > 0) TestStatus.FAILED else TestStatus.PASSED
+    val suiteTaskId = parentId.subTask(name)
+    var started = false
+    var systemOut: TestOutput? = null
+    var systemErr: TestOutput? = null
+
+    fun startSuite() {
+      if (started) return
+      started = true
+      bspClientTestNotifier.startTest(BazelTestDetails.testSuite(name).build(), suiteTaskId)
+    }
+
+    fun finishSuite() {
+      val suiteData = JUnitStyleTestSuiteData(time, null, systemErr?.text)
+      bspClientTestNotifier.finishTest(name, suiteTaskId, suiteStatus, systemOut?.text, suiteData)
+      reportedSuites++
+    }
+
+    try {
+      reader.forEachChild { element ->
+        when (element) {
+          "testcase" -> {
+            val testCase = readTestCase(reader) ?: return@forEachChild
+            startSuite()
+            processTestCase(suiteTaskId, name, testCase)
+          }
+          "system-out" -> systemOut = readOutput(reader)
+          "system-err" -> systemErr = readOutput(reader)
+          else -> reader.skipElement()
+        }
       }
+    }
+    catch (e: XMLStreamException) {
+      // keep the reported test cases in a finished suite
+      if (started) finishSuite()
+      throw e
+    }
 
-    val suiteTaskId = parentId.subTask(suite.name)
-    val suiteData = JUnitStyleTestSuiteData(suite.time, null, suite.systemErr?.toString())
+    if (!started) {
+      if (tests > 0) return
+      startSuite()
+    }
+    finishSuite()
+  }
 
-    val testDetails = BazelTestDetails.testSuite(suite.name).build()
-    bspClientTestNotifier.startTest(testDetails, suiteTaskId)
-    suite.testcase.forEach { case ->
-      processTestCase(suiteTaskId, suite.name, case)
+  /** Reads the rest of a suite without the attributes of the complete format and reports it with [FallbackTestXmlParser]. */
+  private fun processIncompleteSuite(
+    parentId: TaskId,
+    reader: XMLStreamReader,
+    name: String?,
+    failures: Int?,
+    errors: Int?,
+  ) {
+    val testCases = mutableListOf<TestCase>()
+    var systemOut: TestOutput? = null
+    reader.forEachChild { element ->
+      when (element) {
+        "testcase" -> readTestCase(reader)?.let { testCases.add(it) }
+        "system-out" -> systemOut = readOutput(reader)
+        else -> reader.skipElement()
+      }
     }
-    bspClientTestNotifier.finishTest(
-      suite.name,
-      suiteTaskId,
-      suiteStatus,
-      suite.systemOut.toString(),
-      suiteData,
-    )
-    return 1
+    if (name == null || failures == null || errors == null) return
+
+    val suite = FallbackTestXmlParser.IncompleteTestSuite(name, failures, errors, systemOut, testCases)
+    fallbackTestXmlParser.processIncompleteInfoSuite(parentId, suite)
+    reportedSuites++
+  }
+
+  /** Reads a `testcase` element, leaving [reader] at its end element. Test cases without a name are skipped. */
+  private fun readTestCase(reader: XMLStreamReader): TestCase? {
+    val name = reader.attribute("name")
+    val classname = reader.attribute("classname")
+    val time = reader.attribute("time")?.toDoubleOrNull()
+    val file = reader.attribute("file")
+    val line = reader.attribute("line")?.toIntOrNull()
+    var error: TestResultDetail? = null
+    var failure: TestResultDetail? = null
+    var skipped: TestResultDetail? = null
+    var systemOut: TestOutput? = null
+    reader.forEachChild { element ->
+      when (element) {
+        "error" -> error = readResultDetail(reader)
+        "failure" -> failure = readResultDetail(reader)
+        "skipped" -> skipped = readResultDetail(reader)
+        "system-out" -> systemOut = readOutput(reader)
+        else -> reader.skipElement()
+      }
+    }
+    name ?: return null
+    return TestCase(name, classname, time, file, line, error, failure, skipped, systemOut)
+  }
+
+  private fun readResultDetail(reader: XMLStreamReader): TestResultDetail {
+    val message = reader.attribute("message")
+    val type = reader.attribute("type")
+    return TestResultDetail(message, type, readOutput(reader).text.takeIf { it.isNotEmpty() })
+  }
+
+  /** Reads the text of the current element including nested elements, spilling long outputs to disk. */
+  private fun readOutput(reader: XMLStreamReader): TestOutput {
+    val output = TestOutputBuilder(spillDirectory)
+    try {
+      var depth = 1
+      while (depth > 0) {
+        when (reader.next()) {
+          XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE ->
+            output.append(reader.textCharacters, reader.textStart, reader.textLength)
+          XMLStreamConstants.START_ELEMENT -> depth++
+          XMLStreamConstants.END_ELEMENT -> depth--
+        }
+      }
+    }
+    finally {
+      output.close()
+      output.spillFile?.let { spillFiles.add(it) }
+    }
+    return output.build()
   }
 
   /**
@@ -228,7 +322,7 @@ class TestXmlParser(private var bspClientTestNotifier: BspClientTestNotifier) {
       }
     val testCaseData =
       JUnitStyleTestCaseData(
-        testCase.time,
+        testCase.time ?: 0.0,
         testCase.classname,
         outcomeMessage,
         fullOutput,
@@ -238,7 +332,7 @@ class TestXmlParser(private var bspClientTestNotifier: BspClientTestNotifier) {
     val testDetails =
       BazelTestDetails
         .testCase(testCase.name)
-        .withClassname(testCase.classname)
+        .apply { testCase.classname?.let { withClassname(it) } }
         .withParentSuite(parentSuiteName)
         .withFileAndZeroBasedLine(testCase.file, testCase.line)
         .build()
@@ -250,53 +344,103 @@ class TestXmlParser(private var bspClientTestNotifier: BspClientTestNotifier) {
       testCaseData,
     )
   }
+
+  companion object {
+    private val LOGGER = logger<TestXmlParser>()
+
+    private val xmlInputFactory: XMLInputFactory =
+      XMLInputFactory.newFactory().apply {
+        setProperty(XMLInputFactory.SUPPORT_DTD, false)
+        setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+      }
+  }
+}
+
+private fun XMLStreamReader.attribute(name: String): String? = getAttributeValue(null, name)
+
+/** Calls [action] with the name of each child element, which has to consume the element up to its end. */
+private inline fun XMLStreamReader.forEachChild(action: (String) -> Unit) {
+  while (true) {
+    when (next()) {
+      XMLStreamConstants.START_ELEMENT -> action(localName)
+      XMLStreamConstants.END_ELEMENT -> return
+    }
+  }
+}
+
+private fun XMLStreamReader.skipElement() {
+  var depth = 1
+  while (depth > 0) {
+    when (next()) {
+      XMLStreamConstants.START_ELEMENT -> depth++
+      XMLStreamConstants.END_ELEMENT -> depth--
+    }
+  }
+}
+
+private class TestOutputBuilder(private val spillDirectory: Path?) {
+  private val head = StringBuilder()
+  var spillFile: Path? = null
+    private set
+  private var spillWriter: Writer? = null
+  private var isTruncated = false
+
+  fun append(chars: CharArray, start: Int, length: Int) {
+    spillWriter?.let {
+      it.write(chars, start, length)
+      return
+    }
+    if (isTruncated) return
+    val inlineLength = minOf(length, MAX_INLINE_OUTPUT_CHARS - head.length)
+    head.appendRange(chars, start, start + inlineLength)
+    if (inlineLength == length) return
+
+    isTruncated = true
+    try {
+      val file =
+        if (spillDirectory != null) Files.createTempFile(spillDirectory, "bazel-test-output", ".txt")
+        else Files.createTempFile("bazel-test-output", ".txt")
+      val writer = file.bufferedWriter()
+      writer.append(head)
+      writer.write(chars, start + inlineLength, length - inlineLength)
+      spillFile = file
+      spillWriter = writer
+    }
+    catch (e: IOException) {
+      logger<TestXmlParser>().warn("Could not write test output to disk, it is truncated", e)
+    }
+  }
+
+  fun close() {
+    spillWriter?.close()
+    spillWriter = null
+  }
+
+  fun build(): TestOutput {
+    if (!isTruncated) return TestOutput(head.toString(), null)
+    return TestOutput("$head\n... output truncated", spillFile)
+  }
 }
 
 /** Bazel has a separate way of parsing JUnit4 and JUnit5 test results into a xml file, resulting in
  * incomplete data about the latter.
  * **/
 private class FallbackTestXmlParser(private var bspClientTestNotifier: BspClientTestNotifier) {
-  @JacksonXmlRootElement(localName = "testsuites")
-  data class IncompleteTestSuites(
-    @JacksonXmlElementWrapper(useWrapping = false)
-    @JacksonXmlProperty(localName = "testsuite")
-    val testsuite: List<IncompleteTestSuite> = emptyList(),
-  )
-
-  data class IncompleteTestSuite(
-    @JacksonXmlProperty(isAttribute = true)
+  class IncompleteTestSuite(
     val name: String,
-    @JacksonXmlProperty(isAttribute = true)
     val failures: Int,
-    @JacksonXmlProperty(isAttribute = true)
     val errors: Int,
-    @JacksonXmlProperty(localName = "system-out")
-    val systemOut: String? = null,
-    @JacksonXmlElementWrapper(useWrapping = false)
-    @JacksonXmlProperty(localName = "testcase")
-    val testcase: List<IncompleteTestCase> = emptyList(),
-  )
-
-  data class IncompleteTestCase(
-    @JacksonXmlProperty(isAttribute = true)
-    val name: String,
-    @JacksonXmlProperty(localName = "error")
-    val error: TestResultDetail? = null,
-    @JacksonXmlProperty(localName = "failure")
-    val failure: TestResultDetail? = null,
-    @JacksonXmlProperty(localName = "skipped")
-    val skipped: TestResultDetail? = null,
-    @JacksonXmlProperty(localName = "time")
-    val time: Double? = null,
-    @JacksonXmlProperty(localName = "system-out")
-    val systemOut: String? = null,
+    val systemOut: TestOutput?,
+    val testcase: List<TestCase>,
   )
 
   fun processIncompleteInfoSuite(parentId: TaskId, suite: IncompleteTestSuite) {
-    val containsJunit5 = suite.systemOut?.let(Junit5TestVisualOutputParser::textContainsJunit5VisualOutput)
+    // the test result tree is printed after the test logs, so it has to be read from the whole output
+    val systemOut = suite.systemOut?.fullText()
+    val containsJunit5 = systemOut?.let(Junit5TestVisualOutputParser::textContainsJunit5VisualOutput)
     if (containsJunit5 == true) {
       val parser = Junit5TestVisualOutputParser(bspClientTestNotifier)
-      parser.processTestOutput(parentId, suite.systemOut)
+      parser.processTestOutput(parentId, systemOut)
     } else {
       defaultIncompleteInfoSuiteProcessing(parentId, suite)
     }
@@ -311,13 +455,14 @@ private class FallbackTestXmlParser(private var bspClientTestNotifier: BspClient
         suite.errors > 0 -> TestStatus.FAILED
         else -> TestStatus.PASSED
       }
-    val testSuiteData = JUnitStyleTestSuiteData(null, suite.systemOut, null)
+    val systemOut = suite.systemOut?.text
+    val testSuiteData = JUnitStyleTestSuiteData(null, systemOut, null)
 
     val testDetails = BazelTestDetails.testSuite(suite.name).build()
     bspClientTestNotifier.startTest(testDetails, suiteTaskId)
-    val fallbackMessage = suite.systemOut.takeIf { suite.testcase.size == 1 }
+    val fallbackMessage = systemOut.takeIf { suite.testcase.size == 1 }
     suite.testcase.forEach { testCase ->
-      processIncompleteInfoCase(testCase, suiteTaskId, suite.name, testCase.systemOut ?: fallbackMessage)
+      processIncompleteInfoCase(testCase, suiteTaskId, suite.name, testCase.systemOut?.text ?: fallbackMessage)
     }
     bspClientTestNotifier.finishTest(
       suite.name,
@@ -332,7 +477,7 @@ private class FallbackTestXmlParser(private var bspClientTestNotifier: BspClient
    * Converts a TestCase into a testStart and a testFinish events.
    */
   private fun processIncompleteInfoCase(
-    testCase: IncompleteTestCase,
+    testCase: TestCase,
     parentId: TaskId,
     parentSuiteName: String,
     systemOut: String?,
@@ -22,20 +22,30 @@ import org.jetbrains.bazel.languages.projectview.ProjectView
 import org.jetbrains.bazel.languages.projectview.allowManualTargetsSync
 import org.jetbrains.bazel.languages.projectview.syncFlags
 import org.jetbrains.bazel.server.bep.BepOutput
+import org.jetbrains.bazel.server.bep.peakHeapSizeOrNull
 import org.jetbrains.bazel.server.sync.ExecuteService
 import org.jetbrains.bazel.util.relevantRuleSets
 import org.jetbrains.bsp.protocol.TaskId
 import java.nio.file.Path
 
 @ApiStatus.Internal
-data class BazelBspAspectsManagerResult(val bepOutput: BepOutput, val status: BazelStatus) {
+data class BazelBspAspectsManagerResult(
+  val bepOutput: BepOutput,
+  val status: BazelStatus,
+  /** Peak Bazel server heap of the invocation in bytes, if reported in BEP */
+  val peakHeapSize: Long? = null,
+) {
   val isFailure: Boolean
     get() = status != BazelStatus.SUCCESS
 
-  fun renameNamedSets(runNumber: Int) = BazelBspAspectsManagerResult(bepOutput.renameNamedSets(runNumber), status)
+  fun renameNamedSets(runNumber: Int) = BazelBspAspectsManagerResult(bepOutput.renameNamedSets(runNumber), status, peakHeapSize)
 
   fun merge(anotherResult: BazelBspAspectsManagerResult): BazelBspAspectsManagerResult =
-    BazelBspAspectsManagerResult(bepOutput.merge(anotherResult.bepOutput), status.merge(anotherResult.status))
+    BazelBspAspectsManagerResult(
+      bepOutput.merge(anotherResult.bepOutput),
+      status.merge(anotherResult.status),
+      listOfNotNull(peakHeapSize, anotherResult.peakHeapSize).maxOrNull(),
+    )
 
   companion object {
     fun emptyResult(): BazelBspAspectsManagerResult = BazelBspAspectsManagerResult(BepOutput(), BazelStatus.SUCCESS)
@@ -210,7 +220,7 @@ class BazelBspAspectsManager(
         if (bepOutput.buildToolVersion == BazelRelease.FALLBACK_VERSION) {
           bepOutput.buildToolVersion = bazelRelease
         }
-        BazelBspAspectsManagerResult(bepOutput, it.processResult.bazelStatus)
+        BazelBspAspectsManagerResult(bepOutput, it.processResult.bazelStatus, it.buildMetrics?.peakHeapSizeOrNull())
       }
   }
 
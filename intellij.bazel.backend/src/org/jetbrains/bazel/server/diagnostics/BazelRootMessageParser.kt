@@ -11,6 +11,8 @@ internal object BazelRootMessageParser : Parser {
 
   override fun tryParse(output: Output): List<Diagnostic> = findErrorInBUILD(output) ?: findWarningsInInfoMessage(output) ?: emptyList()
 
+  override fun mayStartAt(line: String): Boolean = line.startsWith("ERROR: ") || line.startsWith("INFO: ")
+
   // .*(pattern)?.* will never match `pattern` as it is optional
   // workaround is to wrap it into non capturing group (?:.*(pattern)).*
   // This approach was used to find optional target label inside the message
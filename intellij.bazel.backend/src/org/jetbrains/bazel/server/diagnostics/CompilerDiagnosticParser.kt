@@ -8,6 +8,14 @@ import kotlin.io.path.Path
 internal object CompilerDiagnosticParser : Parser {
   override fun tryParse(output: Output): List<Diagnostic> = listOfNotNull(tryParseOne(output))
 
+  // the path has no colon except after a drive letter, so the line number has to follow one of the first two colons
+  override fun mayStartAt(line: String): Boolean {
+    val firstColon = line.indexOf(':')
+    return isFollowedByDigit(line, firstColon) || (firstColon == 1 && isFollowedByDigit(line, line.indexOf(':', 2)))
+  }
+
+  private fun isFollowedByDigit(line: String, index: Int): Boolean = index >= 0 && line.getOrNull(index + 1)?.isDigit() == true
+
   // Example:
   // server/DiagnosticsServiceTest.kt:12:18: error: type mismatch: inferred type is String but Int was expected
   private val DiagnosticHeader =
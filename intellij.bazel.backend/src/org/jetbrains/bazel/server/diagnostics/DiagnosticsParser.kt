@@ -25,15 +25,19 @@ internal class DiagnosticsParserImpl : DiagnosticsParser {
   }
 
   private fun prepareOutput(lines: List<String>, target: Label): Output {
-    val relevantLines = lines.filterNot { line -> IgnoredLines.any { it.matches(line) } }
+    val relevantLines = lines.filterNot { it in IgnoredLines }
     return Output(relevantLines, target)
   }
 
   private fun collectDiagnostics(output: Output, isCommandLineFormattedOutput: Boolean, onlyFromParsedOutput: Boolean): List<Diagnostic> {
     val diagnostics = mutableListOf<Diagnostic>()
+    val parsers = if (isCommandLineFormattedOutput) CommandLineOutputParser else Parsers
     while (output.nonEmpty()) {
-      val parsers = if (isCommandLineFormattedOutput) CommandLineOutputParser else Parsers
+      // the prefilters leave only AllCatchParser for most lines, so their regexes are not run at all
       for (parser in parsers) {
+        // a parser may consume lines without reporting anything, the next one starts after them
+        val line = output.peek() ?: break
+        if (!parser.mayStartAt(line)) continue
         val result = parser.tryParse(output)
         if (result.isNotEmpty()) {
           diagnostics.addAll(result)
@@ -75,9 +79,9 @@ internal class DiagnosticsParserImpl : DiagnosticsParser {
         BazelOutputMessageParser,
       )
     private val IgnoredLines =
-      listOf(
-        "^$".toRegex(),
-        "Use --sandbox_debug to see verbose messages from the sandbox".toRegex(),
+      setOf(
+        "",
+        "Use --sandbox_debug to see verbose messages from the sandbox",
       )
   }
 }
@@ -32,6 +32,8 @@ internal object IntelliJRunnerOutputParser : Parser {
     option = RegexOption.COMMENTS,
   )
 
+  override fun mayStartAt(line: String): Boolean = line.contains("runner:", ignoreCase = true)
+
   override fun tryParse(output: Output): List<Diagnostic> {
     val peeked = output.peekAll()
     val headlineText = peeked.firstOrNull() ?: return emptyList()
@@ -3,6 +3,12 @@ package org.jetbrains.bazel.server.diagnostics
 internal interface Parser {
   fun tryParse(output: Output): List<Diagnostic>
 
+  /**
+   * A cheap check whether a diagnostic of this parser can start at [line], so that [tryParse] is only run on lines it may match.
+   * Must be true for every line [tryParse] could consume.
+   */
+  fun mayStartAt(line: String): Boolean = true
+
   companion object {
     // regex part to match the path
     const val PATH_PART = """(?:[a-zA-z]:[\/\\])?[^:\r\n]+"""
@@ -8,6 +8,9 @@ import kotlin.io.path.Path
 internal object Scala3CompilerDiagnosticParser : Parser {
   override fun tryParse(output: Output): List<Diagnostic> = listOfNotNull(tryParseOne(output))
 
+  // the header may be preceded by color codes
+  override fun mayStartAt(line: String): Boolean = line.contains("-- ")
+
   private val DiagnosticHeader =
     """
       ^--\                     # "-- " diagnostic start 
@@ -0,0 +1,112 @@
+package org.jetbrains.bazel.server.sync
+
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.TargetIdeInfo
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.getProjectDataPath
+import org.h2.mvstore.MVMap
+import org.h2.mvstore.MVStore
+import org.jetbrains.annotations.VisibleForTesting
+import org.jetbrains.bazel.sync.workspace.persistence.mvstore.createOrResetMvStore
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * Identifies a particular version of an aspect output file on disk.
+ *
+ * Bazel rewrites `.intellij-info.txt` files whenever the target they describe changes,
+ * so the size together with the modification time is enough to detect a stale entry.
+ */
+internal data class AspectOutputStamp(val size: Long, val lastModifiedMillis: Long) {
+  companion object {
+    fun of(file: Path): AspectOutputStamp? =
+      try {
+        val attributes = Files.readAttributes(file, BasicFileAttributes::class.java)
+        AspectOutputStamp(attributes.size(), attributes.lastModifiedTime().toMillis())
+      }
+      catch (_: IOException) {
+        null
+      }
+  }
+}
+
+/**
+ * Persistent cache of parsed aspect outputs, so that a sync only has to parse
+ * the `.intellij-info.txt` files that were added or modified since the previous one.
+ *
+ * Entries are stored as the binary proto of [TargetIdeInfo] prefixed with the [AspectOutputStamp]
+ * of the file they were read from.
+ */
+@Service(Service.Level.PROJECT)
+internal class AspectOutputCache @VisibleForTesting constructor(openStore: () -> MVStore) : Disposable {
+  constructor(project: Project) : this({ createOrResetMvStore(log, project.getProjectDataPath(DB_FILE_NAME)) })
+
+  private val storeLazy = lazy(openStore)
+  private val store: MVStore by storeLazy
+  private val entries: MVMap<String, ByteArray> by lazy { store.openMap(MAP_NAME) }
+
+  /** Returns the cached target of [file], or null if there is none for [stamp]. An unreadable entry is dropped. */
+  fun get(file: Path, stamp: AspectOutputStamp): TargetIdeInfo? {
+    val key = file.toString()
+    return try {
+      val bytes = entries[key] ?: return null
+      val buffer = ByteBuffer.wrap(bytes)
+      if (buffer.getLong() != stamp.size || buffer.getLong() != stamp.lastModifiedMillis) {
+        return null
+      }
+      TargetIdeInfo.parseFrom(buffer)
+    }
+    catch (e: Exception) {
+      log.warn("Discarding corrupted aspect output cache entry for $file", e)
+      runCatching { entries.remove(key) }
+      null
+    }
+  }
+
+  fun put(file: Path, stamp: AspectOutputStamp, info: TargetIdeInfo) {
+    val payload = info.toByteArray()
+    val bytes = ByteBuffer.allocate(STAMP_SIZE_BYTES + payload.size)
+      .putLong(stamp.size)
+      .putLong(stamp.lastModifiedMillis)
+      .put(payload)
+      .array()
+    entries[file.toString()] = bytes
+  }
+
+  /**
+   * Persists the entries written since the last commit.
+   *
+   * Entries of files which are no longer produced are only dropped once they outnumber the live ones,
+   * because partial and sharded syncs read just a subset of all aspect outputs.
+   */
+  fun commit(liveFiles: Set<Path>) {
+    if (entries.size > liveFiles.size * PRUNE_FACTOR) {
+      val live = liveFiles.mapTo(HashSet(liveFiles.size)) { it.toString() }
+      entries.keys.filter { it !in live }.forEach { entries.remove(it) }
+    }
+    store.commit()
+  }
+
+  override fun dispose() {
+    if (storeLazy.isInitialized()) {
+      runCatching { store.close() }
+        .onFailure { log.warn("Failed to close aspect output cache", it) }
+    }
+  }
+
+  companion object {
+    private val log = logger<AspectOutputCache>()
+    private const val DB_FILE_NAME = "aspect_outputs.data"
+    private const val MAP_NAME = "targetInfos"
+    private const val STAMP_SIZE_BYTES = 2 * Long.SIZE_BYTES
+    private const val PRUNE_FACTOR = 2
+
+    fun getInstance(project: Project): AspectOutputCache = project.service()
+  }
+}
@@ -100,7 +100,7 @@ class ExecuteService(
         reportInvocationMetrics(context, bepServer, processResult)
 
         val bepOutput = bepServer.bepOutput
-        BepBuildResult(processResult, bepOutput)
+        BepBuildResult(processResult, bepOutput, bepServer.bepMetrics)
       }
       catch (e: CancellationException) {
         if (BazelFeatureFlags.killServerOnCancel) {
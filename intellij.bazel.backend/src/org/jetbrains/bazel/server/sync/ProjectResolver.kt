@@ -4,6 +4,7 @@ import com.intellij.aspect.lib.Aspects
 import com.intellij.aspect.lib.OutputGroups
 import com.intellij.aspect.lib.Rules
 import com.intellij.build.events.MessageEvent
+import com.intellij.openapi.components.service
 import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.project.Project
 import com.intellij.platform.diagnostic.telemetry.helpers.useWithScope
@@ -26,6 +27,7 @@ import org.jetbrains.bazel.label.Label
 import org.jetbrains.bazel.label.ResolvedLabel
 import org.jetbrains.bazel.languages.projectview.ProjectView
 import org.jetbrains.bazel.languages.projectview.gazelleTarget
+import org.jetbrains.bazel.languages.projectview.shardHeapBudgetMb
 import org.jetbrains.bazel.languages.projectview.shardSync
 import org.jetbrains.bazel.languages.projectview.targetShardSize
 import org.jetbrains.bazel.languages.projectview.targets
@@ -39,6 +41,11 @@ import org.jetbrains.bazel.server.bzlmod.calculateRepoNameMappingOnly
 import org.jetbrains.bazel.server.bzlmod.extendRepoMappingByPathInfo
 import org.jetbrains.bazel.server.model.AspectSyncProject
 import org.jetbrains.bazel.server.sync.sharding.BazelBuildTargetSharder
+import org.jetbrains.bazel.server.sync.sharding.HeapBudgetTargetBatcher
+import org.jetbrains.bazel.server.sync.sharding.PackageListCache
+import org.jetbrains.bazel.server.sync.sharding.ShardCostEstimator
+import org.jetbrains.bazel.server.sync.sharding.ShardHeapModel
+import org.jetbrains.bazel.sync.workspace.persistence.WorkspaceSnapshotService
 import org.jetbrains.bsp.protocol.BazelTaskEventsHandler
 import org.jetbrains.bsp.protocol.TaskId
 import org.jetbrains.bsp.protocol.asLogger
@@ -77,70 +84,86 @@ class ProjectResolver(
     allTargets: List<Label>?, /* all known targets, if any, from first phase */
     taskId: TaskId,
   ): AspectSyncProject {
-    return bspTracer.spanBuilder("Resolve project").useWithScope {
-      val buildAspectResult = buildProjectWithAspectAndSetup(build, requestedTargetsToSync, allTargets, taskId)
-      val repoMapping = buildAspectResult.first
-      val aspectResult = buildAspectResult.second
-
-      val configurations = fetchConfigurationsFromAnalysisCache(projectView, bazelRunner, taskId)
-        .onFailure { logger.warn("`bazel config` invocation failed, falling back to BEP configurations", it) }
-        .getOrElse { aspectResult.bepOutput.configurations.values } // fallback to BEP configurations
-
-      val aspectOutputs = extractAspectOutputPaths(aspectResult)
-      val targets =
-        measured(
-          "Parsing aspect outputs",
-        ) {
-          TargetInfoReader(taskEventsHandler.asLogger(taskId))
-            .readTargetMapFromAspectOutputs(aspectOutputs)
-        }
+    return coroutineScope {
+      bspTracer.spanBuilder("Resolve project").useWithScope {
+        val cache = if (BazelFeatureFlags.cacheAspectOutputs) AspectOutputCache.getInstance(project) else null
+        val targetInfoReader = TargetInfoReader(taskEventsHandler.asLogger(taskId), cache)
+        // In shard mode, aspect outputs of each shard are parsed while Bazel is busy building the next one
+        val shardReader = ShardAspectOutputReader(this@coroutineScope) { targetInfoReader.readTargetMapFromAspectOutputs(it) }
+        val buildAspectResult =
+          buildProjectWithAspectAndSetup(build, requestedTargetsToSync, allTargets, taskId) { shardResult ->
+            shardReader.submit { extractAspectOutputPaths(shardResult) }
+          }
+        val repoMapping = buildAspectResult.first
+        val aspectResult = buildAspectResult.second
+
+        val configurations = fetchConfigurationsFromAnalysisCache(projectView, bazelRunner, taskId)
+          .onFailure { logger.warn("`bazel config` invocation failed, falling back to BEP configurations", it) }
+          .getOrElse { aspectResult.bepOutput.configurations.values } // fallback to BEP configurations
+
+        val aspectOutputs = extractAspectOutputPaths(aspectResult)
+        val targets =
+          measured(
+            "Parsing aspect outputs",
+          ) {
+            val targets =
+              if (shardReader.hasShards) {
+                shardReader.awaitTargets()
+              }
+              else {
+                targetInfoReader.readTargetMapFromAspectOutputs(aspectOutputs)
+              }
+            targetInfoReader.flushCache(aspectOutputs)
+            targets
+          }
 
-      val newRepoMapping = when (repoMapping) {
-        is RepoMappingDisabled -> RepoMappingDisabled
-        is BzlmodRepoMapping -> {
-          // If we discovered new repositories in the transitive dependencies, verify if some of
-          // them are local repositories and update our mapping to local paths accordingly.
-          // Additionally, for those newly discovered local repositories, update the path to
-          // point to the source tree (rather than the output map).
-          val involvedRepos = targets.keys.mapNotNull { (it.label as? ResolvedLabel)?.repo as? Canonical }.distinct()
-          val needsPath = involvedRepos
-            .filter { !(repoMapping.nonLocalCanonicalRepoNames.contains(it.repoName)) }
-            .filter { !(repoMapping.canonicalRepoNameToLocalPath.contains(it.repoName)) }
-            .map { it.toString() }
-          val extraRepositoryDescriptions =
-            ModuleResolver(bazelRunner, projectView, taskId).resolveModules(needsPath, bazelInfo).result
-          val extraPaths = extraRepositoryDescriptions.map { (name, description) ->
-            when (description) {
-              is ShowRepoResult.LocalRepository -> mapOf(description.name to Path(description.path))
-              else -> mapOf()
-            }
-          }.reduceOrNull { acc, map -> acc + map }
-            .orEmpty()
-          val extraPathsResolved = extraPaths.mapValues { (_, path) -> bazelInfo.workspaceRoot.resolve(path) }
-          val extraNonLocalCanonicalRepoNames = extraRepositoryDescriptions.filter { it.value != null && it.value !is ShowRepoResult.LocalRepository }.mapNotNull { it.value?.name }
-          BzlmodRepoMapping(
-            repoMapping.canonicalRepoNameToLocalPath + extraPaths,
-            repoMapping.apparentRepoNameToCanonicalName,
-            repoMapping.canonicalRepoNameToPath + extraPathsResolved,
-            repoMapping.nonLocalCanonicalRepoNames + extraNonLocalCanonicalRepoNames,
-          )
+        val newRepoMapping = when (repoMapping) {
+          is RepoMappingDisabled -> RepoMappingDisabled
+          is BzlmodRepoMapping -> {
+            // If we discovered new repositories in the transitive dependencies, verify if some of
+            // them are local repositories and update our mapping to local paths accordingly.
+            // Additionally, for those newly discovered local repositories, update the path to
+            // point to the source tree (rather than the output map).
+            val involvedRepos = targets.keys.mapNotNull { (it.label as? ResolvedLabel)?.repo as? Canonical }.distinct()
+            val needsPath = involvedRepos
+              .filter { !(repoMapping.nonLocalCanonicalRepoNames.contains(it.repoName)) }
+              .filter { !(repoMapping.canonicalRepoNameToLocalPath.contains(it.repoName)) }
+              .map { it.toString() }
+            val extraRepositoryDescriptions =
+              ModuleResolver(bazelRunner, projectView, taskId).resolveModules(needsPath, bazelInfo).result
+            val extraPaths = extraRepositoryDescriptions.map { (name, description) ->
+              when (description) {
+                is ShowRepoResult.LocalRepository -> mapOf(description.name to Path(description.path))
+                else -> mapOf()
+              }
+            }.reduceOrNull { acc, map -> acc + map }
+              .orEmpty()
+            val extraPathsResolved = extraPaths.mapValues { (_, path) -> bazelInfo.workspaceRoot.resolve(path) }
+            val extraNonLocalCanonicalRepoNames = extraRepositoryDescriptions.filter { it.value != null && it.value !is ShowRepoResult.LocalRepository }.mapNotNull { it.value?.name }
+            BzlmodRepoMapping(
+              repoMapping.canonicalRepoNameToLocalPath + extraPaths,
+              repoMapping.apparentRepoNameToCanonicalName,
+              repoMapping.canonicalRepoNameToPath + extraPathsResolved,
+              repoMapping.nonLocalCanonicalRepoNames + extraNonLocalCanonicalRepoNames,
+            )
+          }
         }
-      }
 
 
-      val workspaceName = targets.values.firstOrNull()?.workspaceName ?: "_main"
-      val rootTargets = aspectResult.bepOutput.rootTargets()
+        val workspaceName = targets.values.firstOrNull()?.workspaceName ?: "_main"
+        val rootTargets = aspectResult.bepOutput.rootTargets()
 
-      return@useWithScope AspectSyncProject(
-        workspaceRoot = bazelInfo.workspaceRoot,
-        bazelRelease = bazelInfo.release,
-        repoMapping = newRepoMapping,
-        workspaceName = workspaceName,
-        hasError = aspectResult.isFailure,
-        targets = targets,
-        rootTargets = rootTargets,
-        configurations = configurations.associateBy { it.id },
-      )
+        return@useWithScope AspectSyncProject(
+          workspaceRoot = bazelInfo.workspaceRoot,
+          bazelRelease = bazelInfo.release,
+          repoMapping = newRepoMapping,
+          workspaceName = workspaceName,
+          hasError = aspectResult.isFailure,
+          targets = targets,
+          rootTargets = rootTargets,
+          configurations = configurations.associateBy { it.id },
+        )
+      }
     }
   }
 
@@ -149,6 +172,7 @@ class ProjectResolver(
     requestedTargetsToSync: List<Label>?,
     allTargets: List<Label>?, /* all known targets, if any, from first phase */
     taskId: TaskId,
+    onShardBuilt: (BazelBspAspectsManagerResult) -> Unit,
   ): Pair<RepoMapping, BazelBspAspectsManagerResult> {
     val repoMappingOnly =
       measured("Calculating external repository mapping") {
@@ -247,7 +271,7 @@ class ProjectResolver(
     val buildAspectResult =
       measured(
         "Building project with aspect",
-      ) { buildProjectWithAspect(projectView, syncLanguages, build, targetsToSync, allTargets, taskId) }
+      ) { buildProjectWithAspect(projectView, syncLanguages, build, targetsToSync, allTargets, taskId, onShardBuilt) }
 
     return Pair(repoMapping, buildAspectResult)
   }
@@ -259,6 +283,7 @@ class ProjectResolver(
     targetsToSync: TargetCollection,
     allTargets: List<Label>?, /* all known targets, if any, from first phase */
     taskId: TaskId,
+    onShardBuilt: (BazelBspAspectsManagerResult) -> Unit,
   ): BazelBspAspectsManagerResult =
     coroutineScope {
       val aspects = Aspects.forRules(languages).map { it.toString() }
@@ -286,6 +311,19 @@ class ProjectResolver(
 
       val res =
         if (projectView.shardSync) {
+          val heapModel = ShardHeapModel.getInstance(project)
+          val heapBudgetBytes = projectView.shardHeapBudgetMb.toLong() * 1024 * 1024
+          val costEstimator =
+            if (heapBudgetBytes > 0) {
+              ShardCostEstimator.fromTargetGraph(project.service<WorkspaceSnapshotService>().currentSnapshot().targetGraph)
+            }
+            else {
+              null
+            }
+          val batchingService =
+            costEstimator?.let { estimator ->
+              heapModel.costBudget(heapBudgetBytes)?.let { HeapBudgetTargetBatcher(estimator, it) }
+            }
           val shardedResult =
             BazelBuildTargetSharder.expandAndShardTargets(
               bazelPathsResolver,
@@ -294,7 +332,10 @@ class ProjectResolver(
               bazelRunner,
               taskLogger,
               allTargets,
+              batchingService,
+              PackageListCache.getInstance(project),
             )
+          val excludedTargets = targetsToSync.excludedValues.toHashSet()
           var remainingShardedTargetsSpecs = shardedResult.targets.toTargetCollections().toMutableList()
           var shardNumber = 1
           var shardedBuildResult: BazelBspAspectsManagerResult = BazelBspAspectsManagerResult.emptyResult()
@@ -326,6 +367,15 @@ class ProjectResolver(
             else {
               taskLogger.message("Finished building $shardName")
             }
+            // Bazel keeps the analysis of earlier shards unless it is shut down in between, which would charge their heap
+            // to later shards. Only a shard built by a fresh server, or the first one, which follows just the queries of the sync,
+            // is a sample of the heap one shard needs.
+            val isHeapOfShardAlone = BazelFeatureFlags.shutDownBeforeShardBuild || shardNumber == 1
+            if (costEstimator != null && isHeapOfShardAlone && result.peakHeapSize != null && result.status != BazelStatus.OOM_ERROR) {
+              // the excluded targets are added to every shard, but they are not built
+              val shardTargets = shardedTargetsSpec.values.filterNot { it in excludedTargets }
+              heapModel.recordShard(costEstimator.shardCost(shardTargets), result.peakHeapSize)
+            }
             if (result.status == BazelStatus.OOM_ERROR) {
               taskLogger.warn("Bazel ran out of memory during sync, attempting to halve the target shard size to recover")
               try {
@@ -346,11 +396,15 @@ class ProjectResolver(
             // them somehow; we do this by encoding the shard number in their names.
             val runResult = result.renameNamedSets(shardNumber)
             shardedBuildResult = shardedBuildResult.merge(runResult)
+            // the targets of a shard which ran out of memory are built again in its halves
+            if (result.status != BazelStatus.OOM_ERROR) {
+              onShardBuilt(runResult)
+            }
 
             taskLogger.message("---")
             ++shardNumber
           }
-          if (suggestedTargetShardSize != projectView.targetShardSize) {
+          if (batchingService == null && suggestedTargetShardSize != projectView.targetShardSize) {
             taskLogger.message("Bazel ran out of memory during sync. To mitigate, consider setting shard size in your project view file: `target_shard_size: $suggestedTargetShardSize`")
             taskLogger.message("---")
           }
@@ -0,0 +1,39 @@
+package org.jetbrains.bazel.server.sync
+
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.TargetIdeInfo
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceTargetKey
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Parses the aspect outputs of each shard in [scope] while Bazel is busy building the next one.
+ *
+ * Dependencies shared by several shards have their info file in the outputs of each of them, such a file is parsed
+ * only for the first shard which reports it.
+ */
+internal class ShardAspectOutputReader(
+  private val scope: CoroutineScope,
+  private val readTargets: suspend (Set<Path>) -> Map<WorkspaceTargetKey, TargetIdeInfo>,
+) {
+  private val reads = mutableListOf<Deferred<Map<WorkspaceTargetKey, TargetIdeInfo>>>()
+  private val submittedAspectOutputs = ConcurrentHashMap.newKeySet<Path>()
+
+  val hasShards: Boolean
+    get() = reads.isNotEmpty()
+
+  /** Starts parsing the outputs returned by [findAspectOutputs] which no earlier shard reported. */
+  fun submit(findAspectOutputs: suspend () -> Set<Path>) {
+    reads +=
+      scope.async {
+        val newAspectOutputs = findAspectOutputs().filterTo(HashSet()) { submittedAspectOutputs.add(it) }
+        readTargets(newAspectOutputs)
+      }
+  }
+
+  /** Targets of all submitted shards. */
+  suspend fun awaitTargets(): Map<WorkspaceTargetKey, TargetIdeInfo> = buildMap { reads.awaitAll().forEach { putAll(it) } }
+}
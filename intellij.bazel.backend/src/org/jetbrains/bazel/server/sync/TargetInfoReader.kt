@@ -2,6 +2,7 @@ package org.jetbrains.bazel.server.sync
 
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.TargetIdeInfo
 import com.intellij.aspect.lib.readTargetFromFile
+import com.intellij.openapi.diagnostic.logger
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
@@ -10,14 +11,53 @@ import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceTargetKey
 import org.jetbrains.bazel.sync.workspace.snapshot.toWorkspaceTargetKey
 import org.jetbrains.bsp.protocol.BazelTaskLogger
 import java.nio.file.Path
+import java.util.concurrent.atomic.AtomicInteger
 
-internal class TargetInfoReader(private val taskLogger: BazelTaskLogger?) {
-  suspend fun readTargetMapFromAspectOutputs(files: Set<Path>): Map<WorkspaceTargetKey, TargetIdeInfo> =
-    withContext(Dispatchers.Default) {
-      files.map { file ->
-        async {
-          readTargetFromFile(file) { msg -> taskLogger?.error("Could not read target info $file: ${msg}") }
-        }
-      }.awaitAll()
-    }.filterNotNull().associateBy { it.key.toWorkspaceTargetKey() }
+internal class TargetInfoReader(
+  private val taskLogger: BazelTaskLogger?,
+  private val cache: AspectOutputCache? = null,
+) {
+  suspend fun readTargetMapFromAspectOutputs(files: Set<Path>): Map<WorkspaceTargetKey, TargetIdeInfo> {
+    val parsedFiles = AtomicInteger()
+    val targets =
+      withContext(Dispatchers.Default) {
+        files.map { file ->
+          async {
+            readTarget(file) { parsedFiles.incrementAndGet() }
+          }
+        }.awaitAll()
+      }.filterNotNull().associateBy { it.key.toWorkspaceTargetKey() }
+
+    if (cache != null) {
+      log.info("Parsed ${parsedFiles.get()} of ${files.size} aspect outputs, the rest was served from cache")
+    }
+    return targets
+  }
+
+  /**
+   * Persists the cache entries written by [readTargetMapFromAspectOutputs].
+   * [liveFiles] are all aspect outputs of the sync, which may have been read in several batches.
+   */
+  suspend fun flushCache(liveFiles: Set<Path>) {
+    if (cache != null) {
+      withContext(Dispatchers.IO) { cache.commit(liveFiles) }
+    }
+  }
+
+  private fun readTarget(file: Path, onParsed: () -> Unit): TargetIdeInfo? {
+    val stamp = if (cache != null) AspectOutputStamp.of(file) else null
+    if (cache != null && stamp != null) {
+      cache.get(file, stamp)?.let { return it }
+    }
+    onParsed()
+    val target = readTargetFromFile(file) { msg -> taskLogger?.error("Could not read target info $file: ${msg}") }
+    if (cache != null && target != null && stamp != null) {
+      cache.put(file, stamp, target)
+    }
+    return target
+  }
+
+  companion object {
+    private val log = logger<TargetInfoReader>()
+  }
 }
@@ -31,7 +31,7 @@ import kotlin.math.min
 /**
  * Max number of individual targets per Bazel build shard.
  */
-private const val MAX_TARGET_SHARD_SIZE = 10000
+internal const val MAX_TARGET_SHARD_SIZE = 10000
 
 /**
  * number of packages per bazel query shard
@@ -40,7 +40,13 @@ internal const val PACKAGE_SHARD_SIZE = 500
 
 /** Utility methods for sharding Bazel build invocations.  */
 internal object BazelBuildTargetSharder {
-  /** Expand wildcard target patterns and partition the resulting target list.  */
+  /**
+   * Expand wildcard target patterns and partition the resulting target list.
+   *
+   * @param batchingService batches targets sized by their estimated cost, when `null` a fixed number of targets
+   * per shard is used
+   * @param packageListCache directory listings reused when expanding recursive wildcards
+   */
   suspend fun expandAndShardTargets(
     pathResolver: BazelPathsResolver,
     targets: TargetCollection,
@@ -48,10 +54,12 @@ internal object BazelBuildTargetSharder {
     bazelRunner: BazelRunner,
     taskLogger: BazelTaskLogger,
     allTargets: List<Label>?, /* all known targets, if any, from first phase */
+    batchingService: BuildBatchingService? = null,
+    packageListCache: PackageListCache? = null,
   ): ShardedTargetsResult {
     if (allTargets != null) {
       return ShardedTargetsResult(
-        shardTargetsToBatches(allTargets, emptyList(), getTargetShardSize(projectView)),
+        shardTargetsToBatches(allTargets, emptyList(), projectView, batchingService),
         BazelStatus.SUCCESS,
       )
     }
@@ -61,7 +69,7 @@ internal object BazelBuildTargetSharder {
     return when (shardingApproach) {
       ShardingApproach.SHARD_ONLY ->
         ShardedTargetsResult(
-          shardTargetsToBatches(includes, excludes, getTargetShardSize(projectView)),
+          shardTargetsToBatches(includes, excludes, projectView, batchingService),
           BazelStatus.SUCCESS,
         )
 
@@ -69,7 +77,7 @@ internal object BazelBuildTargetSharder {
         val singleTargets =
           WildcardTargetExpander.queryIndividualTargets(includes, excludes, bazelRunner, projectView)
         ShardedTargetsResult(
-          shardTargetsToBatches(singleTargets.singleTargets, emptyList(), getTargetShardSize(projectView)),
+          shardTargetsToBatches(singleTargets.singleTargets, emptyList(), projectView, batchingService),
           singleTargets.buildResult,
         )
       }
@@ -83,12 +91,13 @@ internal object BazelBuildTargetSharder {
             bazelRunner,
             taskLogger,
             projectView,
+            packageListCache,
           )
         if (expandedTargets.buildResult == BazelStatus.FATAL_ERROR) {
           ShardedTargetsResult(ShardedTargetList(emptyList()), expandedTargets.buildResult)
         } else {
           ShardedTargetsResult(
-            shardTargetsToBatches(expandedTargets.singleTargets, emptyList(), getTargetShardSize(projectView)),
+            shardTargetsToBatches(expandedTargets.singleTargets, emptyList(), projectView, batchingService),
             expandedTargets.buildResult,
           )
         }
@@ -116,6 +125,7 @@ internal object BazelBuildTargetSharder {
     bazelRunner: BazelRunner,
     taskLogger: BazelTaskLogger,
     projectView: ProjectView,
+    packageListCache: PackageListCache?,
   ): ExpandedTargetsResult {
     val wildcardIncludes = includes.filter { it.isWildcard }
     if (wildcardIncludes.isEmpty()) {
@@ -125,6 +135,7 @@ internal object BazelBuildTargetSharder {
       WildcardTargetExpander.expandToNonRecursiveWildcardTargets(
         pathsResolver,
         wildcardIncludes,
+        packageListCache,
       )
 
     // replace original recursive targets with the expanded list, retaining relative ordering
@@ -164,8 +175,15 @@ internal object BazelBuildTargetSharder {
   private fun shardTargetsToBatches(
     targets: Collection<Label>,
     excludes: Collection<Label>,
-    shardSize: Int,
-  ): ShardedTargetList = LexicographicTargetBatcher().getShardedTargetList(targets.toSet(), excludes.toSet(), shardSize)
+    projectView: ProjectView,
+    batchingService: BuildBatchingService?,
+  ): ShardedTargetList =
+    if (batchingService != null) {
+      batchingService.getShardedTargetList(targets.toSet(), excludes.toSet(), MAX_TARGET_SHARD_SIZE)
+    }
+    else {
+      LexicographicTargetBatcher().getShardedTargetList(targets.toSet(), excludes.toSet(), getTargetShardSize(projectView))
+    }
 
   /**
    * Partition targets list. Because order is important with respect to excluded targets, original
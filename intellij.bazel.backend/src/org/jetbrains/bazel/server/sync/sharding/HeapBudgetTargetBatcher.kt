@@ -0,0 +1,44 @@
+package org.jetbrains.bazel.server.sync.sharding
+
+import org.jetbrains.bazel.label.Label
+
+/**
+ * Splits targets in lexicographic order, like [LexicographicTargetBatcher], but cuts a shard once its
+ * estimated cost reaches [costBudget] instead of after a fixed number of targets.
+ * Cheap leaf targets are therefore grouped into large shards, while targets with many dependencies end up in
+ * smaller ones, keeping each Bazel invocation within the same heap budget.
+ */
+internal class HeapBudgetTargetBatcher(
+  private val estimator: ShardCostEstimator,
+  private val costBudget: Long,
+) : BuildBatchingService {
+  override fun calculateTargetBatches(
+    targets: Set<Label>,
+    excludes: Set<Label>,
+    suggestedShardSize: Int,
+  ): List<List<Label>> {
+    val sorted = targets.sortedBy { label -> label.toString() }
+    val batches = mutableListOf<List<Label>>()
+    var batch = mutableListOf<Label>()
+    var batchCost = 0L
+    val batchPackages = HashSet<Any>()
+    for (label in sorted) {
+      val pkg = ShardCostEstimator.packageOf(label)
+      var cost = estimator.targetCost(label) + if (pkg in batchPackages) 0 else PACKAGE_COST
+      if (batch.isNotEmpty() && (batchCost + cost > costBudget || batch.size >= suggestedShardSize)) {
+        batches.add(batch + excludes)
+        batch = mutableListOf()
+        batchCost = 0
+        batchPackages.clear()
+        cost = estimator.targetCost(label) + PACKAGE_COST
+      }
+      batch.add(label)
+      batchCost += cost
+      batchPackages.add(pkg)
+    }
+    if (batch.isNotEmpty()) {
+      batches.add(batch + excludes)
+    }
+    return batches
+  }
+}
@@ -0,0 +1,79 @@
+package org.jetbrains.bazel.server.sync.sharding
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.getProjectDataPath
+import org.h2.mvstore.MVMap
+import org.h2.mvstore.MVStore
+import org.jetbrains.annotations.VisibleForTesting
+import org.jetbrains.bazel.sync.workspace.persistence.mvstore.createOrResetMvStore
+import java.nio.file.Path
+
+/** What [PackageLister] needs to know about a single directory. */
+internal class DirectoryListing(val hasBuildFile: Boolean, val subdirectories: List<String>)
+
+/**
+ * Persistent cache of [DirectoryListing]s used to expand recursive wildcard patterns.
+ *
+ * A listing stays valid as long as the modification time of its directory is unchanged,
+ * because adding, removing or renaming an entry always updates the modification time of the directory containing it.
+ */
+@Service(Service.Level.PROJECT)
+internal class PackageListCache @VisibleForTesting constructor(openStore: () -> MVStore) : Disposable {
+  constructor(project: Project) : this({ createOrResetMvStore(log, project.getProjectDataPath(DB_FILE_NAME)) })
+
+  private val storeLazy = lazy(openStore)
+  private val store: MVStore by storeLazy
+  private val listings: MVMap<String, String> by lazy { store.openMap(MAP_NAME) }
+
+  fun get(dir: Path, lastModifiedMillis: Long): DirectoryListing? {
+    val entries = listings[dir.toString()]?.split(SEPARATOR) ?: return null
+    if (entries.size < 2 || entries[0].toLongOrNull() != lastModifiedMillis) {
+      return null
+    }
+    return DirectoryListing(
+      hasBuildFile = entries[1] == HAS_BUILD_FILE,
+      subdirectories = entries.subList(2, entries.size),
+    )
+  }
+
+  fun put(dir: Path, lastModifiedMillis: Long, listing: DirectoryListing) {
+    val flag = if (listing.hasBuildFile) HAS_BUILD_FILE else NO_BUILD_FILE
+    listings[dir.toString()] = (listOf(lastModifiedMillis.toString(), flag) + listing.subdirectories).joinToString(SEPARATOR)
+  }
+
+  /**
+   * Persists the listings written since the last commit.
+   * Listings of directories not visited anymore are only dropped once they outnumber the visited ones,
+   * as a single expansion usually covers only part of the workspace.
+   */
+  fun commit(visitedDirectories: Set<Path>) {
+    if (listings.size > visitedDirectories.size * PRUNE_FACTOR) {
+      val visited = visitedDirectories.mapTo(HashSet(visitedDirectories.size)) { it.toString() }
+      listings.keys.filter { it !in visited }.forEach { listings.remove(it) }
+    }
+    store.commit()
+  }
+
+  override fun dispose() {
+    if (storeLazy.isInitialized()) {
+      runCatching { store.close() }
+        .onFailure { log.warn("Failed to close package list cache", it) }
+    }
+  }
+
+  companion object {
+    private val log = logger<PackageListCache>()
+    private const val DB_FILE_NAME = "package_listings.data"
+    private const val MAP_NAME = "directoryListings"
+    private const val SEPARATOR = "\u0000"
+    private const val HAS_BUILD_FILE = "1"
+    private const val NO_BUILD_FILE = "0"
+    private const val PRUNE_FACTOR = 2
+
+    fun getInstance(project: Project): PackageListCache = project.service()
+  }
+}
@@ -15,16 +15,23 @@
  */
 package org.jetbrains.bazel.server.sync.sharding
 
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import org.jetbrains.bazel.commons.BazelPathsResolver
 import org.jetbrains.bazel.commons.constants.Constants
 import org.jetbrains.bazel.commons.symlinks.BazelSymlinksCalculator
 import org.jetbrains.bazel.config.BazelFeatureFlags
 import org.jetbrains.bazel.label.Label
 import org.jetbrains.bazel.label.toPath
-import java.io.File
+import java.io.IOException
+import java.nio.file.Files
 import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.io.path.isDirectory
-import kotlin.io.path.isRegularFile
 import kotlin.io.path.name
 
 /**
@@ -32,57 +39,110 @@ import kotlin.io.path.name
  * single-package target patterns.
  */
 internal object PackageLister {
+  private const val MAX_PARALLEL_LISTINGS = 8
+  private val LISTING_DISPATCHER = Dispatchers.IO.limitedParallelism(MAX_PARALLEL_LISTINGS)
+
   /**
    * Expands all-in-package-recursive wildcard targets into all-in-single-package targets by
    * traversing the file system, looking for child bazel packages.
+   *
+   * Directories are listed in parallel, at most [MAX_PARALLEL_LISTINGS] at a time so that a large tree doesn't occupy
+   * the whole IO pool, each with a single directory read. Listings of directories whose
+   * modification time did not change since the previous expansion are taken from [cache].
    */
-  fun expandPackageTargets(
+  suspend fun expandPackageTargets(
     pathResolver: BazelPathsResolver,
     wildcardPatterns: List<Label>,
-  ): Map<Label, List<Label>> {
-    val calculatedBazelSymlinks =
-      BazelSymlinksCalculator.calculateBazelSymlinksToExclude(
-        pathResolver.workspaceRoot(),
-        BazelFeatureFlags.symlinkScanMaxDepth,
-      )
-    return wildcardPatterns
-      .filter { it.isRecursive }
-      .mapNotNull { pattern ->
-        val dir = pathResolver.relativePathToWorkspaceAbsolute(pattern.packagePath.toPath())
-        if (!dir.isDirectory()) return@mapNotNull null
+    cache: PackageListCache? = null,
+  ): Map<Label, List<Label>> =
+    withContext(Dispatchers.IO) {
+      val calculatedBazelSymlinks =
+        BazelSymlinksCalculator.calculateBazelSymlinksToExclude(
+          pathResolver.workspaceRoot(),
+          BazelFeatureFlags.symlinkScanMaxDepth,
+        )
+      val visitedDirectories = ConcurrentHashMap.newKeySet<Path>()
+      val expandedPatterns =
+        wildcardPatterns
+          .filter { it.isRecursive }
+          .mapNotNull { pattern ->
+            val dir = pathResolver.relativePathToWorkspaceAbsolute(pattern.packagePath.toPath())
+            if (!dir.isDirectory()) return@mapNotNull null
 
-        val expandedTargets = mutableListOf<Label>()
-        traversePackageRecursively(pathResolver, calculatedBazelSymlinks, mutableListOf(dir), expandedTargets)
-        pattern to expandedTargets
-      }.toMap()
-  }
+            val packageDirs = ConcurrentHashMap.newKeySet<Path>()
+            coroutineScope {
+              traversePackageRecursively(pathResolver, calculatedBazelSymlinks, dir, cache, visitedDirectories, packageDirs)
+            }
+            val expandedTargets =
+              packageDirs
+                .map { pathResolver.getWorkspaceRelativePath(it) }
+                .sorted()
+                .map { Label.parse("//$it:all") }
+            pattern to expandedTargets
+          }.toMap()
+      cache?.commit(visitedDirectories)
+      expandedPatterns
+    }
 
-  private tailrec fun traversePackageRecursively(
+  private fun CoroutineScope.traversePackageRecursively(
     pathResolver: BazelPathsResolver,
     calculatedBazelSymlinks: Set<Path>,
-    dirs: MutableList<Path>,
-    output: MutableList<Label>,
+    dir: Path,
+    cache: PackageListCache?,
+    visitedDirectories: MutableSet<Path>,
+    output: MutableSet<Path>,
   ) {
-    val dir = dirs.removeFirstOrNull() ?: return
-    if (dir.isEligibleForTraversal(pathResolver, calculatedBazelSymlinks)) {
-      val path = pathResolver.getWorkspaceRelativePath(dir)
-      if (dir.containsBuildFile()) {
-        output.add(Label.parse("//$path:all"))
+    if (!dir.isEligibleForTraversal(pathResolver, calculatedBazelSymlinks)) return
+    visitedDirectories.add(dir)
+    val listing = listDirectory(dir, cache) ?: return
+    if (listing.hasBuildFile) {
+      output.add(dir)
+    }
+    for (child in listing.subdirectories) {
+      launch(LISTING_DISPATCHER) {
+        traversePackageRecursively(pathResolver, calculatedBazelSymlinks, dir.resolve(child), cache, visitedDirectories, output)
+      }
+    }
+  }
+
+  private fun listDirectory(dir: Path, cache: PackageListCache?): DirectoryListing? {
+    val lastModifiedMillis =
+      try {
+        Files.getLastModifiedTime(dir).toMillis()
+      }
+      catch (_: IOException) {
+        return null
       }
-      val children = dir.toFile().listFiles() ?: arrayOf<File>()
-      dirs.addAll(children.asSequence().filter { it.isDirectory }.map { it.toPath() })
+    cache?.get(dir, lastModifiedMillis)?.let { return it }
+
+    var hasBuildFile = false
+    val subdirectories = mutableListOf<String>()
+    try {
+      Files.newDirectoryStream(dir).use { entries ->
+        for (entry in entries) {
+          val attributes =
+            try {
+              Files.readAttributes(entry, BasicFileAttributes::class.java)
+            }
+            catch (_: IOException) {
+              continue
+            }
+          val name = entry.name
+          when {
+            attributes.isDirectory -> subdirectories.add(name)
+            attributes.isRegularFile && name in Constants.BUILD_FILE_NAMES -> hasBuildFile = true
+          }
+        }
+      }
+    }
+    catch (_: IOException) {
+      return null
     }
-    traversePackageRecursively(
-      pathResolver,
-      calculatedBazelSymlinks,
-      dirs,
-      output,
-    )
+    return DirectoryListing(hasBuildFile, subdirectories).also { cache?.put(dir, lastModifiedMillis, it) }
   }
 
   private fun Path.isEligibleForTraversal(pathResolver: BazelPathsResolver, calculatedBazelSymlinks: Set<Path>): Boolean =
     !this.isDotBazelBsp(pathResolver) && !calculatedBazelSymlinks.contains(this)
 
   private fun Path.isDotBazelBsp(pathResolver: BazelPathsResolver): Boolean = this.name == Constants.DOT_BAZELBSP_DIR_NAME && this.parent == pathResolver.workspaceRoot()
-  private fun Path.containsBuildFile(): Boolean = Constants.BUILD_FILE_NAMES.any { resolve(it).isRegularFile() }
 }
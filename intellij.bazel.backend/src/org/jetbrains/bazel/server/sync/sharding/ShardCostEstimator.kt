@@ -0,0 +1,45 @@
+package org.jetbrains.bazel.server.sync.sharding
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap
+import org.jetbrains.bazel.label.Label
+import org.jetbrains.bazel.label.ResolvedLabel
+import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceTargetGraph
+
+/**
+ * Loading a package is paid once per shard, no matter how many of its targets the shard contains.
+ */
+internal const val PACKAGE_COST: Long = 4
+
+/**
+ * Estimates the relative cost of building a set of targets in one shard, in abstract cost units.
+ *
+ * A target costs one unit plus one unit per direct dependency it had in the previous sync,
+ * each distinct package in the shard costs [PACKAGE_COST] units.
+ * Targets unknown to the previous sync are assumed to have the average number of dependencies.
+ */
+internal class ShardCostEstimator(
+  private val dependencyCounts: Object2IntMap<Label>,
+  private val defaultDependencyCount: Int,
+) {
+  fun targetCost(label: Label): Long = 1L + dependencyCounts.getOrDefault(label, defaultDependencyCount)
+
+  fun shardCost(labels: Collection<Label>): Long =
+    labels.sumOf { targetCost(it) } + PACKAGE_COST * labels.mapTo(HashSet()) { packageOf(it) }.size
+
+  companion object {
+    fun packageOf(label: Label): Any = Pair((label as? ResolvedLabel)?.repo, label.packagePath)
+
+    fun fromTargetGraph(graph: WorkspaceTargetGraph): ShardCostEstimator {
+      val dependencyCounts = Object2IntOpenHashMap<Label>()
+      for (target in graph.allTargets) {
+        val key = target.targetKey
+        val count = graph.findAllSuccessors(key).count()
+        // the same label may be present in several configurations, the most expensive one is kept
+        dependencyCounts.mergeInt(key.label, count) { old, new -> maxOf(old, new) }
+      }
+      val average = if (dependencyCounts.isEmpty()) 0 else (dependencyCounts.values.sumOf { it.toLong() } / dependencyCounts.size).toInt()
+      return ShardCostEstimator(dependencyCounts, average)
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package org.jetbrains.bazel.server.sync.sharding
+
+import com.intellij.openapi.components.BaseState
+import com.intellij.openapi.components.PersistentStateComponent
+import com.intellij.openapi.components.RoamingType
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.State
+import com.intellij.openapi.components.Storage
+import com.intellij.openapi.components.StoragePathMacros
+import com.intellij.openapi.components.service
+import com.intellij.openapi.project.Project
+
+/**
+ * Remembers how much Bazel heap shards of a given [ShardCostEstimator] cost took in previous shard builds,
+ * so that the next sync can size its shards for a heap budget up front instead of halving them after an OOM.
+ *
+ * The heap of a shard is modeled as a base heap, which Bazel needs whatever it builds, plus a heap per cost unit.
+ * Both are fitted by least squares over the observed shards, older observations decay, so the model follows changes
+ * of the repository and of Bazel itself. The means and the (co)variance are kept instead of raw sums,
+ * which stay precise enough to be stored as floats.
+ */
+@Service(Service.Level.PROJECT)
+@State(name = "BazelShardHeapModel", storages = [Storage(StoragePathMacros.CACHE_FILE, roamingType = RoamingType.DISABLED)])
+internal class ShardHeapModel : PersistentStateComponent<ShardHeapModel.State> {
+  class State : BaseState() {
+    var samples by property(0)
+    var meanCost by property(0f)
+    var meanHeapBytes by property(0f)
+    var costVariance by property(0f)
+    var costHeapCovariance by property(0f)
+  }
+
+  private var samples = 0
+  private var meanCost = 0.0
+  private var meanHeapBytes = 0.0
+  private var costVariance = 0.0
+  private var costHeapCovariance = 0.0
+
+  @Synchronized
+  override fun getState(): State =
+    State().also {
+      it.samples = samples
+      it.meanCost = meanCost.toFloat()
+      it.meanHeapBytes = meanHeapBytes.toFloat()
+      it.costVariance = costVariance.toFloat()
+      it.costHeapCovariance = costHeapCovariance.toFloat()
+    }
+
+  @Synchronized
+  override fun loadState(state: State) {
+    samples = state.samples
+    meanCost = state.meanCost.toDouble()
+    meanHeapBytes = state.meanHeapBytes.toDouble()
+    costVariance = state.costVariance.toDouble()
+    costHeapCovariance = state.costHeapCovariance.toDouble()
+  }
+
+  /**
+   * Updates the model with the peak heap Bazel reported for a shard of the given cost.
+   * The heap must have been used by this shard alone, see the callers.
+   */
+  @Synchronized
+  fun recordShard(shardCost: Long, peakHeapSize: Long) {
+    if (shardCost <= 0 || peakHeapSize <= 0) return
+    val cost = shardCost.toDouble()
+    val heap = peakHeapSize.toDouble()
+    if (samples == 0) {
+      meanCost = cost
+      meanHeapBytes = heap
+      costVariance = 0.0
+      costHeapCovariance = 0.0
+    }
+    else {
+      // exponentially weighted mean and covariance
+      val costDelta = cost - meanCost
+      val heapDelta = heap - meanHeapBytes
+      meanCost += SMOOTHING_FACTOR * costDelta
+      meanHeapBytes += SMOOTHING_FACTOR * heapDelta
+      costVariance = (1 - SMOOTHING_FACTOR) * (costVariance + SMOOTHING_FACTOR * costDelta * costDelta)
+      costHeapCovariance = (1 - SMOOTHING_FACTOR) * (costHeapCovariance + SMOOTHING_FACTOR * costDelta * heapDelta)
+    }
+    samples++
+  }
+
+  /** Number of cost units fitting into [heapBudgetBytes], or `null` if no shard build was observed yet. */
+  @Synchronized
+  fun costBudget(heapBudgetBytes: Long): Long? {
+    val (baseHeapBytes, heapBytesPerCostUnit) = fit() ?: return null
+    val available = heapBudgetBytes - baseHeapBytes
+    if (available <= 0.0) return 1
+    return (available / heapBytesPerCostUnit).toLong().coerceAtLeast(1)
+  }
+
+  /** Base heap and heap per cost unit, or `null` if no shard build was observed yet. */
+  @Synchronized
+  fun fit(): Pair<Double, Double>? {
+    if (samples == 0 || meanCost <= 0.0 || meanHeapBytes <= 0.0) return null
+    // shards of too similar cost can't tell the base heap from the heap per unit, all of it is charged to the units then
+    val spread = MIN_RELATIVE_COST_SPREAD * meanCost
+    val slope = if (costVariance > spread * spread) costHeapCovariance / costVariance else 0.0
+    if (slope <= 0.0) return 0.0 to meanHeapBytes / meanCost
+    val base = (meanHeapBytes - slope * meanCost).coerceIn(0.0, meanHeapBytes)
+    return base to (meanHeapBytes - base) / meanCost
+  }
+
+  companion object {
+    private const val SMOOTHING_FACTOR = 0.2
+    private const val MIN_RELATIVE_COST_SPREAD = 0.1
+
+    fun getInstance(project: Project): ShardHeapModel = project.service()
+  }
+}
@@ -31,13 +31,15 @@ internal object WildcardTargetExpander {
    * Expand recursive wildcard Bazel target patterns into single-package wildcard patterns, via a
    * file system traversal.
    */
-  fun expandToNonRecursiveWildcardTargets(
+  suspend fun expandToNonRecursiveWildcardTargets(
     pathResolver: BazelPathsResolver,
     wildcardIncludes: List<Label>,
+    packageListCache: PackageListCache?,
   ): Map<Label, List<Label>> =
     PackageLister.expandPackageTargets(
       pathResolver,
       wildcardIncludes,
+      packageListCache,
     )
 
   /** Runs a sharded Bazel query to expand wildcard targets to individual Bazel targets  */
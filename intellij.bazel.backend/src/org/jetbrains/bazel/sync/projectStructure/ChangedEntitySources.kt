@@ -0,0 +1,51 @@
+package org.jetbrains.bazel.sync.projectStructure
+
+import com.intellij.platform.workspace.storage.EntityStorage
+import com.intellij.platform.workspace.storage.WorkspaceEntity
+import com.intellij.platform.workspace.storage.impl.WorkspaceEntityBase
+import com.intellij.platform.workspace.storage.impl.WorkspaceEntityData
+import org.jetbrains.bazel.workspacemodel.entities.BazelEntitySource
+
+/**
+ * Returns the Bazel entity sources whose entities in [newStorage] differ from the ones in [currentStorage],
+ * including the sources which exist in only one of them.
+ *
+ * Every module has its own [org.jetbrains.bazel.workspacemodel.entities.BazelModuleEntitySource], so after a small resync
+ * only a few sources are returned and `replaceBySource` has to diff just their entities.
+ * Entities are compared by their own fields, which is cheap enough to be done before the write action.
+ * Parent and child references are not compared, so an entity moved to another parent of the same source with
+ * unchanged fields is not detected. The sync doesn't produce such moves: within a module the children are identified
+ * by urls which lie under their parent's url, and other modules and libraries are referred to by ids, which are fields.
+ */
+internal fun findChangedBazelEntitySources(currentStorage: EntityStorage, newStorage: EntityStorage): Set<BazelEntitySource> {
+  val currentEntities = currentStorage.bazelEntitiesBySource()
+  val newEntities = newStorage.bazelEntitiesBySource()
+
+  val changedSources = HashSet<BazelEntitySource>()
+  for ((source, entities) in newEntities) {
+    val previous = currentEntities[source]
+    if (previous == null || !sameEntities(previous, entities)) changedSources.add(source)
+  }
+  currentEntities.keys.filterTo(changedSources) { it !in newEntities }
+  return changedSources
+}
+
+private fun EntityStorage.bazelEntitiesBySource(): Map<BazelEntitySource, List<WorkspaceEntityData<*>>> =
+  entitiesBySource { it is BazelEntitySource }
+    .groupBy({ it.entitySource as BazelEntitySource }, { it.data() })
+
+private fun WorkspaceEntity.data(): WorkspaceEntityData<*> = (this as WorkspaceEntityBase).getData()
+
+/** Whether both lists contain the same entities in any order. */
+private fun sameEntities(current: List<WorkspaceEntityData<*>>, new: List<WorkspaceEntityData<*>>): Boolean {
+  if (current.size != new.size) return false
+
+  val unmatched = current.groupByTo(HashMap()) { it.hashCodeIgnoringEntitySource() }
+  for (data in new) {
+    val candidates = unmatched[data.hashCodeIgnoringEntitySource()] ?: return false
+    val index = candidates.indexOfFirst { it.equalsIgnoringEntitySource(data) }
+    if (index < 0) return false
+    candidates.removeAt(index)
+  }
+  return true
+}
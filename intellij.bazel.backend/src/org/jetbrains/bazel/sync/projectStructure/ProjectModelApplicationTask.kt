@@ -29,31 +29,42 @@ internal class ProjectModelApplicationTask(
   }
 
   suspend fun apply(storage: MutableEntityStorage) {
-    val sourceFilter: (EntitySource) -> Boolean =
-      when (scope) {
-        is FullProjectSync -> { entitySource -> entitySource is BazelEntitySource }
-        is PartialProjectSync -> error("not supported")
-      }
-
-    fun MutableEntityStorage.replaceBySource() {
-      replaceBySource(
-        sourceFilter = sourceFilter,
-        replaceWith = storage,
-      )
-    }
-
     project.syncConsole.withSubtask(
       subtaskId = taskId.subTask("apply-changes-on-workspace-model"),
       message = BazelBackendBundle.message("console.task.model.apply.changes"),
     ) {
       bspTracer.spanBuilder("apply.changes.on.workspace.model.ms").useWithScope {
         val workspaceModel = project.serviceAsync<WorkspaceModel>() as WorkspaceModelImpl
+        // diffing outside the write action keeps it short, file events can write Bazel entities meanwhile though,
+        // so the diff is used only if the model is still the one it was computed against
+        val diffedSnapshot = workspaceModel.currentSnapshot
+        val changedSources =
+          bspTracer.spanBuilder("find.changed.entity.sources.ms").use {
+            findChangedBazelEntitySources(diffedSnapshot, storage)
+          }
+
         workspaceModel.updateWithRetry(
           BazelBackendBundle.message("console.task.model.apply.changes.attempt.0.1.wsm", 0, 0),
           MAX_REPLACE_WSM_ATTEMPTS,
         ) { builder ->
+          val isDiffUpToDate = workspaceModel.currentSnapshot === diffedSnapshot
+          if (isDiffUpToDate && changedSources.isEmpty()) return@updateWithRetry
+          val sourceFilter: (EntitySource) -> Boolean =
+            when (scope) {
+              is FullProjectSync ->
+                if (isDiffUpToDate) {
+                  { entitySource -> entitySource in changedSources }
+                }
+                else {
+                  { entitySource -> entitySource is BazelEntitySource }
+                }
+              is PartialProjectSync -> error("not supported")
+            }
           bspTracer.spanBuilder("replaceprojectmodel.in.apply.on.workspace.model.ms").use {
-            builder.replaceBySource()
+            builder.replaceBySource(
+              sourceFilter = sourceFilter,
+              replaceWith = storage,
+            )
           }
         }
       }
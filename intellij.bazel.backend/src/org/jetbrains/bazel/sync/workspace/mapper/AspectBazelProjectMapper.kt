@@ -30,10 +30,10 @@ import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceTarget
 import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceTargetKey
 import org.jetbrains.bazel.sync.workspace.snapshot.toWorkspaceTargetKey
 import org.jetbrains.bazel.sync.workspace.targetKind.TargetKindService
+import org.jetbrains.bazel.utils.FileExistenceCache
 import org.jetbrains.bsp.protocol.BuildTarget
 import org.jetbrains.bsp.protocol.TaskId
 import java.nio.file.Path
-import kotlin.io.path.exists
 import kotlin.io.path.extension
 
 @ApiStatus.Internal
@@ -68,6 +68,8 @@ class AspectBazelProjectMapper(
     taskId: TaskId,
   ): List<BuildTarget> {
     val localRepositories = repoMapping.getLocalRepositories()
+    // most sources of a directory belong to the same few targets, listing it once is much cheaper than a stat per file
+    val fileExistenceCache = FileExistenceCache()
     return withContext(Dispatchers.Default) {
       val tasks =
         allTargets.values.map { target ->
@@ -76,6 +78,7 @@ class AspectBazelProjectMapper(
               target = target,
               repoMapping = repoMapping,
               localRepositories = localRepositories,
+              fileExistenceCache = fileExistenceCache,
               build = build,
               taskId = taskId,
             )
@@ -90,6 +93,7 @@ class AspectBazelProjectMapper(
     target: TargetIdeInfo,
     repoMapping: RepoMapping,
     localRepositories: LocalRepositoryMapping,
+    fileExistenceCache: FileExistenceCache,
     build: Boolean,
     taskId: TaskId,
   ): BuildTarget {
@@ -110,7 +114,7 @@ class AspectBazelProjectMapper(
     fun resolveSourceSet(srcs: List<ArtifactLocation>, category: MissingFileCategory): List<Path> {
       return srcs.mapNotNull { src: ArtifactLocation ->
         val path = bazelPathsResolver.resolve(src, localRepositories)
-        if (!path.exists()) {
+        if (!fileExistenceCache.exists(path)) {
           missingFilesReporter.add(category, src, path)
           return@mapNotNull null
         }
@@ -1,12 +1,13 @@
 package org.jetbrains.bazel.sync.workspace.persistence.mvstore
 
 import com.esotericsoftware.kryo.kryo5.io.ByteBufferInput
-import com.esotericsoftware.kryo.kryo5.io.ByteBufferOutput
+import com.esotericsoftware.kryo.kryo5.io.Output
 import com.intellij.configurationStore.SettingsSavingComponent
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.project.getProjectDataPath
+import com.intellij.util.io.ByteBufferUtil
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap
 import it.unimi.dsi.fastutil.ints.IntArrayList
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
@@ -15,9 +16,12 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.FlowPreview
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.flow.debounce
 import kotlinx.coroutines.flow.dropWhile
 import kotlinx.coroutines.flow.flowOn
@@ -35,16 +39,16 @@ import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceSnapshot
 import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceTargetKey
 import org.jetbrains.bazel.sync.workspace.snapshot.allSources
 import org.jetbrains.bsp.protocol.BuildTarget
-import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
 import java.nio.file.AtomicMoveNotSupportedException
 import java.nio.file.Path
 import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.io.path.deleteIfExists
 import kotlin.io.path.exists
 import kotlin.io.path.moveTo
-import kotlin.io.path.readBytes
-import kotlin.io.path.writeBytes
 import kotlin.time.Duration.Companion.seconds
 import kotlin.time.DurationUnit
 import kotlin.time.measureTime
@@ -69,9 +73,9 @@ import kotlin.time.measureTimedValue
  * Besides that blob also carry global [SNAPSHOT_FORMAT_VERSION] which define compatibility
  * level of low-level kryo codecs and MVStore data types, each modification of those must be followed by [SNAPSHOT_FORMAT_VERSION] bump.
  *
- * At this point in time snapshot updates should be considered heavy and only done when absolutely necessary,
- * current implementation will schedule heavy storage update each time update is performed regardless of snapshot changes.
- * Overall goal should be to make it only update targets that actually have changes.
+ * Storage updates are incremental: targets are matched with the previously stored generation by content hash of their encoded frames,
+ * and only the changed ones are written into a delta generation, unchanged targets are read through its full base generation.
+ * Once most of the targets have changed, or most of the base is stale, a full generation is written instead.
  */
 @OptIn(FlowPreview::class)
 @ApiStatus.Internal
@@ -85,7 +89,11 @@ class DefaultWorkspaceSnapshotService(
     private const val BLOB_FILE_NAME = "snapshot_blob.data"
     private const val DB_FILE_NAME = "snapshot_db.data"
 
-    private const val COMPACT_TIME_BUDGET_MILLIS = 5_000
+    // compaction waits until the snapshot has not been stored for this long
+    private val COMPACTION_IDLE_DELAY = 30.seconds
+
+    // a delta generation is written only while at most this share of the targets has changed since the base
+    private const val MAX_DELTA_CHANGED_RATIO = 0.5
   }
 
   private val blobFile = project.getProjectDataPath(BLOB_FILE_NAME)
@@ -96,6 +104,7 @@ class DefaultWorkspaceSnapshotService(
   private val storage by storageLazy
   private val updateLock = Mutex()
   private val storeLock = Mutex()
+  private val compactionRequests = MutableSharedFlow<Unit>(replay = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
 
   @Volatile
   private var lastStoredSnapshot: WorkspaceSnapshot = WorkspaceSnapshot.EMPTY
@@ -113,6 +122,8 @@ class DefaultWorkspaceSnapshotService(
         lastStoredSnapshot = loaded
         lastStoredSource = loaded
         commits.compareAndSet(WorkspaceSnapshot.EMPTY, loaded)
+        // the database may be left uncompacted by the previous session
+        compactionRequests.tryEmit(Unit)
       }
     }
     catch (e: Throwable) {
@@ -127,6 +138,25 @@ class DefaultWorkspaceSnapshotService(
         .flowOn(Dispatchers.Default)
         .collect { store(it) }
     }
+    coroutineScope.launch {
+      // every store restarts the wait, and a store during compaction waits for the current slice only
+      compactionRequests
+        .debounce(COMPACTION_IDLE_DELAY)
+        .collectLatest { compact() }
+    }
+  }
+
+  private suspend fun compact() {
+    try {
+      val time = measureTime { SnapshotCompaction.compact(storage, storeLock) }
+      log.info("`WorkspaceSnapshot` compaction time: ${time.toString(DurationUnit.MILLISECONDS, 2)}")
+    }
+    catch (e: CancellationException) {
+      throw e
+    }
+    catch (e: Throwable) {
+      log.warn("`WorkspaceSnapshot` compaction failed", e)
+    }
   }
 
   override suspend fun currentSnapshot(): WorkspaceSnapshot {
@@ -161,9 +191,20 @@ class DefaultWorkspaceSnapshotService(
     if (!blobFile.exists()) {
       return WorkspaceSnapshot.EMPTY
     }
-    // TODO: can be optimized to zero-copy file channel
-    val input = ByteBufferInput(ByteBuffer.wrap(blobFile.readBytes()))
+    // read straight from the page cache instead of copying the whole blob to the heap first
+    val mappedBlob = FileChannel.open(blobFile, StandardOpenOption.READ).use { channel ->
+      channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+    }
+    try {
+      return load(ByteBufferInput(mappedBlob))
+    }
+    finally {
+      // unmap right away, a mapped blob could not be replaced by the next store on Windows
+      ByteBufferUtil.cleanBuffer(mappedBlob)
+    }
+  }
 
+  private suspend fun load(input: ByteBufferInput): WorkspaceSnapshot {
     val formatVersion = input.readInt()
     if (formatVersion != SNAPSHOT_FORMAT_VERSION) {
       // delete stale database, at this point db isn't opened yet
@@ -244,18 +285,45 @@ class DefaultWorkspaceSnapshotService(
       snapshotBackingGeneration?.let { add(it) }
     }
     storage.sweepGenerationsExcept(keep)
-    val generation = storage.createGeneration(newGeneration)
+
+    // a delta is always written on top of a full generation, so unchanged targets are never more than one hop away
+    val previous = lastStoredSnapshot.targets as? PersistentWorkspaceTargetMap
+    val candidateBase = previous?.generation?.let { it.base ?: it }?.takeIf { it.isLive() }
+
+    // encoding against the base string table makes unchanged targets encode to the same frames as in the base
+    val stringTable = candidateBase?.seededStringTable() ?: StringTableWriter()
+    val encodedTargets = storage.encodeTargets(allTargets, stringTable)
+    val unchangedKeyIds = if (previous != null && candidateBase != null) {
+      findUnchangedTargets(allTargets, encodedTargets, previous.partialSnapshot, candidateBase)
+    }
+    else {
+      IntArray(allTargets.size)
+    }
+    val unchangedCount = unchangedKeyIds.count { it > 0 }
+    val base = candidateBase?.takeIf {
+      allTargets.size - unchangedCount <= allTargets.size * MAX_DELTA_CHANGED_RATIO &&
+      unchangedCount >= it.targetCount() * (1 - MAX_DELTA_CHANGED_RATIO)
+    }
+    val generation = storage.createGeneration(newGeneration, base)
 
     val keyId2Target = Int2ObjectBiMap<WorkspaceTargetKey>()
     val labelId2Label = Int2ObjectBiMap<Label>()
     val hash2KeyIds = Long2ObjectOpenHashMap<IntArrayList>()
-    val targetsToSave = ArrayList<WorkspaceTargetToSave>(allTargets.size)
-    var nextKeyId = 1
+    val targetsToWrite = ArrayList<Pair<Int, EncodedWorkspaceTarget>>(allTargets.size - if (base != null) unchangedCount else 0)
+    // key IDs of a delta continue after the base, so the two never overlap
+    var nextKeyId = (base?.lastKeyId() ?: 0) + 1
     var nextLabelId = 1
-    for (raw in allTargets) {
-      // setup global key/label IDs
+    for ((index, raw) in allTargets.withIndex()) {
+      // setup global key/label IDs, unchanged targets keep the key ID they have in the base
       val key = raw.key
-      val keyId = nextKeyId++
+      val keyId = if (base != null && unchangedKeyIds[index] > 0) {
+        unchangedKeyIds[index]
+      }
+      else {
+        val newKeyId = nextKeyId++
+        targetsToWrite += newKeyId to encodedTargets[index]
+        newKeyId
+      }
       keyId2Target[keyId] = key
 
       // keep labelId2Label bijective to correctly handle duplicated labels
@@ -263,9 +331,6 @@ class DefaultWorkspaceSnapshotService(
         labelId2Label[nextLabelId++] = key.label
       }
 
-      // prepare saved target
-      targetsToSave += WorkspaceTargetToSave(keyId = keyId, target = raw)
-
       // prepare file map
       raw.allSources.forEach { file -> hash2KeyIds.computeIfAbsent(hashFilePath(file)) { IntArrayList() }.add(keyId) }
     }
@@ -274,9 +339,8 @@ class DefaultWorkspaceSnapshotService(
       snapshot = snapshot, hash2KeyIds = hash2KeyIds, keyId2Target = keyId2Target,
     )
 
-    // targets are serialized in parallel on Dispatchers.Default, then appended
-    // by this coroutine in keyId order
-    generation.saveTargets(targets = targetsToSave)
+    // targets were serialized in parallel above, only the changed ones are appended by this coroutine in keyId order
+    generation.saveEncodedTargets(targets = targetsToWrite, stringTable = stringTable)
     generation.saveFileToTargetMap(map = hash2KeyIds)
     saveExecutableTargetIndex(
       snapshot = snapshot,
@@ -325,7 +389,8 @@ class DefaultWorkspaceSnapshotService(
       throw e
     }
 
-    log.info("`WorkspaceSnapshot` stored generation $newGeneration (${allTargets.size} targets)")
+    val layout = if (base != null) "delta of generation ${base.generation}" else "full"
+    log.info("`WorkspaceSnapshot` stored generation $newGeneration ($layout, ${targetsToWrite.size} of ${allTargets.size} targets written)")
 
     // swap snapshot lazy-loadable fields
     val twin = WorkspaceSnapshot(
@@ -357,7 +422,7 @@ class DefaultWorkspaceSnapshotService(
       },
     )
     storage.commit()
-    storage.compactFile(COMPACT_TIME_BUDGET_MILLIS)
+    compactionRequests.tryEmit(Unit)
   }
 
   private fun saveExecutableTargetIndex(
@@ -395,8 +460,27 @@ class DefaultWorkspaceSnapshotService(
     generation.saveExecutableTargets(map)
   }
 
-  // TODO: for now storage incremental updates are implemented in monolithic/naive way
-  //  we should aim for providing diffing between previous and current snapshot and based on that flush only necessary object
+  /**
+   * Returns the key ID each target has in [base] when its encoded frames are the same as there, or 0 when the target is new or changed.
+   */
+  private fun findUnchangedTargets(
+    allTargets: List<BuildTarget>,
+    encodedTargets: List<EncodedWorkspaceTarget>,
+    previous: PersistentWorkspaceSnapshot,
+    base: SnapshotGeneration,
+  ): IntArray {
+    val keyIds = IntArray(allTargets.size)
+    for (index in allTargets.indices) {
+      val hash = encodedTargets[index].contentHash ?: continue
+      val keyId = previous.keyId2Target.getReverseOrDefault(allTargets[index].key, -1)
+      // targets changed by a previous delta are not owned by the base, they are written again
+      if (keyId > 0 && base.ownsTarget(keyId) && base.contentHashOf(keyId) == hash) {
+        keyIds[index] = keyId
+      }
+    }
+    return keyIds
+  }
+
   private fun computePendingFileMappingDelta(
     snapshot: WorkspaceSnapshot,
     hash2KeyIds: Long2ObjectOpenHashMap<IntArrayList>,
@@ -432,25 +516,28 @@ class DefaultWorkspaceSnapshotService(
   }
 
   private fun writeBlobTmp(partial: PersistentWorkspaceSnapshot): Path {
-    // TODO: can be optimized to zero-copy file channel
-    val output = ByteBufferOutput(DEFAULT_BUFFER_SIZE, -1)
+    val blobTmp = blobFile.resolveSibling("${blobFile.fileName}.tmp")
+    val options = arrayOf(StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+    FileChannel.open(blobTmp, *options).use { channel ->
+      // kryo streams through a fixed buffer into the channel, the blob is never held in memory as a whole
+      val output = Output(Channels.newOutputStream(channel), DEFAULT_BUFFER_SIZE)
 
-    // format version
-    output.writeInt(SNAPSHOT_FORMAT_VERSION)
+      // format version
+      output.writeInt(SNAPSHOT_FORMAT_VERSION)
 
-    // fingerprint
-    val fingerprint = kryo.manifest.fingerprint()
-    output.writeInt(fingerprint.size)
-    output.writeBytes(fingerprint)
+      // fingerprint
+      val fingerprint = kryo.manifest.fingerprint()
+      output.writeInt(fingerprint.size)
+      output.writeBytes(fingerprint)
 
-    // manifest itself
-    kryo.manifest.writeTo(output)
+      // manifest itself
+      kryo.manifest.writeTo(output)
 
-    // last snapshot payload
-    kryo.pool.use { kryo -> kryo.writeObject(output, partial) }
+      // last snapshot payload
+      kryo.pool.use { kryo -> kryo.writeObject(output, partial) }
 
-    val blobTmp = blobFile.resolveSibling("${blobFile.fileName}.tmp")
-    blobTmp.writeBytes(output.toBytes())
+      output.flush()
+    }
     return blobTmp
   }
 
@@ -0,0 +1,70 @@
+package org.jetbrains.bazel.sync.workspace.persistence.mvstore
+
+import com.intellij.openapi.diagnostic.logger
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.jetbrains.annotations.VisibleForTesting
+import kotlin.time.Duration.Companion.milliseconds
+
+private val log = logger<SnapshotCompaction>()
+
+/**
+ * Compaction of the snapshot database, run in the background once the snapshot has not been stored for a while,
+ * so that it is never part of a sync.
+ *
+ * Chunks with many dead pages are rewritten in small slices, each holding the store lock only for a bounded amount of writes,
+ * so a store which comes in meanwhile waits for a single slice at most. Only once most of the file is unused the whole file
+ * is compacted, as that is the only way to give the space back.
+ */
+internal object SnapshotCompaction {
+  // below this share of live data in the chunks, the sparse chunks are rewritten
+  private const val TARGET_CHUNKS_FILL_RATE = 80
+
+  // below this share of live data in the whole file, including the free space, the file is compacted
+  private const val FULL_COMPACTION_FILL_RATE = 40
+
+  private const val SLICE_WRITE_BYTES = 16 * 1024 * 1024
+  private val PAUSE_BETWEEN_SLICES = 50.milliseconds
+
+  // rewritten chunks can stay referenced by open cursors, the rest waits for the next idle period
+  private const val MAX_SLICES = 64
+
+  private const val FULL_COMPACTION_TIME_BUDGET_MILLIS = 5_000
+
+  @VisibleForTesting
+  enum class Step { NONE, REWRITE_CHUNKS, COMPACT_FILE }
+
+  @VisibleForTesting
+  fun nextStep(fillRate: Int, chunksFillRate: Int): Step =
+    when {
+      fillRate < FULL_COMPACTION_FILL_RATE -> Step.COMPACT_FILE
+      chunksFillRate < TARGET_CHUNKS_FILL_RATE -> Step.REWRITE_CHUNKS
+      else -> Step.NONE
+    }
+
+  /**
+   * Compacts [storage] slice by slice until there is nothing worth doing or [MAX_SLICES] are done, every slice is done under [storeLock].
+   * Cancelling it between slices leaves the storage consistent.
+   */
+  suspend fun compact(storage: SnapshotStorage, storeLock: Mutex) {
+    repeat(MAX_SLICES) {
+      val isDone = storeLock.withLock {
+        if (storage.isClosed) return
+        val fillRate = storage.fillRate()
+        val chunksFillRate = storage.chunksFillRate()
+        when (nextStep(fillRate, chunksFillRate)) {
+          Step.NONE -> true
+          Step.REWRITE_CHUNKS -> !storage.rewriteChunks(TARGET_CHUNKS_FILL_RATE, SLICE_WRITE_BYTES)
+          Step.COMPACT_FILE -> {
+            log.info("Compacting snapshot storage, fill rate $fillRate%, chunks fill rate $chunksFillRate%")
+            storage.compactFile(FULL_COMPACTION_TIME_BUDGET_MILLIS)
+            true
+          }
+        }
+      }
+      if (isDone) return
+      delay(PAUSE_BETWEEN_SLICES)
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package org.jetbrains.bazel.sync.workspace.persistence.mvstore
 
+import com.dynatrace.hash4j.hashing.Hashing
 import com.esotericsoftware.kryo.kryo5.Kryo
 import com.esotericsoftware.kryo.kryo5.io.ByteBufferInput
 import com.esotericsoftware.kryo.kryo5.io.Output
@@ -17,6 +18,7 @@ import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.withContext
 import org.h2.mvstore.MVMap
+import org.h2.mvstore.MVStore
 import org.h2.mvstore.type.DataType
 import org.h2.mvstore.type.IntegerDataType
 import org.h2.mvstore.type.LongDataType
@@ -64,15 +66,19 @@ private val KRYO_OUTPUT_POOL: Pool<Output> =
  * this might cause storage file on disk be 2x larger than actual data, but the good news is that is barely impact read/write
  * performance - only larger file on disk.
  *
- * Storage maps are keyed by stable target integer ID, those IDs are calculated on each storage save from scratch
- * and saved to blob metadata, that allow for relatively fast traversals and insertions.
+ * Storage maps are keyed by stable target integer ID, those IDs are saved to blob metadata,
+ * that allow for relatively fast traversals and insertions.
  * Used maps work in "single writer" mode, that means we can access underlying B-Tree in faster way using [MVMap.append],
  * also for even bigger speedup we're always sorting keys before insertion to allow MVStore to predictibly write pages.
  *
  * Storage uses [ValueFrame] to store actual object payloads,
- * this allows for simple copies of map values (very important for future incremental storage updates),
+ * this allows for simple copies of map values and content hashing of encoded targets,
  * also is means easy parallel deserialization/serialization of underlying data which again improve write/read
- * speeds - most impact for current monolithic updates.
+ * speeds - most impact for full updates.
+ *
+ * A generation is either full or a delta on top of a full base generation. A delta generation stores only the targets
+ * whose content changed since its base and reads all the others through it, key IDs of the two never overlap.
+ * Generation string table is extended by the delta in the same way. File and executable maps are always stored in full.
  *
  * Some custom Kryo serializers use global string table (only for selected types) to avoid duplication enormous amount of data,
  * for ultimate case it caused near double reduction ~110mb -> ~60mb in on disk database size, and overall read/write speed improvements
@@ -87,10 +93,15 @@ class SnapshotStorage(
     private val log = logger<SnapshotStorage>()
 
     private fun mapName(generation: Int, suffix: String) = "snapshot.g$generation.$suffix"
+
+    private const val BASES_MAP_NAME = "snapshot.bases"
   }
 
   private val store = createOrResetMvStore(log, dbFile)
   private val openedMaps = ConcurrentHashMap<String, MVMap<*, *>>()
+
+  // <delta generation> -> <its base generation>
+  private val bases: MVMap<Int, Int> = openMap(BASES_MAP_NAME, IntegerDataType.INSTANCE, IntegerDataType.INSTANCE)
   private val generationRefMap = ConcurrentHashMap<Int, MutableList<WeakReference<SnapshotGeneration>>>()
 
   internal val allBuildTargetIds: IntList = kryo.universe.registrations
@@ -102,12 +113,34 @@ class SnapshotStorage(
   val isClosed: Boolean
     get() = store.isClosed
 
-  fun hasGeneration(generation: Int): Boolean = store.hasMap(mapName(generation, "id2PartialTarget"))
+  fun hasGeneration(generation: Int): Boolean {
+    if (!store.hasMap(mapName(generation, "id2PartialTarget"))) {
+      return false
+    }
+    val base = bases[generation] ?: return true
+    return store.hasMap(mapName(base, "id2PartialTarget"))
+  }
+
+  fun openGeneration(generation: Int): SnapshotGeneration =
+    openGeneration(generation = generation, base = bases[generation]?.let { openGeneration(it) })
+
+  // openOrResetMap opens-or-creates, so createGeneration == openGeneration on names that were just swept
+  fun createGeneration(generation: Int, base: SnapshotGeneration? = null): SnapshotGeneration {
+    if (base == null) {
+      bases.remove(generation)
+    }
+    else {
+      check(base.base == null) { "delta generation can only be based on a full one" }
+      bases[generation] = base.generation
+    }
+    return openGeneration(generation = generation, base = base)
+  }
 
-  fun openGeneration(generation: Int): SnapshotGeneration {
-    val handle =  SnapshotGeneration(
+  private fun openGeneration(generation: Int, base: SnapshotGeneration?): SnapshotGeneration {
+    val handle = SnapshotGeneration(
       generation = generation,
       storage = this,
+      base = base,
       id2PartialTarget = openFrameMap(mapName(generation, "id2PartialTarget"), IntegerDataType.INSTANCE),
       id2TargetDeps = openFrameMap(mapName(generation, "id2TargetDeps"), IntegerDataType.INSTANCE),
       id2HeavyTarget = openFrameMap(mapName(generation, "id2HeavyTarget"), IntegerDataType.INSTANCE),
@@ -115,28 +148,29 @@ class SnapshotStorage(
       file2KeyIds = openMap(mapName(generation, "file2KeyIds"), LongDataType.INSTANCE, IntListDataType),
       executables = openMap(mapName(generation, "executables"), IntegerDataType.INSTANCE, IntListDataType),
       strings = openMap(mapName(generation, "strings"), IntegerDataType.INSTANCE, StringDataType.INSTANCE),
+      id2Hash = openMap(mapName(generation, "id2Hash"), IntegerDataType.INSTANCE, LongDataType.INSTANCE),
     )
     generationRefMap.computeIfAbsent(generation) { CopyOnWriteArrayList() }
       .add(WeakReference(handle))
     return handle
   }
 
-  // openOrResetMap opens-or-creates, so createGeneration == openGeneration on names that were just swept
-  fun createGeneration(generation: Int): SnapshotGeneration = openGeneration(generation)
-
   fun sweepGenerationsExcept(keep: Set<Int>) {
+    // delta generations read unchanged targets through their base
+    val keepWithBases = keep + keep.mapNotNull { bases[it] }
     for (name in store.mapNames.toList()) {
       if (!name.startsWith("snapshot.g")) {
         continue
       }
       val generation = name.removePrefix("snapshot.g").substringBefore('.').toIntOrNull() ?: continue
-      if (generation in keep) {
+      if (generation in keepWithBases) {
         continue
       }
       if (isGenerationReferenced(generation)) {
         continue
       }
       store.removeMap(openedMaps.remove(name) ?: openUnknownMap(name))
+      bases.remove(generation)
     }
   }
 
@@ -162,6 +196,24 @@ class SnapshotStorage(
     store.compactFile(maxCompactTimeMillis)
   }
 
+  /** Percentage of live data in the file, including its free space, see [MVStore.getFillRate]. */
+  fun fillRate(): Int = store.fillRate
+
+  /** Percentage of live data in the chunks, the rest are dead pages, see [MVStore.getChunksFillRate]. */
+  fun chunksFillRate(): Int = store.chunksFillRate
+
+  /**
+   * Moves the live pages of the sparsest chunks into new ones, writing at most [maxWriteBytes].
+   * Returns false when no chunk was below [targetFillRate].
+   */
+  fun rewriteChunks(targetFillRate: Int, maxWriteBytes: Int): Boolean {
+    val rewritten = store.compact(targetFillRate, maxWriteBytes)
+    if (rewritten) {
+      store.commit()
+    }
+    return rewritten
+  }
+
   fun rollback() {
     store.rollback()
   }
@@ -220,6 +272,65 @@ class SnapshotStorage(
     }
   }
 
+  // result is in the order of [targets]
+  internal suspend fun encodeTargets(targets: List<BuildTarget>, stringTable: StringTableWriter): List<EncodedWorkspaceTarget> {
+    val encodedChunks = withContext(ENCODE_DISPATCHER) {
+      targets.chunked(ENCODE_CHUNK_SIZE)
+        .map { chunk ->
+          async {
+            // use single kryo for batch to avoid pool lock contention
+            kryo.valuePool.use { kryo ->
+              KRYO_OUTPUT_POOL.use { output ->
+                chunk.map { encodeTarget(it, kryo, output, stringTable) }
+              }
+            }
+          }
+        }
+        .awaitAll()
+    }
+    return encodedChunks.flatten()
+  }
+
+  internal fun encodeTarget(
+    raw: BuildTarget,
+    kryo: Kryo,
+    output: Output,
+    stringTable: StringTableWriter? = null,
+  ): EncodedWorkspaceTarget {
+    val partialTarget = PartialWorkspaceTarget(
+      kind = raw.kind,
+      baseDirectory = raw.baseDirectory,
+      generatorName = raw.generatorName,
+      isWorkspace = raw.isWorkspace,
+      isTestOnly = raw.isTestOnly,
+      tags = raw.tags,
+    )
+    val targetDeps = WorkspaceTargetDeps(dependencies = raw.dependencies)
+    val heavyTarget = HeavyWorkspaceTarget(
+      sources = raw.sources,
+      generatedSources = raw.generatedSources,
+      resources = raw.resources,
+    )
+
+    // packed keys must stay ascending for append, sort by data id within the target
+    val sortedData = raw.data.map { data ->
+      val dataId = this.kryo.universe.type2Id.getOrDefault(data.javaClass, -1)
+      if (dataId < 0) {
+        error("Unrecognized `${BuildTargetData::class}` type `${data::class}`")
+      }
+      else {
+        dataId to data
+      }
+    }.sortedBy { it.first }
+
+    return EncodedWorkspaceTarget(
+      partialFrame = encodeFrame(kryo, output, partialTarget, stringTable),
+      depsFrame = encodeFrame(kryo, output, targetDeps, stringTable),
+      heavyFrame = encodeFrame(kryo, output, heavyTarget, stringTable),
+      dataFrames = sortedData.map { (dataId, data) -> dataId to encodeFrame(kryo, output, data, stringTable) },
+    )
+  }
+
   private fun <K> openFrameMap(name: String, keyType: DataType<K>): MVMap<K, ValueFrame> {
     val builder = MVMap.Builder<K, ValueFrame>()
     builder.setKeyType(keyType)
@@ -243,6 +354,9 @@ class SnapshotStorage(
 class SnapshotGeneration internal constructor(
   val generation: Int,
   private val storage: SnapshotStorage,
+
+  // full generation this one is a delta of, null for a full generation
+  internal val base: SnapshotGeneration?,
   private val id2PartialTarget: MVMap<Int, ValueFrame>,
   private val id2TargetDeps: MVMap<Int, ValueFrame>,
   private val id2HeavyTarget: MVMap<Int, ValueFrame>,
@@ -252,6 +366,9 @@ class SnapshotGeneration internal constructor(
   private val file2KeyIds: MVMap<Long, IntArrayList>,
   private val executables: MVMap<Int, IntArrayList>,
   private val strings: MVMap<Int, String>,
+
+  // content hash of the encoded frames of each target, used to find unchanged targets on the next save
+  private val id2Hash: MVMap<Int, Long>,
 ) {
   private val fullTargetCache: Cache<WorkspaceTargetKey, BuildTarget?> = Caffeine.newBuilder()
     .weakValues() // TODO: check if cleaning cache after sync is better
@@ -261,9 +378,28 @@ class SnapshotGeneration internal constructor(
   // of paths and labels, which are very likely to duplicate across isolated targets
   // inside spread maps, due to MVStore `DataType` serialization separation (`ValueFrame`),
   // we can access this table on the fly while reading/writing objects
-  private val stringTable = StringTableReader(strings)
+  private val stringTable: StringTableReader = StringTableReader(strings, base?.stringTable)
 
-  internal fun isLive(): Boolean = !id2PartialTarget.isClosed
+  internal fun isLive(): Boolean = !id2PartialTarget.isClosed && (base == null || base.isLive())
+
+  // whether frames of the target are stored in this generation rather than in its base
+  internal fun ownsTarget(keyId: Int): Boolean = isLive() && id2PartialTarget.containsKey(keyId)
+
+  internal fun contentHashOf(keyId: Int): Long? = if (isLive()) id2Hash[keyId] else null
+
+  internal fun lastKeyId(): Int = (if (isLive()) id2PartialTarget.lastKey() else null) ?: 0
+
+  internal fun targetCount(): Int = if (isLive()) id2PartialTarget.size else 0
+
+  // string table writer which keeps the ids of this generation, so unchanged targets encode to the same frames
+  internal fun seededStringTable(): StringTableWriter {
+    check(base == null) { "only a full generation has a complete string table" }
+    val seed = HashMap<String, Int>(strings.size)
+    for ((id, value) in strings.entries) {
+      seed[value] = id
+    }
+    return StringTableWriter(seed)
+  }
 
   private fun composeNewWorkspaceTarget(
     partialSnapshot: PersistentWorkspaceSnapshot,
@@ -275,6 +411,10 @@ class SnapshotGeneration internal constructor(
       // TODO: assert
       return null
     }
+    if (base != null && !id2PartialTarget.containsKey(keyId)) {
+      // unchanged since the base generation
+      return base.composeNewWorkspaceTarget(partialSnapshot, key, options)
+    }
     val partialData = storage.decodeFrame(id2PartialTarget[keyId], PartialWorkspaceTarget::class.java, stringTable)
                       ?: return null
     return composeFromFrames(
@@ -359,7 +499,13 @@ class SnapshotGeneration internal constructor(
     return map[mapKey]
   }
 
-  fun scanAllTargets(partialSnapshot: PersistentWorkspaceSnapshot, options: TargetLoadOptions): Sequence<BuildTarget> = sequence {
+  fun scanAllTargets(partialSnapshot: PersistentWorkspaceSnapshot, options: TargetLoadOptions): Sequence<BuildTarget> {
+    val ownTargets = scanOwnTargets(partialSnapshot, options)
+    // stale base targets are skipped, they are no longer in the key map of the snapshot
+    return if (base == null) ownTargets else base.scanOwnTargets(partialSnapshot, options) + ownTargets
+  }
+
+  private fun scanOwnTargets(partialSnapshot: PersistentWorkspaceSnapshot, options: TargetLoadOptions): Sequence<BuildTarget> = sequence {
     if (!isLive()) {
       return@sequence
     }
@@ -415,91 +561,39 @@ class SnapshotGeneration internal constructor(
   // TODO: assert not partial
   @VisibleForTesting
   fun saveTarget(target: WorkspaceTargetToSave) {
-    val encoded = storage.kryo.valuePool.use { kryo -> KRYO_OUTPUT_POOL.use { output -> encodeTarget(target, kryo, output) } }
-    appendTarget(encoded)
+    val encoded = storage.kryo.valuePool.use { kryo -> KRYO_OUTPUT_POOL.use { output -> storage.encodeTarget(target.target, kryo, output) } }
+    appendTarget(target.keyId, encoded)
   }
 
   suspend fun saveTargets(targets: List<WorkspaceTargetToSave>) {
     val stringTable = StringTableWriter()
-    val encodedChunks = withContext(ENCODE_DISPATCHER) {
-      targets.chunked(ENCODE_CHUNK_SIZE)
-        .map { chunk ->
-          async {
-            // use single kryo for batch to avoid pool lock contention
-            storage.kryo.valuePool.use { kryo ->
-              KRYO_OUTPUT_POOL.use { output ->
-                chunk.map { encodeTarget(it, kryo, output, stringTable) }
-              }
-            }
-          }
-        }
-        .awaitAll()
-    }
-    for (chunk in encodedChunks) {
-      for (target in chunk) {
-        appendTarget(target)
-      }
+    val encoded = storage.encodeTargets(targets.map { it.target }, stringTable)
+    saveEncodedTargets(targets = targets.indices.map { targets[it].keyId to encoded[it] }, stringTable = stringTable)
+  }
+
+  // (keyId, target) ascending by keyId, targets must have been encoded with [stringTable]
+  internal fun saveEncodedTargets(targets: List<Pair<Int, EncodedWorkspaceTarget>>, stringTable: StringTableWriter) {
+    for ((keyId, target) in targets) {
+      appendTarget(keyId, target)
     }
-    // persisted in the same commit as the frames that reference it
-    for ((id, value) in stringTable.sortedEntries()) {
+    // persisted in the same commit as the frames that reference it, strings of the base are read through it
+    val afterId = if (base == null) 0 else stringTable.lastSeededId
+    for ((id, value) in stringTable.sortedEntries(afterId)) {
       strings.append(id, value)
     }
 
     fullTargetCache.invalidateAll()
   }
 
-  private fun encodeTarget(
-    target: WorkspaceTargetToSave,
-    kryo: Kryo,
-    output: Output,
-    stringTable: StringTableWriter? = null,
-  ): EncodedWorkspaceTarget {
-    val raw = target.target
-
-    val partialTarget = PartialWorkspaceTarget(
-      kind = raw.kind,
-      baseDirectory = raw.baseDirectory,
-      generatorName = raw.generatorName,
-      isWorkspace = raw.isWorkspace,
-      isTestOnly = raw.isTestOnly,
-      tags = raw.tags,
-    )
-    val targetDeps = WorkspaceTargetDeps(dependencies = raw.dependencies)
-    val heavyTarget = HeavyWorkspaceTarget(
-      sources = raw.sources,
-      generatedSources = raw.generatedSources,
-      resources = raw.resources,
-    )
-
-    // packed keys must stay ascending for append, sort by data id within the target
-    val sortedData = raw.data.map { data ->
-      val dataId = storage.kryo.universe.type2Id.getOrDefault(data.javaClass, -1)
-      if (dataId < 0) {
-        error("Unrecognized `${BuildTargetData::class}` type `${data::class}`")
-      }
-      else {
-        dataId to data
-      }
-    }.sortedBy { it.first }
-
-    return EncodedWorkspaceTarget(
-      keyId = target.keyId,
-      partialFrame = storage.encodeFrame(kryo, output, partialTarget, stringTable),
-      depsFrame = storage.encodeFrame(kryo, output, targetDeps, stringTable),
-      heavyFrame = storage.encodeFrame(kryo, output, heavyTarget, stringTable),
-      dataFrames = sortedData.map { (dataId, data) -> dataId to storage.encodeFrame(kryo, output, data, stringTable) },
-    )
-  }
-
   // the single-writer: appends only, must stay on one thread
-  private fun appendTarget(encoded: EncodedWorkspaceTarget) {
-    val keyId = encoded.keyId
+  private fun appendTarget(keyId: Int, encoded: EncodedWorkspaceTarget) {
     id2PartialTarget.append(keyId, encoded.partialFrame)
     id2TargetDeps.append(keyId, encoded.depsFrame)
     id2HeavyTarget.append(keyId, encoded.heavyFrame)
     for ((dataId, frame) in encoded.dataFrames) {
       id2TargetData.append(BuildTargetPack.pack(keyId, dataId), frame)
     }
+    encoded.contentHash?.let { id2Hash.append(keyId, it) }
   }
 
   // <path hash> -> <list of key IDs>
@@ -566,8 +660,7 @@ class SnapshotGeneration internal constructor(
   }
 }
 
-private class EncodedWorkspaceTarget(
-  val keyId: Int,
+internal class EncodedWorkspaceTarget(
   val partialFrame: ValueFrame,
   val depsFrame: ValueFrame,
   val heavyFrame: ValueFrame,
@@ -575,7 +668,27 @@ private class EncodedWorkspaceTarget(
   // (dataId, frame) sorted ascending by dataId
   // TODO: maybe Int2ArrayMap<...> here?
   val dataFrames: List<Pair<Int, ValueFrame>>,
-)
+) {
+  // null when some frame failed to encode, such target is never considered unchanged
+  val contentHash: Long? = computeContentHash()
+
+  private fun computeContentHash(): Long? {
+    val stream = Hashing.xxh3_64().hashStream()
+    for (frame in listOf(partialFrame, depsFrame, heavyFrame)) {
+      if (frame !is ValueFrame.Present) {
+        return null
+      }
+      stream.putInt(frame.payload.size).putBytes(frame.payload)
+    }
+    for ((dataId, frame) in dataFrames) {
+      if (frame !is ValueFrame.Present) {
+        return null
+      }
+      stream.putInt(dataId).putInt(frame.payload.size).putBytes(frame.payload)
+    }
+    return stream.asLong
+  }
+}
 
 internal object BuildTargetPack {
   fun pack(keyId: Int, buildTargetId: Int): Long = (keyId.toLong() shl 32) or (buildTargetId.toLong() and 0xFFFF_FFFFL)
@@ -10,19 +10,39 @@ import java.util.concurrent.atomic.AtomicInteger
 internal const val STRING_TABLE_WRITE_KEY: String = "snapshot.stringTable.write"
 internal const val STRING_TABLE_READ_KEY: String = "snapshot.stringTable.read"
 
-internal class StringTableWriter {
-  private val ids = ConcurrentHashMap<String, Int>()
-  private val nextId = AtomicInteger(1)
-
-  fun idFor(value: String): Int = ids.computeIfAbsent(value) { nextId.getAndIncrement() }
+/**
+ * Assigns string table ids while encoding frames.
+ *
+ * A writer seeded with the table of a base generation gives the same ids to strings that are already there,
+ * so frames of unchanged targets encode to the same bytes as in the base generation.
+ * Seeded strings are only written out again when they are actually used.
+ */
+internal class StringTableWriter(seed: Map<String, Int> = emptyMap()) {
+  private val ids = ConcurrentHashMap<String, Int>(seed)
+  private val used: MutableSet<Int>? = if (seed.isEmpty()) null else ConcurrentHashMap.newKeySet()
+
+  // last id taken from the seed, ids after it are new
+  val lastSeededId: Int = seed.values.maxOrNull() ?: 0
+  private val nextId = AtomicInteger(lastSeededId + 1)
+
+  fun idFor(value: String): Int {
+    val id = ids.computeIfAbsent(value) { nextId.getAndIncrement() }
+    used?.add(id)
+    return id
+  }
 
   // ascending by id, as required by MVMap.append
-  fun sortedEntries(): List<Pair<Int, String>> = ids.entries.map { it.value to it.key }.sortedBy { it.first }
+  fun sortedEntries(afterId: Int = 0): List<Pair<Int, String>> =
+    ids.entries
+      .filter { it.value > afterId && (used == null || it.value in used) }
+      .map { it.value to it.key }
+      .sortedBy { it.first }
 }
 
-internal class StringTableReader(private val strings: MVMap<Int, String>) {
+// frames of a delta generation may reference strings of its base generation
+internal class StringTableReader(private val strings: MVMap<Int, String>, private val base: StringTableReader? = null) {
   private val cache = ConcurrentHashMap<Int, String>()
 
   fun get(id: Int): String =
-    cache.computeIfAbsent(id) { strings[it] ?: error("string table has no entry for id $it") }
+    cache.computeIfAbsent(id) { strings[it] ?: base?.get(it) ?: error("string table has no entry for id $it") }
 }
@@ -1,8 +1,14 @@
 package org.jetbrains.bazel.sync.workspace.snapshot
 
 import com.dynatrace.hash4j.hashing.Hashing
+import it.unimi.dsi.fastutil.ints.IntArrayList
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.withContext
 import org.jetbrains.annotations.ApiStatus
 import org.jetbrains.annotations.VisibleForTesting
 import org.jetbrains.bazel.label.Label
@@ -94,6 +100,68 @@ object File2TargetMapBuilder {
     )
   }
 
+  /**
+   * Same as [build], but the source paths of partitions of [targets] are hashed concurrently. The hashes are split by their
+   * top bits, so each split is collected into its own map without any locking, and the maps are merged at the end.
+   * The targets of a file keep the order of [targets].
+   */
+  suspend fun buildConcurrently(targets: List<BuildTarget>): FileToTargetMap {
+    if (targets.size <= MIN_PARTITION_SIZE) return build(targets)
+
+    val partitionSize = maxOf(MIN_PARTITION_SIZE, (targets.size + PARTITIONS - 1) / PARTITIONS)
+    return withContext(Dispatchers.Default) {
+      val hashedPartitions =
+        (targets.indices step partitionSize).map { from ->
+          async { hashSources(targets, from, minOf(from + partitionSize, targets.size)) }
+        }.awaitAll()
+
+      val splitMaps =
+        (0 until HASH_SPLITS).map { split ->
+          async {
+            val hash2Targets = Long2ObjectOpenHashMap<ArrayList<WorkspaceTargetKey>>()
+            // partitions are visited in order, so the targets of a file stay in the order of `targets`
+            for (partition in hashedPartitions) {
+              val hashes = partition.hashes[split]
+              val targetIndices = partition.targetIndices[split]
+              for (i in 0 until hashes.size) {
+                hash2Targets.computeIfAbsent(hashes.getLong(i)) { ArrayList() }
+                  .add(targets[targetIndices.getInt(i)].key)
+              }
+            }
+            hash2Targets
+          }
+        }.awaitAll()
+
+      // the splits have disjoint keys
+      val hash2Targets = Long2ObjectOpenHashMap<ArrayList<WorkspaceTargetKey>>(splitMaps.sumOf { it.size })
+      splitMaps.forEach { hash2Targets.putAll(it) }
+      InMemoryFileToTargetMap(hash2Targets = hash2Targets)
+    }
+  }
+
+  private class HashedSources(
+    val hashes: Array<LongArrayList>,
+    val targetIndices: Array<IntArrayList>,
+  )
+
+  private fun hashSources(targets: List<BuildTarget>, from: Int, until: Int): HashedSources {
+    val hashed = HashedSources(Array(HASH_SPLITS) { LongArrayList() }, Array(HASH_SPLITS) { IntArrayList() })
+    for (targetIndex in from until until) {
+      for (source in targets[targetIndex].allSources) {
+        val hash = hashFilePath(source)
+        val split = (hash ushr (Long.SIZE_BITS - HASH_SPLIT_BITS)).toInt()
+        hashed.hashes[split].add(hash)
+        hashed.targetIndices[split].add(targetIndex)
+      }
+    }
+    return hashed
+  }
+
+  private const val PARTITIONS = 16
+  private const val MIN_PARTITION_SIZE = 4096
+  private const val HASH_SPLIT_BITS = 4
+  private const val HASH_SPLITS = 1 shl HASH_SPLIT_BITS
+
   @VisibleForTesting
   fun build(targets: Map<Path, List<WorkspaceTargetKey>>): FileToTargetMap =
     InMemoryFileToTargetMap(
@@ -0,0 +1,237 @@
+package org.jetbrains.bazel.sync.workspace.snapshot
+
+import it.unimi.dsi.fastutil.ints.IntArrayList
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Transitive closure over a target adjacency, computed on a condensation of the graph into strongly connected components.
+ *
+ * Components are numbered in the order Tarjan's algorithm completes them, so successors always get lower numbers
+ * and a subtree of the DFS forest occupies a contiguous range. The closure of a component is therefore kept as
+ * a short list of component ranges, and it is computed lazily and memoized, from the closures of its successors.
+ * Members of each component are stored next to each other, so a range expands to target ids with a single array copy.
+ */
+internal class TargetReachabilityIndex(adjacency: Array<IntArray>) {
+  private val targetCount = adjacency.size
+
+  // target id -> component id
+  private val componentOf = IntArray(targetCount)
+
+  // component id -> member target ids, members of component c are componentMembers[componentStart[c] until componentStart[c + 1]]
+  private val componentStart: IntArray
+  private val componentMembers = IntArray(targetCount)
+
+  // component whose members reach each other, either several targets or a target depending on itself
+  private val isCyclic: BooleanArray
+
+  // component id -> successor component ids, same layout as members
+  private val successorStart: IntArray
+  private val successors: IntArray
+
+  // component id -> closure as inclusive component ranges [from0, to0, from1, to1, ...], without the component itself
+  private val closures: AtomicReferenceArray<IntArray?>
+
+  init {
+    val componentCount = findComponents(adjacency)
+    componentStart = IntArray(componentCount + 1)
+    for (targetId in 0 until targetCount) {
+      componentStart[componentOf[targetId] + 1]++
+    }
+    for (component in 0 until componentCount) {
+      componentStart[component + 1] += componentStart[component]
+    }
+    val nextMember = componentStart.copyOf(componentCount)
+    for (targetId in 0 until targetCount) {
+      componentMembers[nextMember[componentOf[targetId]]++] = targetId
+    }
+
+    isCyclic = BooleanArray(componentCount)
+    successorStart = IntArray(componentCount + 1)
+    val condensed = IntArrayList()
+    val componentSuccessors = IntOpenHashSet()
+    for (component in 0 until componentCount) {
+      componentSuccessors.clear()
+      for (n in componentStart[component] until componentStart[component + 1]) {
+        val targetId = componentMembers[n]
+        for (succId in adjacency[targetId]) {
+          val succComponent = componentOf[succId]
+          if (succComponent == component) {
+            isCyclic[component] = true
+          }
+          else {
+            componentSuccessors.add(succComponent)
+          }
+        }
+      }
+      if (componentStart[component + 1] - componentStart[component] > 1) {
+        isCyclic[component] = true
+      }
+      condensed.addAll(componentSuccessors)
+      successorStart[component + 1] = condensed.size
+    }
+    successors = condensed.toIntArray()
+    closures = AtomicReferenceArray(componentCount)
+  }
+
+  /**
+   * All targets reachable from [targetId] over at least one edge, it includes [targetId] only when it lies on a cycle.
+   */
+  fun transitiveSuccessors(targetId: Int): IntArray {
+    val component = componentOf[targetId]
+    val ranges = closureOf(component)
+    var size = if (isCyclic[component]) memberCount(component) else 0
+    for (n in ranges.indices step 2) {
+      size += componentStart[ranges[n + 1] + 1] - componentStart[ranges[n]]
+    }
+    val result = IntArray(size)
+    var offset = 0
+    for (n in ranges.indices step 2) {
+      val from = componentStart[ranges[n]]
+      val length = componentStart[ranges[n + 1] + 1] - from
+      System.arraycopy(componentMembers, from, result, offset, length)
+      offset += length
+    }
+    if (isCyclic[component]) {
+      System.arraycopy(componentMembers, componentStart[component], result, offset, memberCount(component))
+    }
+    return result
+  }
+
+  private fun memberCount(component: Int): Int = componentStart[component + 1] - componentStart[component]
+
+  private fun closureOf(component: Int): IntArray {
+    closures.get(component)?.let { return it }
+    // post-order walk over the condensation, it is acyclic so every component is resolved after its successors
+    val toResolve = IntArrayList()
+    toResolve.add(component)
+    while (!toResolve.isEmpty) {
+      val current = toResolve.getInt(toResolve.size - 1)
+      if (closures.get(current) != null) {
+        toResolve.removeInt(toResolve.size - 1)
+        continue
+      }
+      var hasUnresolved = false
+      for (n in successorStart[current] until successorStart[current + 1]) {
+        val succ = successors[n]
+        if (closures.get(succ) == null) {
+          toResolve.add(succ)
+          hasUnresolved = true
+        }
+      }
+      if (!hasUnresolved) {
+        closures.compareAndSet(current, null, mergeSuccessorClosures(current))
+        toResolve.removeInt(toResolve.size - 1)
+      }
+    }
+    return closures.get(component)!!
+  }
+
+  private fun mergeSuccessorClosures(component: Int): IntArray {
+    // ranges packed as (from << 32 | to), sorting them sorts by range start
+    val ranges = LongArrayList()
+    for (n in successorStart[component] until successorStart[component + 1]) {
+      val succ = successors[n]
+      ranges.add(packRange(succ, succ))
+      val succRanges = closures.get(succ)!!
+      for (m in succRanges.indices step 2) {
+        ranges.add(packRange(succRanges[m], succRanges[m + 1]))
+      }
+    }
+    if (ranges.isEmpty) {
+      return NO_RANGES
+    }
+    ranges.sort(null)
+
+    val merged = IntArrayList()
+    var from = rangeFrom(ranges.getLong(0))
+    var to = rangeTo(ranges.getLong(0))
+    for (n in 1 until ranges.size) {
+      val range = ranges.getLong(n)
+      if (rangeFrom(range) <= to + 1) {
+        to = maxOf(to, rangeTo(range))
+      }
+      else {
+        merged.add(from)
+        merged.add(to)
+        from = rangeFrom(range)
+        to = rangeTo(range)
+      }
+    }
+    merged.add(from)
+    merged.add(to)
+    return merged.toIntArray()
+  }
+
+  /**
+   * Iterative Tarjan's algorithm, fills [componentOf] and returns the number of components.
+   */
+  private fun findComponents(adjacency: Array<IntArray>): Int {
+    val index = IntArray(targetCount) { -1 }
+    val lowLink = IntArray(targetCount)
+    val onStack = BooleanArray(targetCount)
+    val nextEdge = IntArray(targetCount)
+    val componentStack = IntArrayList()
+    val callStack = IntArrayList()
+    var nextIndex = 0
+    var componentCount = 0
+
+    for (start in 0 until targetCount) {
+      if (index[start] != -1) {
+        continue
+      }
+      index[start] = nextIndex
+      lowLink[start] = nextIndex
+      nextIndex++
+      componentStack.add(start)
+      onStack[start] = true
+      callStack.add(start)
+
+      while (!callStack.isEmpty) {
+        val current = callStack.getInt(callStack.size - 1)
+        val edges = adjacency[current]
+        if (nextEdge[current] < edges.size) {
+          val succ = edges[nextEdge[current]++]
+          if (index[succ] == -1) {
+            index[succ] = nextIndex
+            lowLink[succ] = nextIndex
+            nextIndex++
+            componentStack.add(succ)
+            onStack[succ] = true
+            callStack.add(succ)
+          }
+          else if (onStack[succ]) {
+            lowLink[current] = minOf(lowLink[current], index[succ])
+          }
+          continue
+        }
+
+        callStack.removeInt(callStack.size - 1)
+        if (lowLink[current] == index[current]) {
+          do {
+            val member = componentStack.removeInt(componentStack.size - 1)
+            onStack[member] = false
+            componentOf[member] = componentCount
+          } while (member != current)
+          componentCount++
+        }
+        if (!callStack.isEmpty) {
+          val parent = callStack.getInt(callStack.size - 1)
+          lowLink[parent] = minOf(lowLink[parent], lowLink[current])
+        }
+      }
+    }
+    return componentCount
+  }
+
+  private companion object {
+    val NO_RANGES = IntArray(0)
+
+    fun packRange(from: Int, to: Int): Long = (from.toLong() shl 32) or to.toLong()
+
+    fun rangeFrom(range: Long): Int = (range ushr 32).toInt()
+
+    fun rangeTo(range: Long): Int = range.toInt()
+  }
+}
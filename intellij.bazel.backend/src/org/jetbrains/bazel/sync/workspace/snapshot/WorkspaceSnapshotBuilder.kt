@@ -1,6 +1,10 @@
 package org.jetbrains.bazel.sync.workspace.snapshot
 
 import com.intellij.openapi.project.Project
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.withContext
 import org.jetbrains.annotations.ApiStatus
 import org.jetbrains.bazel.commons.RepoMapping
 import org.jetbrains.bazel.config.bazelProjectName
@@ -26,17 +30,28 @@ object WorkspaceSnapshotBuilder {
       importDepth = projectView.importDepth,
     )
     val targets = resolved.targets.associateBy { it.key }
-    val targetGraph = WorkspaceTargetGraphBuilder.build(resolved.rootTargets, targets.values)
+    val targetList = targets.values.toList()
+    // the indices only read the targets, so they are built next to each other, the executable targets need the graph
+    val (targetGraph, fileToTarget, executableTargets) =
+      coroutineScope {
+        val fileToTarget = async { File2TargetMapBuilder.buildConcurrently(targets = targetList) }
+        val targetGraph = WorkspaceTargetGraphBuilder.buildConcurrently(resolved.rootTargets, targetList)
+        val executableTargets =
+          withContext(Dispatchers.Default) {
+            ExecutableTargetsIndexBuilder.build(
+              targetGraph = targetGraph,
+              importDepth = commonSyncConfig.importDepth,
+              targets = targetList,
+            )
+          }
+        Triple(targetGraph, fileToTarget.await(), executableTargets)
+      }
     return WorkspaceSnapshot(
       targets = InMemoryWorkspaceTargetMap(targets),
       configurations = resolved.configurations,
       targetGraph = targetGraph,
-      fileToTarget = File2TargetMapBuilder.build(targets = targets.values),
-      executableTargets = ExecutableTargetsIndexBuilder.build(
-        targetGraph = targetGraph,
-        importDepth = commonSyncConfig.importDepth,
-        targets = targets.values,
-      ),
+      fileToTarget = fileToTarget,
+      executableTargets = executableTargets,
       syncConfigs = listOf(commonSyncConfig) + LanguagePlugin.EP_NAME.extensionList
         .flatMap { it.createSyncConfigs(project, projectView) },
       repoMapping = repoMapping,
@@ -1,5 +1,6 @@
 package org.jetbrains.bazel.sync.workspace.snapshot
 
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue
 import it.unimi.dsi.fastutil.ints.IntArrayList
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet
 import it.unimi.dsi.fastutil.ints.IntSet
@@ -7,7 +8,13 @@ import it.unimi.dsi.fastutil.objects.Object2IntMap
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import org.jetbrains.annotations.ApiStatus
+import org.jetbrains.annotations.VisibleForTesting
 import org.jetbrains.bazel.label.DependencyLabel
 import org.jetbrains.bazel.label.DependencyLabelKind
 import org.jetbrains.bazel.label.Label
@@ -15,7 +22,6 @@ import org.jetbrains.bazel.label.SingleTarget
 import org.jetbrains.bazel.label.assumeResolved
 import org.jetbrains.bazel.sync.workspace.persistence.WorkspaceTargetRef
 import org.jetbrains.bsp.protocol.BuildTarget
-import java.util.concurrent.atomic.AtomicReferenceArray
 
 /**
  * Immutable [BuildTarget] graph, takes into account configurations [WorkspaceConfiguration]
@@ -148,20 +154,31 @@ internal class WorkspaceTargetGraphImpl internal constructor(
   private val rootTargetIds: IntSet,
   private val targetKey2TargetId: Object2IntMap<WorkspaceTargetKey>,
   private val labelConfig2TargetIds: Object2ObjectMap<LabelConfigKey, IntArray>,
-  private val id2WorkspaceTarget: Array<WorkspaceTargetKey>,
-  private val id2CompileSuccessors: Array<IntArray>,
-  private val id2AllSuccessors: Array<IntArray>,
-  private val id2RelaxedCompileSuccessors: Array<IntArray>,
-  private val id2RelaxedAllSuccessors: Array<IntArray>,
+  @get:VisibleForTesting internal val id2WorkspaceTarget: Array<WorkspaceTargetKey>,
+  @get:VisibleForTesting internal val id2CompileSuccessors: Array<IntArray>,
+  @get:VisibleForTesting internal val id2AllSuccessors: Array<IntArray>,
+  @get:VisibleForTesting internal val id2RelaxedCompileSuccessors: Array<IntArray>,
+  @get:VisibleForTesting internal val id2RelaxedAllSuccessors: Array<IntArray>,
 ) : WorkspaceTargetGraph {
 
-  // recreated lazily: Kryo field serialization skips transient fields and instantiates
+  // created lazily: Kryo field serialization skips transient fields and instantiates
   // the class without running field initializers
   @field:Transient
-  private var id2TransitiveTargetCache: AtomicReferenceArray<IntArray?>? = AtomicReferenceArray(id2WorkspaceTarget.size)
+  @Volatile
+  private var strictReachability: TargetReachabilityIndex? = null
 
-  private fun transitiveTargetCache(): AtomicReferenceArray<IntArray?> =
-    id2TransitiveTargetCache ?: AtomicReferenceArray<IntArray?>(id2WorkspaceTarget.size).also { id2TransitiveTargetCache = it }
+  @field:Transient
+  @Volatile
+  private var relaxedReachability: TargetReachabilityIndex? = null
+
+  // a racing thread may build the index twice, both copies are equivalent
+  private fun reachabilityIndex(useRelaxedDependencyExpansion: Boolean): TargetReachabilityIndex =
+    if (useRelaxedDependencyExpansion) {
+      relaxedReachability ?: TargetReachabilityIndex(id2RelaxedCompileSuccessors).also { relaxedReachability = it }
+    }
+    else {
+      strictReachability ?: TargetReachabilityIndex(id2CompileSuccessors).also { strictReachability = it }
+    }
 
   // no backing field: a stored Sequence would end up in the serialized form
   override val allTargets: Sequence<WorkspaceTargetRef>
@@ -211,8 +228,7 @@ internal class WorkspaceTargetGraphImpl internal constructor(
   ): Sequence<WorkspaceTargetRef> {
     val depth = IntArray(id2WorkspaceTarget.size) { Int.MAX_VALUE }
 
-    // TODO: use primitive collection here
-    val toVisit = ArrayDeque<Int>()
+    val toVisit = IntArrayFIFOQueue()
     val result = mutableListOf<WorkspaceTargetKey>()
 
     val compileSuccessors = if (useRelaxedDependencyExpansion) {
@@ -234,12 +250,12 @@ internal class WorkspaceTargetGraphImpl internal constructor(
       if (!condition(target)) {
         continue
       }
-      toVisit.add(targetId)
+      toVisit.enqueue(targetId)
       depth[targetId] = 0
     }
 
-    while (toVisit.isNotEmpty()) {
-      val currentId = toVisit.removeFirst()
+    while (!toVisit.isEmpty) {
+      val currentId = toVisit.dequeueInt()
       result += id2WorkspaceTarget[currentId]
       val currentDepth = depth[currentId]
       if (currentDepth == maxDepth) {
@@ -254,7 +270,7 @@ internal class WorkspaceTargetGraphImpl internal constructor(
         }
         if (depth[succId] > currentDepth + 1) {
           depth[succId] = currentDepth + 1
-          toVisit.addLast(succId)
+          toVisit.enqueue(succId)
         }
       }
     }
@@ -262,9 +278,7 @@ internal class WorkspaceTargetGraphImpl internal constructor(
     return result.asSequence().map { WorkspaceTargetRef.of(it) }
   }
 
-  // MAYBE RC: avoid Sequence<...> as a return value?,
-  //  there are ways to compute transitive closure faster
-  //  but this approach is good enough
+  // MAYBE RC: avoid Sequence<...> as a return value?
   override fun findAllTransitiveSuccessors(
     targetKey: WorkspaceTargetKey,
     useRelaxedDependencyExpansion: Boolean,
@@ -298,48 +312,7 @@ internal class WorkspaceTargetGraphImpl internal constructor(
   }
 
   private fun computeTransitiveSuccessorIds(targetId: Int, useRelaxedDependencyExpansion: Boolean): IntArray =
-    if (useRelaxedDependencyExpansion) {
-      // TODO: cache relaxed transitive closures if profiling shows it matters
-      computeTransitiveSuccessorSlow(targetId, id2RelaxedCompileSuccessors)
-    }
-    else {
-      findAllTransitiveSuccessorIds(cache = transitiveTargetCache(), targetId = targetId)
-    }
-
-  private fun findAllTransitiveSuccessorIds(cache: AtomicReferenceArray<IntArray?>, targetId: Int): IntArray {
-    val cached = cache.get(targetId)
-    if (cached != null) {
-      return cached
-    }
-    val visited = IntOpenHashSet()
-    for (succId in id2CompileSuccessors[targetId]) {
-      if (!visited.add(succId)) {
-        continue
-      }
-      for (succDepId in findAllTransitiveSuccessorIds(cache, succId)) {
-        visited.add(succDepId)
-      }
-    }
-    val baked = visited.toIntArray()
-    cache.compareAndSet(targetId, null, baked)
-    return baked
-  }
-
-  private fun computeTransitiveSuccessorSlow(targetId: Int, adjacency: Array<IntArray>): IntArray {
-    val visited = IntOpenHashSet()
-    val stack = ArrayDeque<Int>()
-    stack.addLast(targetId)
-    while (stack.isNotEmpty()) {
-      val currentId = stack.removeLast()
-      for (succId in adjacency[currentId]) {
-        if (visited.add(succId)) {
-          stack.addLast(succId)
-        }
-      }
-    }
-    return visited.toIntArray()
-  }
-
+    reachabilityIndex(useRelaxedDependencyExpansion).transitiveSuccessors(targetId)
 }
 
 @ApiStatus.Internal
@@ -351,59 +324,122 @@ object WorkspaceTargetGraphBuilder {
   //  `rootTargets` is fine, but for future change we shall consider removing it in order to provide easy
   //  to understand and simple incremental snapshot updating
   fun build(rootTargets: Set<WorkspaceTargetKey>, targets: Collection<BuildTarget>): WorkspaceTargetGraph {
-    // with this trick, we have unique IDs for each BuildTarget
-    val id2WorkspaceTarget = targets.toTypedArray()
-    val rootTargetIds = IntOpenHashSet()
-    val targetKey2TargetId = Object2IntOpenHashMap<WorkspaceTargetKey>()
-
-    val labelConfig2TargetIdList = HashMap<LabelConfigKey, IntArrayList>()
-    for ((targetId, target) in id2WorkspaceTarget.withIndex()) {
-      targetKey2TargetId.put(target.key, targetId)
-      val smallKey = LabelConfigKey(target.key.label, target.key.configuration)
-      labelConfig2TargetIdList.getOrPut(smallKey) { IntArrayList() }.add(targetId)
-      if (target.key in rootTargets) {
-        rootTargetIds.add(targetId)
-      }
+    val targetIds = TargetIds(rootTargets, targets)
+    return targetIds.toGraph(
+      id2CompileSuccessors = Array(targetIds.size) { targetIds.successorIds(it, compilePredicate) },
+      id2AllSuccessors = Array(targetIds.size) { targetIds.successorIds(it, allPredicate) },
+      id2RelaxedCompileSuccessors = Array(targetIds.size) { targetIds.relaxedSuccessorIds(it, compilePredicate) },
+      id2RelaxedAllSuccessors = Array(targetIds.size) { targetIds.relaxedSuccessorIds(it, allPredicate) },
+    )
+  }
+
+  /**
+   * Same as [build], but the four successor arrays, which take most of the time on a large graph, are built concurrently,
+   * each of them filled by partitions of the target ids.
+   */
+  suspend fun buildConcurrently(rootTargets: Set<WorkspaceTargetKey>, targets: Collection<BuildTarget>): WorkspaceTargetGraph =
+    withContext(Dispatchers.Default) {
+      val targetIds = TargetIds(rootTargets, targets)
+      val compileSuccessors = async { targetIds.buildSuccessorIds { targetIds.successorIds(it, compilePredicate) } }
+      val allSuccessors = async { targetIds.buildSuccessorIds { targetIds.successorIds(it, allPredicate) } }
+      val relaxedCompileSuccessors = async { targetIds.buildSuccessorIds { targetIds.relaxedSuccessorIds(it, compilePredicate) } }
+      val relaxedAllSuccessors = async { targetIds.buildSuccessorIds { targetIds.relaxedSuccessorIds(it, allPredicate) } }
+      targetIds.toGraph(
+        id2CompileSuccessors = compileSuccessors.await(),
+        id2AllSuccessors = allSuccessors.await(),
+        id2RelaxedCompileSuccessors = relaxedCompileSuccessors.await(),
+        id2RelaxedAllSuccessors = relaxedAllSuccessors.await(),
+      )
     }
 
-    @Suppress("SSBasedInspection")
-    val labelConfig2TargetIds = Object2ObjectOpenHashMap<LabelConfigKey, IntArray>(labelConfig2TargetIdList.size)
-    for ((key, ids) in labelConfig2TargetIdList) {
-      labelConfig2TargetIds[key] = ids.toIntArray()
+  private suspend fun TargetIds.buildSuccessorIds(successorIds: (targetId: Int) -> IntArray): Array<IntArray> {
+    val result = arrayOfNulls<IntArray>(size)
+    val partitionSize = maxOf(MIN_PARTITION_SIZE, (size + PARTITIONS - 1) / PARTITIONS)
+    coroutineScope {
+      for (from in 0 until size step partitionSize) {
+        launch {
+          // every partition writes its own slots only
+          for (targetId in from until minOf(from + partitionSize, size)) {
+            result[targetId] = successorIds(targetId)
+          }
+        }
+      }
     }
+    @Suppress("UNCHECKED_CAST")
+    return result as Array<IntArray>
+  }
+
+  private const val PARTITIONS = 16
+  private const val MIN_PARTITION_SIZE = 4096
+
+  private val compilePredicate: (DependencyLabel) -> Boolean =
+    { it.kind == DependencyLabelKind.COMPILE || it.kind == DependencyLabelKind.EXPORTED_COMPILE_TIME }
+  private val allPredicate: (DependencyLabel) -> Boolean = { true }
 
-    val rootLabels: Set<Label> = rootTargets.map { it.label }.toHashSet()
-    for ((targetId, target) in id2WorkspaceTarget.withIndex()) {
-      val generatorName = target.generatorName ?: continue
-      if (generatorName.isNotEmpty()) {
-        val generatorTargetLabel = target.key.label.assumeResolved()
-          .copy(target = SingleTarget(generatorName))
-
-        // try the macro/alias key with the current target's `aspectIds` propagated first,
-        // then the configuration-only key, then the label-only key.
-        val generatorTargetKey = WorkspaceTargetKey(label = generatorTargetLabel, configuration = target.key.configuration)
-        val generatorTargetKeyWithAspect =
-          WorkspaceTargetKey(
-            label = generatorTargetLabel,
-            configuration = target.key.configuration,
-            aspectIds = target.key.aspectIds,
-          )
-        val generatorTargetKeyWithConfiguration = WorkspaceTargetKey(label = generatorTargetLabel)
-        val isGeneratorTargetInScope = sequenceOf(generatorTargetKeyWithAspect, generatorTargetKey, generatorTargetKeyWithConfiguration)
-          .map { targetKey2TargetId.getOrDefault(it, INVALID_TARGET_ID) }
-          .any { it != INVALID_TARGET_ID }
-
-        // Support macros that generate a target and refer to it by an alias, see https://youtrack.jetbrains.com/issue/BAZEL-3048
-        // Aliases generated by macros can appear in rootTargets. But the aspect isn't run on aliases, so we can't get the target it refers to without a query.
-        // However, every target generated by a macro has the original macro name in .generatorName.
-        // We use that here to link the alias to its actual target in the graph, without an additional Bazel query invocation.
-        if (generatorTargetKey.label in rootLabels && !isGeneratorTargetInScope) {
+  /**
+   * Assigns the target ids and resolves dependencies to them. Only read once constructed, so it can be shared by the threads
+   * building the successor arrays.
+   */
+  private class TargetIds(rootTargets: Set<WorkspaceTargetKey>, targets: Collection<BuildTarget>) {
+    // with this trick, we have unique IDs for each BuildTarget
+    private val id2WorkspaceTarget = targets.toTypedArray()
+    private val rootTargetIds = IntOpenHashSet()
+    private val targetKey2TargetId = Object2IntOpenHashMap<WorkspaceTargetKey>()
+
+    @Suppress("SSBasedInspection")
+    private val labelConfig2TargetIds = Object2ObjectOpenHashMap<LabelConfigKey, IntArray>()
+
+    val size: Int
+      get() = id2WorkspaceTarget.size
+
+    init {
+      val labelConfig2TargetIdList = HashMap<LabelConfigKey, IntArrayList>()
+      for ((targetId, target) in id2WorkspaceTarget.withIndex()) {
+        targetKey2TargetId.put(target.key, targetId)
+        val smallKey = LabelConfigKey(target.key.label, target.key.configuration)
+        labelConfig2TargetIdList.getOrPut(smallKey) { IntArrayList() }.add(targetId)
+        if (target.key in rootTargets) {
           rootTargetIds.add(targetId)
         }
       }
+
+      for ((key, ids) in labelConfig2TargetIdList) {
+        labelConfig2TargetIds[key] = ids.toIntArray()
+      }
+
+      val rootLabels: Set<Label> = rootTargets.map { it.label }.toHashSet()
+      for ((targetId, target) in id2WorkspaceTarget.withIndex()) {
+        val generatorName = target.generatorName ?: continue
+        if (generatorName.isNotEmpty()) {
+          val generatorTargetLabel = target.key.label.assumeResolved()
+            .copy(target = SingleTarget(generatorName))
+
+          // try the macro/alias key with the current target's `aspectIds` propagated first,
+          // then the configuration-only key, then the label-only key.
+          val generatorTargetKey = WorkspaceTargetKey(label = generatorTargetLabel, configuration = target.key.configuration)
+          val generatorTargetKeyWithAspect =
+            WorkspaceTargetKey(
+              label = generatorTargetLabel,
+              configuration = target.key.configuration,
+              aspectIds = target.key.aspectIds,
+            )
+          val generatorTargetKeyWithConfiguration = WorkspaceTargetKey(label = generatorTargetLabel)
+          val isGeneratorTargetInScope = sequenceOf(generatorTargetKeyWithAspect, generatorTargetKey, generatorTargetKeyWithConfiguration)
+            .map { targetKey2TargetId.getOrDefault(it, INVALID_TARGET_ID) }
+            .any { it != INVALID_TARGET_ID }
+
+          // Support macros that generate a target and refer to it by an alias, see https://youtrack.jetbrains.com/issue/BAZEL-3048
+          // Aliases generated by macros can appear in rootTargets. But the aspect isn't run on aliases, so we can't get the target it refers to without a query.
+          // However, every target generated by a macro has the original macro name in .generatorName.
+          // We use that here to link the alias to its actual target in the graph, without an additional Bazel query invocation.
+          if (generatorTargetKey.label in rootLabels && !isGeneratorTargetInScope) {
+            rootTargetIds.add(targetId)
+          }
+        }
+      }
     }
 
-    fun resolveDepId(parent: BuildTarget, dep: DependencyLabel): Int {
+    private fun resolveDepId(parent: BuildTarget, dep: DependencyLabel): Int {
       val exact = targetKey2TargetId.getOrDefault(dep.targetKey, INVALID_TARGET_ID)
       if (exact != INVALID_TARGET_ID) {
         return exact
@@ -416,45 +452,43 @@ object WorkspaceTargetGraphBuilder {
       return targetKey2TargetId.getOrDefault(propagated, INVALID_TARGET_ID)
     }
 
-    fun buildSuccessorIds(predicate: (dependency: DependencyLabel) -> Boolean): Array<IntArray> {
-      return Array(id2WorkspaceTarget.size) { targetId ->
-        val target = id2WorkspaceTarget[targetId]
-        target.dependencies
-          .filter { predicate(it) }
-          .map { resolveDepId(target, it) }
-          .filterNot { it == INVALID_TARGET_ID }
-          .toIntArray()
-      }
+    fun successorIds(targetId: Int, predicate: (dependency: DependencyLabel) -> Boolean): IntArray {
+      val target = id2WorkspaceTarget[targetId]
+      return target.dependencies
+        .filter { predicate(it) }
+        .map { resolveDepId(target, it) }
+        .filterNot { it == INVALID_TARGET_ID }
+        .toIntArray()
     }
 
-    fun resolveDepIdsRelaxed(dep: DependencyLabel): IntArray =
+    private fun resolveDepIdsRelaxed(dep: DependencyLabel): IntArray =
       labelConfig2TargetIds[LabelConfigKey(dep.targetKey.label, dep.targetKey.configuration)] ?: IntArray(0)
 
-    fun buildRelaxedSuccessorIds(predicate: (dependency: DependencyLabel) -> Boolean): Array<IntArray> {
-      return Array(id2WorkspaceTarget.size) { targetId ->
-        val target = id2WorkspaceTarget[targetId]
-        val acc = IntOpenHashSet()
-        for (dep in target.dependencies) {
-          if (!predicate(dep)) continue
-          for (id in resolveDepIdsRelaxed(dep)) acc.add(id)
-        }
-        acc.toIntArray()
+    fun relaxedSuccessorIds(targetId: Int, predicate: (dependency: DependencyLabel) -> Boolean): IntArray {
+      val target = id2WorkspaceTarget[targetId]
+      val acc = IntOpenHashSet()
+      for (dep in target.dependencies) {
+        if (!predicate(dep)) continue
+        for (id in resolveDepIdsRelaxed(dep)) acc.add(id)
       }
+      return acc.toIntArray()
     }
 
-    val compilePredicate: (DependencyLabel) -> Boolean =
-      { it.kind == DependencyLabelKind.COMPILE || it.kind == DependencyLabelKind.EXPORTED_COMPILE_TIME }
-    val allPredicate: (DependencyLabel) -> Boolean = { true }
-
-    return WorkspaceTargetGraphImpl(
-      rootTargetIds = rootTargetIds,
-      targetKey2TargetId = targetKey2TargetId,
-      labelConfig2TargetIds = labelConfig2TargetIds,
-      id2WorkspaceTarget = Array(id2WorkspaceTarget.size) { id2WorkspaceTarget[it].key },
-      id2CompileSuccessors = buildSuccessorIds(compilePredicate),
-      id2AllSuccessors = buildSuccessorIds(allPredicate),
-      id2RelaxedCompileSuccessors = buildRelaxedSuccessorIds(compilePredicate),
-      id2RelaxedAllSuccessors = buildRelaxedSuccessorIds(allPredicate),
-    )
+    fun toGraph(
+      id2CompileSuccessors: Array<IntArray>,
+      id2AllSuccessors: Array<IntArray>,
+      id2RelaxedCompileSuccessors: Array<IntArray>,
+      id2RelaxedAllSuccessors: Array<IntArray>,
+    ): WorkspaceTargetGraph =
+      WorkspaceTargetGraphImpl(
+        rootTargetIds = rootTargetIds,
+        targetKey2TargetId = targetKey2TargetId,
+        labelConfig2TargetIds = labelConfig2TargetIds,
+        id2WorkspaceTarget = Array(id2WorkspaceTarget.size) { id2WorkspaceTarget[it].key },
+        id2CompileSuccessors = id2CompileSuccessors,
+        id2AllSuccessors = id2AllSuccessors,
+        id2RelaxedCompileSuccessors = id2RelaxedCompileSuccessors,
+        id2RelaxedAllSuccessors = id2RelaxedAllSuccessors,
+      )
   }
 }
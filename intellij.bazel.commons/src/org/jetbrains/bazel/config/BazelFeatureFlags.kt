@@ -20,11 +20,13 @@ object BazelFeatureFlags {
   private const val ENABLE_PARTIAL_SYNC = "bsp.enable.partial.sync"
   private const val SYMLINK_SCAN_MAX_DEPTH = "bazel.symlink.scan.max.depth"
   private const val SHUTDOWN_BEFORE_SHARD_BUILD = "bazel.shutdown.before.shard.build"
+  private const val CACHE_ASPECT_OUTPUTS = "bazel.sync.cache.aspect.outputs"
   @VisibleForTesting
   const val MERGE_SOURCE_ROOTS = "bazel.merge.source.roots"
 
   @VisibleForTesting
   const val FAST_BUILD_ENABLED = "bazel.enable.jvm.fastbuild"
+  private const val FAST_BUILD_PERSISTENT_WORKER = "bazel.fastbuild.persistent.worker"
   const val AUTO_OPEN_PROJECT_IF_PRESENT = "bazel.project.auto.open.if.present"
   private const val ENABLE_BAZEL_QUERY_TAB = "bazel.query.tab.enabled"
   private const val EXCLUDE_SYMLINKS_FROM_FILE_WATCHER_VIA_REFLECTION = "bazel.exclude.symlinks.from.file.watcher.via.reflection"
@@ -73,12 +75,18 @@ object BazelFeatureFlags {
   val shutDownBeforeShardBuild: Boolean
     get() = isEnabled(SHUTDOWN_BEFORE_SHARD_BUILD)
 
+  val cacheAspectOutputs: Boolean
+    get() = isEnabled(CACHE_ASPECT_OUTPUTS)
+
   val mergeSourceRoots: Boolean
     get() = isEnabled(MERGE_SOURCE_ROOTS)
 
   val fastBuildEnabled: Boolean
     get() = isEnabled(FAST_BUILD_ENABLED)
 
+  val fastBuildPersistentWorker: Boolean
+    get() = isEnabled(FAST_BUILD_PERSISTENT_WORKER)
+
   val autoOpenProjectIfPresent: Boolean
     get() = isEnabled(AUTO_OPEN_PROJECT_IF_PRESENT)
 
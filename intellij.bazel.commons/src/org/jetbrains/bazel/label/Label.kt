@@ -68,7 +68,29 @@ fun PackageType.toPath(): Path = Path(pathSegments.joinToString(PATH_SEGMENT_SEP
 
 @ApiStatus.Internal
 data class Package(override val pathSegments: List<String>) : PackageType {
-  override fun toString(): String = pathSegments.joinToString(PATH_SEGMENT_SEPARATOR)
+  // derived from pathSegments, cached because packages are hashed and printed as part of every label
+  @field:Transient
+  private var cachedHashCode: Int = 0
+
+  @field:Transient
+  private var cachedString: String? = null
+
+  override fun hashCode(): Int {
+    var hash = cachedHashCode
+    if (hash == 0) {
+      hash = pathSegments.hashCode()
+      cachedHashCode = hash
+    }
+    return hash
+  }
+
+  override fun equals(other: Any?): Boolean {
+    if (this === other) return true
+    if (other !is Package) return false
+    return hashCode() == other.hashCode() && pathSegments == other.pathSegments
+  }
+
+  override fun toString(): String = cachedString ?: pathSegments.joinToString(PATH_SEGMENT_SEPARATOR).also { cachedString = it }
 
   fun parent(): Package = Package(pathSegments.dropLast(1))
   fun name(): String = pathSegments.lastOrNull() ?: ""
@@ -129,9 +151,32 @@ data class ResolvedLabel(
   override val packagePath: PackageType,
   override val target: TargetType,
 ) : Label {
+  // derived from the properties above, cached because labels key nearly every map in sync and are sorted by their string form
+  @field:Transient
+  private var cachedHashCode: Int = 0
+
+  @field:Transient
+  private var cachedString: String? = null
+
   val repoName get() = repo.repoName
 
-  override fun toString(): String = "$repo//${joinPackagePathAndTarget(packagePath, target)}"
+  override fun hashCode(): Int {
+    var hash = cachedHashCode
+    if (hash == 0) {
+      hash = 31 * (31 * repo.hashCode() + packagePath.hashCode()) + target.hashCode()
+      cachedHashCode = hash
+    }
+    return hash
+  }
+
+  override fun equals(other: Any?): Boolean {
+    if (this === other) return true
+    if (other !is ResolvedLabel) return false
+    return hashCode() == other.hashCode() && repo == other.repo && packagePath == other.packagePath && target == other.target
+  }
+
+  override fun toString(): String =
+    cachedString ?: "$repo//${joinPackagePathAndTarget(packagePath, target)}".also { cachedString = it }
 }
 
 /**
@@ -201,7 +246,8 @@ sealed interface Label : Comparable<Label> {
   val isApparent: Boolean
     get() = (this as? ResolvedLabel)?.repo is Apparent
 
-  override fun compareTo(other: Label): Int = toString().compareTo(other.toString())
+  // resolved labels cache their string form, so this does not allocate once both were printed
+  override fun compareTo(other: Label): Int = if (this === other) 0 else toString().compareTo(other.toString())
 
   companion object {
     @ApiStatus.Internal
@@ -232,6 +278,10 @@ class LabelParser {
   private val partsIntern = Interner.createStringInterner()
   private val labelIntern = ConcurrentHashMap<String, Label>()
 
+  // labels of the same package or repository share a single instance, along with its cached hash and string
+  private val packageIntern = ConcurrentHashMap<String, PackageType>()
+  private val repoIntern = ConcurrentHashMap<String, RepoType>()
+
   fun parse(value: String): Label {
     return labelIntern.computeIfAbsent(value) {
       parseImpl(value)
@@ -245,13 +295,7 @@ class LabelParser {
     val repoName = normalized.substringBefore("//", "")
     val pathAndName = normalized.substringAfter("//")
     val packagePath = pathAndName.substringBefore(":")
-    val packageSegments = packagePath.split(PATH_SEGMENT_SEPARATOR).mapNotNull { if (it.isEmpty()) null else it.intern() }
-    val packageType =
-      if (packageSegments.lastOrNull() == ALL_PACKAGES_BENEATH) {
-        AllPackagesBeneath(packageSegments.dropLast(1))
-      } else {
-        Package(packageSegments)
-      }
+    val packageType = packageIntern.computeIfAbsent(packagePath) { parsePackage(it) }
     val targetName = pathAndName.substringAfter(":", packagePath.substringAfterLast(PATH_SEGMENT_SEPARATOR))
 
     val target =
@@ -275,13 +319,22 @@ class LabelParser {
     val repo =
       when {
         repoName.isEmpty() -> Main
-        value.startsWith("@@") -> Canonical(repoName.intern())
-        else -> Apparent(repoName.intern())
+        value.startsWith("@@") -> repoIntern.computeIfAbsent("@@$repoName") { Canonical(repoName.intern()) }
+        else -> repoIntern.computeIfAbsent("@$repoName") { Apparent(repoName.intern()) }
       }
 
     return ResolvedLabel(repo, packageType, target)
   }
 
+  private fun parsePackage(packagePath: String): PackageType {
+    val packageSegments = packagePath.split(PATH_SEGMENT_SEPARATOR).mapNotNull { if (it.isEmpty()) null else it.intern() }
+    return if (packageSegments.lastOrNull() == ALL_PACKAGES_BENEATH) {
+      AllPackagesBeneath(packageSegments.dropLast(1))
+    } else {
+      Package(packageSegments)
+    }
+  }
+
   private fun String.intern(): String =
     synchronized(partsIntern) {
       partsIntern.intern(this)
@@ -66,6 +66,12 @@ val ProjectView.targetShardSize: Int
   @Internal
   get() = getSection(TARGET_SHARD_SIZE_KEY)
 
+@Internal
+val SHARD_HEAP_BUDGET_MB_KEY: SectionKey<Int> = SectionKey("shard_heap_budget_mb", 0)
+val ProjectView.shardHeapBudgetMb: Int
+  @Internal
+  get() = getSection(SHARD_HEAP_BUDGET_MB_KEY)
+
 @Internal
 val SHARDING_APPROACH_KEY: SectionKey<ShardingApproach?> = SectionKey("sharding_approach", null)
 val ProjectView.shardingApproach: String?
@@ -48,6 +48,10 @@ class SyncCache(private val project: Project) {
       computable.compute(project)
     } as T
 
+  /** Returns the cached value of [computable], without computing it if it is not cached. */
+  @Suppress("UNCHECKED_CAST")
+  fun <T : Any> getIfComputed(computable: SyncCacheComputable<T>): T? = cache[computable] as T?
+
   fun clear(): Unit = cache.clear()
 
   @TestOnly
@@ -0,0 +1,40 @@
+package org.jetbrains.bazel.utils
+
+import org.jetbrains.annotations.ApiStatus
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.io.path.exists
+
+/**
+ * Answers whether files exist by listing their parent directories, each directory is read once and its entries are kept
+ * until the cache is dropped. Meant to be created for a single sync, where most files of a directory are checked
+ * and a `stat` per file is much slower than one listing, especially on network or FUSE backed checkouts.
+ *
+ * Safe to use from many threads, different directories are listed in parallel.
+ * Unlike [Path.exists], a broken symlink is reported as existing.
+ */
+@ApiStatus.Internal
+class FileExistenceCache {
+  private val entriesByDirectory = ConcurrentHashMap<Path, Lazy<Set<String>>>()
+
+  fun exists(path: Path): Boolean {
+    val directory = path.parent ?: return path.exists()
+    val fileName = path.fileName?.toString() ?: return path.exists()
+    return fileName in entriesOf(directory)
+  }
+
+  // the listing is done outside computeIfAbsent, so that it doesn't block other directories in the same bin
+  private fun entriesOf(directory: Path): Set<String> =
+    entriesByDirectory.computeIfAbsent(directory) { lazy { listEntries(it) } }.value
+
+  private fun listEntries(directory: Path): Set<String> =
+    try {
+      Files.newDirectoryStream(directory).use { entries -> entries.mapTo(HashSet()) { it.fileName.toString() } }
+    }
+    catch (_: IOException) {
+      // a missing directory, or not a directory at all
+      emptySet()
+    }
+}
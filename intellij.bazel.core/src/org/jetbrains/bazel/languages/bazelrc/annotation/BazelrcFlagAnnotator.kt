@@ -137,5 +137,5 @@ internal class BazelrcFlagAnnotator : Annotator {
     PsiTreeUtil
       .getParentOfType(element, true, BazelrcLine::class.java)
       ?.command
-      ?.let { it != "common" && !flag.option.commands.contains(it) } ?: false
+      ?.let { it != "common" && !flag.isAvailableFor(it) } ?: false
 }
@@ -182,7 +182,7 @@ internal class BazelFlagCompletionProvider : CompletionProvider<CompletionParame
               .contains(OptionEffectTag.NO_OP)
           }.filterValues {
             // filter out values that don't apply to the current command line+
-            command == "common" || it.option.commands.contains(command)
+            command == "common" || it.isAvailableFor(command)
           }
       }?.let { flagsMap ->
         val pos = parameters.position
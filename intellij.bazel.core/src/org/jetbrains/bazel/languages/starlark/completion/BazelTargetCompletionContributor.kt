@@ -0,0 +1,57 @@
+package org.jetbrains.bazel.languages.starlark.completion
+
+import com.intellij.codeInsight.completion.CompletionContributor
+import com.intellij.codeInsight.completion.CompletionParameters
+import com.intellij.codeInsight.completion.CompletionProvider
+import com.intellij.codeInsight.completion.CompletionResultSet
+import com.intellij.codeInsight.completion.CompletionType
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.patterns.PlatformPatterns.psiElement
+import com.intellij.psi.util.parentOfType
+import com.intellij.util.PlatformIcons
+import com.intellij.util.ProcessingContext
+import org.jetbrains.bazel.languages.starlark.StarlarkLanguage
+import org.jetbrains.bazel.languages.starlark.psi.expressions.StarlarkStringLiteralExpression
+import org.jetbrains.bazel.languages.starlark.psi.expressions.getCompletionLookupElemenent
+import org.jetbrains.bazel.languages.starlark.references.BazelLabelReference
+import org.jetbrains.bazel.target.targetStorage
+
+internal class BazelTargetCompletionContributor : CompletionContributor() {
+  init {
+    extend(
+      CompletionType.BASIC,
+      psiElement()
+        .withLanguage(StarlarkLanguage)
+        .inside(StarlarkStringLiteralExpression::class.java),
+      BazelTargetCompletionProvider(),
+    )
+  }
+}
+
+/**
+ * Completes labels of imported targets in lists, e.g. `deps`.
+ *
+ * A project can have far more targets than a lookup should show, so only the labels matching the typed prefix are added,
+ * at most `ide.completion.variant.limit` of them. If some were left out, completion is restarted whenever the prefix changes,
+ * so that the labels are looked up again instead of the lookup only narrowing down the first ones.
+ */
+internal class BazelTargetCompletionProvider : CompletionProvider<CompletionParameters>() {
+  override fun addCompletions(
+    parameters: CompletionParameters,
+    context: ProcessingContext,
+    result: CompletionResultSet,
+  ) {
+    val stringLiteral = parameters.position.parentOfType<StarlarkStringLiteralExpression>() ?: return
+    val reference = stringLiteral.reference as? BazelLabelReference ?: return
+    if (!reference.isTargetCompletionLocation()) return
+
+    // the prefix spans the reference up to the caret, so it starts with the opening quote of the literal
+    val pattern = result.prefixMatcher.prefix.trimStart('"', '\'')
+    val limit = Registry.intValue("ide.completion.variant.limit")
+    val labels = stringLiteral.project.targetStorage.findShortLabels(pattern, limit + 1)
+    if (labels.size > limit) {
+      result.restartCompletionOnAnyPrefixChange()
+    }
+    labels.take(limit).forEach { result.addElement(getCompletionLookupElemenent(it, PlatformIcons.PACKAGE_ICON)) }
+  }
+}
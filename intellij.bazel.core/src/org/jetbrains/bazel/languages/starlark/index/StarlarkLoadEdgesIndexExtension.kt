@@ -1,6 +1,5 @@
 package org.jetbrains.bazel.languages.starlark.index
 
-import com.intellij.psi.util.childrenOfType
 import com.intellij.util.indexing.DataIndexer
 import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter
 import com.intellij.util.indexing.FileBasedIndexExtension
@@ -9,7 +8,6 @@ import com.intellij.util.indexing.ID
 import com.intellij.util.indexing.impl.CollectionDataExternalizer
 import com.intellij.util.io.EnumeratorStringDescriptor
 import org.jetbrains.bazel.languages.starlark.StarlarkFileType
-import org.jetbrains.bazel.languages.starlark.psi.statements.StarlarkLoadStatement
 
 internal class StarlarkLoadEdgesIndexExtension : FileBasedIndexExtension<String, Collection<String>>() {
   override fun getName(): ID<String, Collection<String>> = StarlarkLoadEdgesIndex.NAME
@@ -24,18 +22,18 @@ internal class StarlarkLoadEdgesIndexExtension : FileBasedIndexExtension<String,
   override fun getInputFilter(): DefaultFileTypeSpecificInputFilter =
     DefaultFileTypeSpecificInputFilter(StarlarkFileType)
 
-  override fun getVersion(): Int = 1
+  override fun getVersion(): Int = 2
 
   override fun getIndexer(): DataIndexer<String, Collection<String>, FileContent> = DataIndexer { fileContent ->
-    val file = fileContent.psiFile
-    if (!file.name.endsWith(".bzl")) return@DataIndexer emptyMap()
+    if (!fileContent.fileName.endsWith(".bzl")) return@DataIndexer emptyMap()
 
-    val loadLabels = file
-      .childrenOfType<StarlarkLoadStatement>()
-      .mapNotNull { it.getLoadedFileNamePsi()?.getStringContents() }
-      .filter { it.endsWith(".bzl") }
-      .distinct()
+    val loadLabels = LinkedHashSet<String>()
+    StarlarkLoadScanner.scan(fileContent.contentAsText) { loadFileName, _ ->
+      if (loadFileName.endsWith(".bzl")) {
+        loadLabels.add(loadFileName)
+      }
+    }
 
-    if (loadLabels.isEmpty()) emptyMap() else mapOf(fileContent.file.url to loadLabels)
+    if (loadLabels.isEmpty()) emptyMap() else mapOf(fileContent.file.url to loadLabels.toList())
   }
 }
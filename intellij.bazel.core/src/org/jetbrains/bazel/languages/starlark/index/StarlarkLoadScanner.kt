@@ -0,0 +1,102 @@
+package org.jetbrains.bazel.languages.starlark.index
+
+import com.intellij.lexer.FlexAdapter
+import org.jetbrains.bazel.languages.starlark.elements.StarlarkTokenSets
+import org.jetbrains.bazel.languages.starlark.elements.StarlarkTokenTypes
+import org.jetbrains.bazel.languages.starlark.lexer.StarlarkHighlightingLexer
+import org.jetbrains.bazel.languages.starlark.utils.StarlarkQuote
+
+/**
+ * Extracts top-level `load` statements from Starlark source with a single pass of the lexer, without building PSI.
+ *
+ * It recognizes the same statements as the parser does for [org.jetbrains.bazel.languages.starlark.psi.statements.StarlarkLoadStatement]
+ * at the file level, and reports string contents the way [org.jetbrains.bazel.languages.starlark.psi.expressions.StarlarkStringLiteralExpression]
+ * does. Statements without a loaded file name are skipped, values which are not strings are ignored.
+ */
+internal object StarlarkLoadScanner {
+  fun interface LoadConsumer {
+    /** [symbols] are the original names of the loaded symbols, aliases are not reported. */
+    fun consume(fileName: String, symbols: List<String>)
+  }
+
+  fun scan(text: CharSequence, consumer: LoadConsumer) {
+    // the plain flex lexer, indentation tokens are not needed to find top-level statements
+    val lexer = StarlarkHighlightingLexer()
+    lexer.start(text)
+    var atLineStart = true
+    var bracketDepth = 0
+    while (lexer.tokenType != null) {
+      val tokenType = lexer.tokenType
+      if (tokenType === StarlarkTokenTypes.LOAD_KEYWORD && atLineStart && bracketDepth == 0) {
+        lexer.advance()
+        scanLoadValues(lexer, consumer)
+        atLineStart = false
+        continue
+      }
+      when {
+        tokenType === StarlarkTokenTypes.LINE_BREAK -> atLineStart = bracketDepth == 0
+        StarlarkTokenSets.OPEN_BRACKETS.contains(tokenType) -> bracketDepth++
+        StarlarkTokenSets.CLOSE_BRACKETS.contains(tokenType) -> bracketDepth = maxOf(0, bracketDepth - 1)
+      }
+      if (tokenType !== StarlarkTokenTypes.LINE_BREAK) {
+        atLineStart = false
+      }
+      lexer.advance()
+    }
+  }
+
+  /** Mirrors the parser's load value list, leaves the lexer after the closing parenthesis or at the first unexpected token. */
+  private fun scanLoadValues(lexer: FlexAdapter, consumer: LoadConsumer) {
+    skipWhitespace(lexer)
+    if (lexer.tokenType !== StarlarkTokenTypes.LPAR) return
+    lexer.advance()
+    skipWhitespace(lexer)
+    if (lexer.tokenType !== StarlarkTokenTypes.STRING) return
+    val fileName = stringContents(lexer)
+    lexer.advance()
+
+    val symbols = ArrayList<String>()
+    while (true) {
+      skipWhitespace(lexer)
+      if (lexer.tokenType !== StarlarkTokenTypes.COMMA) {
+        if (lexer.tokenType === StarlarkTokenTypes.RPAR) {
+          lexer.advance()
+        }
+        break
+      }
+      lexer.advance()
+      skipWhitespace(lexer)
+      val tokenType = lexer.tokenType ?: break
+      if (tokenType === StarlarkTokenTypes.RPAR) {
+        lexer.advance()
+        break
+      }
+      if (tokenType === StarlarkTokenTypes.IDENTIFIER || StarlarkTokenSets.RESERVED_KEYWORDS.contains(tokenType)) {
+        // either `alias = "name"`, or an invalid value which the parser skips
+        lexer.advance()
+        skipWhitespace(lexer)
+        if (lexer.tokenType !== StarlarkTokenTypes.EQ) continue
+        lexer.advance()
+        skipWhitespace(lexer)
+      }
+      if (lexer.tokenType === StarlarkTokenTypes.STRING) {
+        symbols.add(stringContents(lexer))
+      }
+      if (lexer.tokenType != null) {
+        lexer.advance()
+      }
+    }
+    consumer.consume(fileName, symbols)
+  }
+
+  private fun skipWhitespace(lexer: FlexAdapter) {
+    while (StarlarkTokenSets.WHITESPACE.contains(lexer.tokenType) || StarlarkTokenSets.COMMENT.contains(lexer.tokenType)) {
+      lexer.advance()
+    }
+  }
+
+  private fun stringContents(lexer: FlexAdapter): String {
+    val text = lexer.bufferSequence.subSequence(lexer.tokenStart, lexer.tokenEnd).toString()
+    return StarlarkQuote.ofString(text).unwrap(text)
+  }
+}
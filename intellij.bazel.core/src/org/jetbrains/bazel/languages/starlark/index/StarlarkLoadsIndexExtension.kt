@@ -1,6 +1,5 @@
 package org.jetbrains.bazel.languages.starlark.index
 
-import com.intellij.psi.util.childrenOfType
 import com.intellij.util.indexing.DataIndexer
 import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter
 import com.intellij.util.indexing.FileBasedIndexExtension
@@ -9,9 +8,6 @@ import com.intellij.util.indexing.ID
 import com.intellij.util.indexing.impl.CollectionDataExternalizer
 import com.intellij.util.io.EnumeratorStringDescriptor
 import org.jetbrains.bazel.languages.starlark.StarlarkFileType
-import org.jetbrains.bazel.languages.starlark.psi.statements.StarlarkLoadStatement
-import org.jetbrains.bazel.languages.starlark.psi.statements.StarlarkNamedLoadValue
-import org.jetbrains.bazel.languages.starlark.psi.statements.StarlarkStringLoadValue
 
 internal class StarlarkLoadsIndexExtension : FileBasedIndexExtension<String, Collection<String>>() {
 
@@ -25,19 +21,12 @@ internal class StarlarkLoadsIndexExtension : FileBasedIndexExtension<String, Col
 
   override fun getInputFilter(): DefaultFileTypeSpecificInputFilter = DefaultFileTypeSpecificInputFilter(StarlarkFileType)
 
-  override fun getVersion(): Int = 1
+  override fun getVersion(): Int = 2
 
   override fun getIndexer(): DataIndexer<String, Collection<String>, FileContent> = DataIndexer { fileContent ->
     val indexes = mutableMapOf<String, MutableList<String>>()
-    val file = fileContent.psiFile
-    val loadStatements = file.childrenOfType<StarlarkLoadStatement>()
-    for (loadStatement in loadStatements) {
-      val loadFileName = loadStatement.getLoadedFileNamePsi()?.getStringContents() ?: continue
-      for (loadValue in loadStatement.getLoadedSymbolsPsi()) {
-        val symbolName = when (loadValue) {
-          is StarlarkStringLoadValue, is StarlarkNamedLoadValue -> loadValue.getLoadValueExpressionContent()
-          else -> null
-        } ?: continue
+    StarlarkLoadScanner.scan(fileContent.contentAsText) { loadFileName, symbols ->
+      for (symbolName in symbols) {
         val loadFileNames = indexes.getOrPut(symbolName, ::mutableListOf)
         loadFileNames.add(loadFileName)
       }
@@ -0,0 +1,163 @@
+package org.jetbrains.bazel.languages.starlark.inspection
+
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootModificationTracker
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.util.indexing.FileBasedIndex
+import org.jetbrains.bazel.label.Label
+import org.jetbrains.bazel.languages.starlark.index.StarlarkLoadEdgesIndex
+import org.jetbrains.bazel.languages.starlark.references.resolveFileTargetToVirtualFile
+import org.jetbrains.bazel.languages.starlark.utils.GraphUtils
+
+/**
+ * The resolved load graph of the project's .bzl files together with its cyclic strongly connected components.
+ *
+ * The graph is refreshed lazily from [StarlarkLoadEdgesIndex]. When only file contents have changed, just the edited files
+ * are resolved again, and the components are recomputed only for the files reachable from them, as a cycle through a
+ * changed load can't leave that part of the graph. A change of the file structure or the project roots can change how
+ * any label resolves, so it rebuilds the whole graph.
+ */
+@Service(Service.Level.PROJECT)
+internal class StarlarkLoadGraph(private val project: Project) {
+  private class FileLoads(val stamp: Long, val resolvedLoads: Map<String, VirtualFile>)
+
+  // all guarded by this
+  private val loadsByFile = HashMap<VirtualFile, FileLoads>()
+  private val cyclicComponentByFile = HashMap<VirtualFile, Int>()
+  private var nextComponent = 0
+  private var indexStamp = -1L
+  private var structureStamp = -1L
+
+  fun cyclicLoadLabels(sourceFile: VirtualFile): Set<String> =
+    synchronized(this) {
+      refresh()
+      val sourceComponent = cyclicComponentByFile[sourceFile] ?: return emptySet()
+      val resolvedLoads = loadsByFile[sourceFile]?.resolvedLoads ?: return emptySet()
+
+      resolvedLoads.filterValues { cyclicComponentByFile[it] == sourceComponent }.keys
+    }
+
+  private fun refresh() {
+    val index = FileBasedIndex.getInstance()
+    val currentIndexStamp = index.getIndexModificationStamp(StarlarkLoadEdgesIndex.NAME, project)
+    val currentStructureStamp =
+      VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS.modificationCount +
+        ProjectRootModificationTracker.getInstance(project).modificationCount
+    if (currentIndexStamp == indexStamp && currentStructureStamp == structureStamp) return
+
+    val isRebuild = currentStructureStamp != structureStamp
+    // everything which may be cancelled happens before the graph is modified
+    val updatedLoads = collectUpdatedLoads(index, previousLoads = if (isRebuild) emptyMap() else loadsByFile)
+
+    if (isRebuild) {
+      loadsByFile.clear()
+      cyclicComponentByFile.clear()
+    }
+    val changedFiles = applyUpdatedLoads(updatedLoads)
+    updateCyclicComponents(changedFiles)
+
+    indexStamp = currentIndexStamp
+    structureStamp = currentStructureStamp
+  }
+
+  /**
+   * Resolves the loads of the files which are new or have been edited since they were last resolved.
+   * A file which no longer has any loads maps to null.
+   */
+  private fun collectUpdatedLoads(
+    index: FileBasedIndex,
+    previousLoads: Map<VirtualFile, FileLoads>,
+  ): Map<VirtualFile, FileLoads?> {
+    val scope = GlobalSearchScope.projectScope(project)
+    val sourceFiles = HashSet<VirtualFile>()
+    index.processAllKeys(
+      StarlarkLoadEdgesIndex.NAME,
+      { sourceUrl ->
+        val sourceFile = VirtualFileManager.getInstance().findFileByUrl(sourceUrl)
+        if (sourceFile != null && sourceFile.isValid && scope.contains(sourceFile)) {
+          sourceFiles.add(sourceFile)
+        }
+        true
+      },
+      project,
+    )
+
+    val fileDocumentManager = FileDocumentManager.getInstance()
+    val updatedLoads = HashMap<VirtualFile, FileLoads?>()
+    for (sourceFile in sourceFiles) {
+      // unsaved edits are indexed as well, so the document stamp has to be compared too
+      val stamp = fileDocumentManager.getCachedDocument(sourceFile)?.modificationStamp ?: sourceFile.modificationStamp
+      if (previousLoads[sourceFile]?.stamp == stamp) continue
+      updatedLoads[sourceFile] = FileLoads(stamp, resolveLoads(index, sourceFile))
+    }
+    for (sourceFile in previousLoads.keys) {
+      if (sourceFile !in sourceFiles) updatedLoads[sourceFile] = null
+    }
+    return updatedLoads
+  }
+
+  private fun resolveLoads(index: FileBasedIndex, sourceFile: VirtualFile): Map<String, VirtualFile> {
+    val resolvedLoads = linkedMapOf<String, VirtualFile>()
+    for (loadLabels in index.getFileData(StarlarkLoadEdgesIndex.NAME, sourceFile, project).values) {
+      for (loadLabel in loadLabels) {
+        if (loadLabel in resolvedLoads) continue
+        val label = Label.parseOrNull(loadLabel) ?: continue
+        val loadedFile = resolveFileTargetToVirtualFile(project, label, sourceFile) ?: continue
+        if (!loadedFile.isValid) continue
+        resolvedLoads[loadLabel] = loadedFile
+      }
+    }
+    return resolvedLoads
+  }
+
+  /** Returns the files whose loads now point to different files. */
+  private fun applyUpdatedLoads(updatedLoads: Map<VirtualFile, FileLoads?>): Set<VirtualFile> {
+    val changedFiles = HashSet<VirtualFile>()
+    for ((sourceFile, loads) in updatedLoads) {
+      val previous = if (loads == null) loadsByFile.remove(sourceFile) else loadsByFile.put(sourceFile, loads)
+      val previousTargets = previous?.resolvedLoads?.values?.toSet().orEmpty()
+      val targets = loads?.resolvedLoads?.values?.toSet().orEmpty()
+      if (previousTargets != targets) changedFiles.add(sourceFile)
+    }
+    return changedFiles
+  }
+
+  /**
+   * A cycle through a changed file only contains files reachable from it, and a component it used to be part of can only
+   * split into smaller ones. Components of the other files stay as they are.
+   */
+  private fun updateCyclicComponents(changedFiles: Set<VirtualFile>) {
+    if (changedFiles.isEmpty()) return
+
+    val affectedFiles = HashSet<VirtualFile>()
+    val pending = ArrayDeque(changedFiles)
+    while (pending.isNotEmpty()) {
+      val file = pending.removeLast()
+      if (affectedFiles.add(file)) {
+        loadsByFile[file]?.let { pending.addAll(it.resolvedLoads.values) }
+      }
+    }
+    val previousComponents = changedFiles.mapNotNullTo(HashSet()) { cyclicComponentByFile[it] }
+    if (previousComponents.isNotEmpty()) {
+      cyclicComponentByFile.forEach { (file, component) -> if (component in previousComponents) affectedFiles.add(file) }
+    }
+    affectedFiles.forEach { cyclicComponentByFile.remove(it) }
+
+    GraphUtils
+      .findCyclicStronglyConnectedComponents(affectedFiles) { file ->
+        loadsByFile[file]?.resolvedLoads?.values?.filter { it in affectedFiles }.orEmpty()
+      }.forEach { component ->
+        val componentId = nextComponent++
+        component.forEach { cyclicComponentByFile[it] = componentId }
+      }
+  }
+
+  companion object {
+    fun getInstance(project: Project): StarlarkLoadGraph = project.service()
+  }
+}
@@ -0,0 +1,71 @@
+package org.jetbrains.bazel.languages.starlark.references
+
+import com.intellij.openapi.project.ProjectManager
+import com.intellij.openapi.vfs.AsyncFileListener
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent
+import org.jetbrains.bazel.commons.constants.Constants
+import org.jetbrains.bazel.config.isBazelProject
+
+/**
+ * Keeps the .bzl files returned by [getCanonicalRepoNameToBzlFiles] up to date between syncs.
+ */
+internal class BazelBzlFileListener : AsyncFileListener {
+  override fun prepareChange(events: List<VFileEvent>): AsyncFileListener.ChangeApplier? {
+    val changes = events.mapNotNull { it.toBzlFileChange() }
+    if (changes.isEmpty()) return null
+    return object : AsyncFileListener.ChangeApplier {
+      override fun afterVfsChange() {
+        ProjectManager.getInstance().openProjects
+          .filter { !it.isDisposed && it.isBazelProject }
+          .forEach { updateBzlFiles(it, changes) }
+      }
+    }
+  }
+
+  private fun VFileEvent.toBzlFileChange(): BzlFileChange? =
+    when (this) {
+      is VFileCreateEvent -> change(oldPath = null, oldName = null, newPath = path, newName = childName, isDirectory = isDirectory)
+      is VFileCopyEvent -> change(oldPath = null, oldName = null, newPath = path, newName = newChildName, isDirectory = file.isDirectory)
+      is VFileDeleteEvent -> change(oldPath = path, oldName = file.name, newPath = null, newName = null, isDirectory = file.isDirectory)
+      is VFileMoveEvent -> change(oldPath = oldPath, oldName = file.name, newPath = newPath, newName = file.name, isDirectory = file.isDirectory)
+      is VFilePropertyChangeEvent ->
+        if (propertyName == VirtualFile.PROP_NAME) {
+          change(
+            oldPath = oldPath,
+            oldName = oldValue as String,
+            newPath = newPath,
+            newName = newValue as String,
+            isDirectory = file.isDirectory,
+          )
+        }
+        else {
+          null
+        }
+      else -> null
+    }
+
+  /** Only the side of a rename or move whose name is a .bzl file is kept, e.g. renaming `defs.bzl` to `defs.txt` just removes it. */
+  private fun change(
+    oldPath: String?,
+    oldName: String?,
+    newPath: String?,
+    newName: String?,
+    isDirectory: Boolean,
+  ): BzlFileChange? {
+    if (isDirectory || oldName in Constants.BUILD_FILE_NAMES || newName in Constants.BUILD_FILE_NAMES) {
+      return BzlFileChange(oldPath, newPath, isStructural = true)
+    }
+    val removedPath = oldPath?.takeIf { oldName.isBzlFileName() }
+    val addedPath = newPath?.takeIf { newName.isBzlFileName() }
+    if (removedPath == null && addedPath == null) return null
+    return BzlFileChange(removedPath, addedPath, isStructural = false)
+  }
+
+  private fun String?.isBzlFileName(): Boolean = this != null && endsWith(".bzl")
+}
@@ -1,6 +1,7 @@
 package org.jetbrains.bazel.languages.starlark.references
 
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.LocalFileSystem
 import com.intellij.openapi.vfs.VfsUtilCore
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.openapi.vfs.VirtualFileManager
@@ -15,61 +16,182 @@ import org.jetbrains.bazel.sync.SyncCache
 import org.jetbrains.bazel.workspace.canonicalRepoNameToPath
 import org.jetbrains.bazel.workspace.excludedRoots
 import java.nio.file.Path
-import kotlin.io.path.Path
+import java.util.concurrent.ConcurrentLinkedQueue
 import kotlin.io.path.relativeToOrNull
 
 @ApiStatus.Internal
 fun getCanonicalRepoNameToBzlFiles(project: Project): Map<String, List<Label>> =
-  SyncCache.getInstance(project).get(canonicalRepoNameToBzlFilesValue)
+  SyncCache.getInstance(project).get(bzlFileIndexValue).canonicalRepoNameToBzlFiles()
 
-private val canonicalRepoNameToBzlFilesValue =
+/**
+ * A file system change which may affect the .bzl files of a repo, see [BazelBzlFileListener].
+ * [oldPath] is the path of a removed or moved file and [newPath] is the path of a created or moved one.
+ * A structural change, e.g. of a BUILD file or a directory, can change the package of many files.
+ */
+internal data class BzlFileChange(
+  val oldPath: String?,
+  val newPath: String?,
+  val isStructural: Boolean,
+)
+
+/**
+ * Applies [changes] to the .bzl files of [project], if they have been computed since the last sync.
+ */
+internal fun updateBzlFiles(project: Project, changes: List<BzlFileChange>) {
+  SyncCache.getInstance(project).getIfComputed(bzlFileIndexValue)?.update(changes)
+}
+
+private val bzlFileIndexValue =
   SyncCache.SyncCacheComputable { project ->
-    calculateApparentRepoNameToFiles(project)
+    BzlFileIndex(project)
   }
 
-private fun calculateApparentRepoNameToFiles(project: Project): Map<String, List<ResolvedLabel>> {
-  val newMap = mutableMapOf<String, List<ResolvedLabel>>()
+/**
+ * The .bzl files of every canonical repo together with the labels they are loaded by.
+ *
+ * A repo is scanned the first time its files are requested after a sync. Afterward, a created or removed .bzl file
+ * only updates its own entry, while a structural change marks its repo for a rescan on the next request.
+ * Changes are only queued by [update], which runs in VFS listeners, and applied by the next request, so that a listener
+ * never waits for a scan in progress.
+ */
+private class BzlFileIndex(project: Project) {
+  private val repoRoots: Map<String, VirtualFile>
+  private val excludedRoots: Set<VirtualFile>?
+  private val excludedPaths: List<String>
+
+  // canonical repo name -> .bzl file path -> label, guarded by this
+  private val filesByRepo: Map<String, LinkedHashMap<String, ResolvedLabel>>
+  private val reposToScan = HashSet<String>()
+  private val pendingChanges = ConcurrentLinkedQueue<BzlFileChange>()
+
+  // up to date as long as there are no pending changes
+  @Volatile
+  private var view: Map<String, List<Label>>? = null
+
+  init {
+    val virtualFileManager = VirtualFileManager.getInstance()
+    repoRoots =
+      project.canonicalRepoNameToPath
+        .mapNotNull { (canonicalName, path) -> virtualFileManager.findFileByNioPath(path)?.let { canonicalName to it } }
+        .toMap()
+    excludedRoots = project.excludedRoots()
+    excludedPaths = excludedRoots.orEmpty().map { it.path }
+    filesByRepo = repoRoots.keys.associateWith { LinkedHashMap() }
+    reposToScan.addAll(repoRoots.keys)
+  }
 
-  val canonicalRepoPaths =
-    project.canonicalRepoNameToPath.values
-      .mapNotNull {
-        VirtualFileManager.getInstance().findFileByNioPath(it)
-      }.toSet()
+  fun canonicalRepoNameToBzlFiles(): Map<String, List<Label>> {
+    if (pendingChanges.isEmpty()) view?.let { return it }
+    synchronized(this) {
+      if (excludedRoots == null) return emptyMap()
+      var changed = false
+      while (true) {
+        val change = pendingChanges.poll() ?: break
+        applyChange(change)
+        changed = true
+      }
+      if (!changed) view?.let { return it }
+      for (canonicalName in reposToScan) {
+        val files = filesByRepo.getValue(canonicalName)
+        files.clear()
+        scanRepo(canonicalName, repoRoots.getValue(canonicalName), excludedRoots, files)
+      }
+      reposToScan.clear()
+      val result =
+        filesByRepo
+          .filterValues { it.isNotEmpty() }
+          .mapValues { (_, files) -> files.values.toList() }
+      view = result
+      return result
+    }
+  }
 
-  val excludedRoots = project.excludedRoots() ?: return emptyMap()
+  fun update(changes: List<BzlFileChange>) {
+    pendingChanges.addAll(changes)
+  }
 
-  for ((canonicalName, repoPath) in project.canonicalRepoNameToPath) {
-    val root = VirtualFileManager.getInstance().findFileByNioPath(repoPath) ?: continue
+  private fun applyChange(change: BzlFileChange) {
+    val (oldPath, newPath, isStructural) = change
+    val oldRepo = oldPath?.takeUnless { isExcluded(it) }?.let { findRepo(it) }
+    val newRepo = newPath?.takeUnless { isExcluded(it) }?.let { findRepo(it) }
+    if (isStructural) {
+      oldRepo?.let { reposToScan.add(it) }
+      newRepo?.let { reposToScan.add(it) }
+      return
+    }
+    if (oldPath != null && oldRepo != null && oldRepo !in reposToScan) {
+      filesByRepo.getValue(oldRepo).remove(oldPath)
+    }
+    if (newPath != null && newRepo != null && newRepo !in reposToScan) {
+      val file = LocalFileSystem.getInstance().findFileByPath(newPath)?.takeIf { it.extension == "bzl" } ?: return
+      val label = labelOf(newRepo, repoRoots.getValue(newRepo), file) ?: return
+      filesByRepo.getValue(newRepo)[file.path] = label
+    }
+  }
+
+  /** Returns the innermost repo containing [path], nested repos are not part of the enclosing one. */
+  private fun findRepo(path: String): String? =
+    repoRoots.entries
+      .filter { (_, root) -> isUnder(path, root.path) }
+      .maxByOrNull { (_, root) -> root.path.length }
+      ?.key
+
+  // changes in excluded directories, e.g. the output symlinks, never affect the index
+  private fun isExcluded(path: String): Boolean = excludedPaths.any { isUnder(path, it) }
+
+  private fun isUnder(path: String, ancestor: String): Boolean =
+    path.startsWith(ancestor) && (path.length == ancestor.length || path[ancestor.length] == '/')
+
+  private fun labelOf(canonicalName: String, root: VirtualFile, file: VirtualFile): ResolvedLabel? {
+    val excludedRoots = excludedRoots ?: return null
+    if (generateSequence(file.parent) { it.takeIf { it != root }?.parent }.any { it in excludedRoots }) return null
+    return createLabel(canonicalName, root, file, mutableMapOf())
+  }
+
+  private fun scanRepo(
+    canonicalName: String,
+    root: VirtualFile,
+    excludedRoots: Set<VirtualFile>,
+    files: MutableMap<String, ResolvedLabel>,
+  ) {
+    val nestedRepoRoots = repoRoots.values.toSet()
     val dirToPackagePath = mutableMapOf<VirtualFile, Path?>()
     VfsUtilCore.visitChildrenRecursively(
       root,
       object : VirtualFileVisitor<Unit>() {
         override fun visitFileEx(file: VirtualFile): Result {
           if (file in excludedRoots) return SKIP_CHILDREN
-          if (file != root && file in canonicalRepoPaths) return SKIP_CHILDREN
+          if (file != root && file in nestedRepoRoots) return SKIP_CHILDREN
           if (file.isDirectory) {
             findBuildFilePathForDirectory(file, root, dirToPackagePath)
             return CONTINUE
           }
-          if (file.isDirectory || file.extension != "bzl") return CONTINUE
-
-          val packagePath = findBuildFilePathForDirectory(file.parent, root, dirToPackagePath)?.parent ?: return CONTINUE
-          val packageName = packagePath.relativeToOrNull(repoPath) ?: return CONTINUE
-          val targetName = file.toNioPath().relativeToOrNull(packagePath)
-
-          val label =
-            ResolvedLabel(
-              repo = Canonical.createCanonicalOrMain(canonicalName),
-              packagePath = Package(packageName.toString().split("/")),
-              target = SingleTarget(targetName.toString()),
-            )
-          newMap[canonicalName] = newMap.getOrDefault(canonicalName, emptyList()) + label
+          if (file.extension != "bzl") return CONTINUE
+
+          createLabel(canonicalName, root, file, dirToPackagePath)?.let { files[file.path] = it }
           return CONTINUE
         }
       },
     )
   }
-  return newMap
+
+  private fun createLabel(
+    canonicalName: String,
+    root: VirtualFile,
+    file: VirtualFile,
+    dirToPackagePath: MutableMap<VirtualFile, Path?>,
+  ): ResolvedLabel? {
+    val repoPath = root.toNioPath()
+    val packagePath = findBuildFilePathForDirectory(file.parent, root, dirToPackagePath)?.parent ?: return null
+    val packageName = packagePath.relativeToOrNull(repoPath) ?: return null
+    val targetName = file.toNioPath().relativeToOrNull(packagePath)
+
+    return ResolvedLabel(
+      repo = Canonical.createCanonicalOrMain(canonicalName),
+      packagePath = Package(packageName.toString().split("/")),
+      target = SingleTarget(targetName.toString()),
+    )
+  }
 }
 
 private fun findBuildFilePathForDirectory(
@@ -31,7 +31,6 @@ import org.jetbrains.bazel.languages.starlark.psi.statements.StarlarkLoadStateme
 import org.jetbrains.bazel.languages.starlark.rename.StarlarkStringLiteralManipulator
 import org.jetbrains.bazel.languages.starlark.repomapping.findContainingBazelRepo
 import org.jetbrains.bazel.languages.starlark.repomapping.toShortString
-import org.jetbrains.bazel.target.targetStorage
 import org.jetbrains.bazel.workspace.canonicalRepoNameToPath
 import org.jetbrains.kotlin.psi.psiUtil.getParentOfType
 import java.nio.file.Path
@@ -53,7 +52,8 @@ internal class BazelLabelReference(element: StarlarkStringLiteralExpression, sof
     if (!element.project.isBazelProject || isInNameArgument()) return emptyArray()
 
     if (isFileCompletionLocation()) return fileCompletion()
-    if (isTargetCompletionLocation()) return targetCompletion()
+    // targets are completed by BazelTargetCompletionContributor, which can restart as the user types
+    if (element.parent is StarlarkListLiteralExpression) return emptyArray()
     if (isLoadFilenameCompletionLocation()) return loadFilenameCompletion()
     if (isUseExtensionArgument()) return loadFilenameCompletion()
 
@@ -153,18 +153,9 @@ internal class BazelLabelReference(element: StarlarkStringLiteralExpression, sof
 
   private fun VirtualFile.isBazelFile(): Boolean = BUILD_FILE_NAMES.any { name == it }
 
-  private fun isTargetCompletionLocation(): Boolean { // TODO: Correct target completion location validation.
-    val parent = element.parent ?: return false
-    return parent is StarlarkListLiteralExpression
-  }
-
-  private fun targetCompletion(): Array<LookupElement> {
-    val project = element.project
-    return project.targetStorage
-      .allTargetShortLabels
-      .map { getCompletionLookupElemenent(it, PlatformIcons.PACKAGE_ICON) }
-      .toTypedArray()
-  }
+  // TODO: Correct target completion location validation.
+  fun isTargetCompletionLocation(): Boolean =
+    element.project.isBazelProject && !isInNameArgument() && !isFileCompletionLocation() && element.parent is StarlarkListLiteralExpression
 
   private fun isInNameArgument(): Boolean {
     val parent = element.parent ?: return false
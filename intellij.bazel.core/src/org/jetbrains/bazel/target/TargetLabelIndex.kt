@@ -0,0 +1,85 @@
+package org.jetbrains.bazel.target
+
+import org.jetbrains.annotations.ApiStatus
+
+/**
+ * Candidate lookup for label completion.
+ *
+ * Completion matchers accept a label when the typed characters occur in it in the same order, ignoring case.
+ * Each label keeps a bit mask of the characters it contains, so most labels are rejected with a single
+ * mask test before their characters are compared, and nothing is allocated for labels which do not match.
+ */
+@ApiStatus.Internal
+class TargetLabelIndex(labels: List<String>) {
+  private val labels: Array<String> = labels.toTypedArray()
+  private val masks = LongArray(this.labels.size) { characterMask(this.labels[it]) }
+
+  /**
+   * Returns at most [limit] labels which contain the characters of [pattern] in order, ignoring case.
+   * Labels containing [pattern] as a whole are returned first, since matchers rank them higher.
+   */
+  fun findMatching(pattern: String, limit: Int): List<String> {
+    if (pattern.isEmpty()) {
+      return if (labels.size <= limit) labels.asList() else labels.asList().subList(0, limit)
+    }
+    val patternMask = characterMask(pattern)
+    val result = ArrayList<String>(minOf(limit, DEFAULT_CAPACITY))
+    val scattered = ArrayList<String>()
+    for (index in labels.indices) {
+      if (masks[index] and patternMask != patternMask) {
+        continue
+      }
+      val label = labels[index]
+      if (label.contains(pattern, ignoreCase = true)) {
+        result.add(label)
+        if (result.size >= limit) {
+          return result
+        }
+      }
+      else if (scattered.size < limit && containsSubsequence(label, pattern)) {
+        scattered.add(label)
+      }
+    }
+    for (label in scattered) {
+      if (result.size >= limit) {
+        break
+      }
+      result.add(label)
+    }
+    return result
+  }
+
+  private companion object {
+    const val DEFAULT_CAPACITY = 64
+
+    fun characterMask(text: String): Long {
+      var mask = 0L
+      for (char in text) {
+        mask = mask or (1L shl characterBit(char))
+      }
+      return mask
+    }
+
+    fun characterBit(char: Char): Int {
+      val lower = char.lowercaseChar()
+      return when (lower) {
+        in 'a'..'z' -> lower - 'a'
+        in '0'..'9' -> 26 + (lower - '0')
+        else -> 36 + lower.code % 28
+      }
+    }
+
+    fun containsSubsequence(text: String, pattern: String): Boolean {
+      var next = 0
+      for (char in text) {
+        if (char.equals(pattern[next], ignoreCase = true)) {
+          next++
+          if (next == pattern.length) {
+            return true
+          }
+        }
+      }
+      return false
+    }
+  }
+}
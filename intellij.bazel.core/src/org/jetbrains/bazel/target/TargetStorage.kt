@@ -105,6 +105,8 @@ private class CachedSnapshotView(val snapshot: WorkspaceSnapshot, private val pr
     summaries.map { it.id.toShortString(project) }
   }
 
+  val shortLabelIndex: TargetLabelIndex by lazy { TargetLabelIndex(shortLabels) }
+
   val executableShortLabels: List<String> by lazy {
     summaries.filter { it.kind.isExecutable }
       .map { it.id.toShortString(project) }
@@ -192,6 +194,11 @@ class TargetStorage(private val project: Project, private val coroutineScope: Co
   val allTargetShortLabels: List<String>
     get() = view().shortLabels
 
+  /**
+   * Short labels of imported targets matching [pattern] for completion, see [TargetLabelIndex.findMatching].
+   */
+  fun findShortLabels(pattern: String, limit: Int): List<String> = view().shortLabelIndex.findMatching(pattern, limit)
+
   val allExecutableTargetLabels: List<String>
     get() = view().executableShortLabels
 
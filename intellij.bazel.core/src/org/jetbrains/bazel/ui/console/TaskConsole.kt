@@ -29,6 +29,7 @@ import com.intellij.openapi.project.DumbAwareAction
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.Disposer
 import com.intellij.terminal.TerminalExecutionConsoleBuilder
+import com.intellij.util.concurrency.AppExecutorUtil
 import com.jediterm.core.util.TermSize
 import com.jediterm.terminal.TtyConnector
 import org.jetbrains.annotations.ApiStatus
@@ -42,13 +43,30 @@ import org.jetbrains.bazel.progress.TaskConsole
 import org.jetbrains.bazel.sync.status.SyncStatusListener
 import org.jetbrains.bazel.sync.status.isSyncInProgress
 import org.jetbrains.bsp.protocol.TaskId
+import java.io.IOException
+import java.io.Writer
+import java.nio.file.Files
 import java.nio.file.Path
-
+import java.util.concurrent.TimeUnit
+import kotlin.io.path.bufferedWriter
+
+private const val OUTPUT_FLUSH_DELAY_MILLIS = 100L
+private const val MAX_PENDING_OUTPUT_CHARS = 64 * 1024
+private const val MAX_OUTPUT_CHARS = 8L * 1024 * 1024
+
+/**
+ * Output messages are not sent to the build view one by one, they are collected per task and subtask for
+ * [outputFlushDelayMillis] (or until enough of them are pending) and sent as a single event.
+ * Any other event sends the pending output first, so the order of events is kept.
+ * Each console keeps at most [maxOutputChars] characters of output, the rest of a task's output is written to a file.
+ */
 @ApiStatus.Internal
 abstract class BaseTaskConsole(
   private val taskView: BuildProgressListener,
   private val basePath: String,
   private val project: Project,
+  private val outputFlushDelayMillis: Long = OUTPUT_FLUSH_DELAY_MILLIS,
+  private val maxOutputChars: Long = MAX_OUTPUT_CHARS,
 ) : TaskConsole {
   companion object {
     private val log = logger<BaseTaskConsole>()
@@ -59,6 +77,17 @@ abstract class BaseTaskConsole(
   private val subtaskParentMap: MutableMap<TaskId, TaskId> = linkedMapOf()
   private val subtaskMessageMap: MutableMap<TaskId, String> = linkedMapOf()
 
+  private class PendingOutput(val rootTaskId: TaskId) {
+    val text = StringBuilder()
+  }
+
+  // by the task or subtask whose console shows the output, in the order the output was added
+  private val pendingOutput: MutableMap<TaskId, PendingOutput> = linkedMapOf()
+  private var pendingOutputLength = 0
+  private var isOutputFlushScheduled = false
+  private val emittedOutputLength: MutableMap<TaskId, Long> = mutableMapOf()
+  private val outputSpills: MutableMap<TaskId, OutputSpill?> = mutableMapOf()
+
   @Synchronized
   override fun startTask(
     taskId: TaskId,
@@ -204,6 +233,9 @@ abstract class BaseTaskConsole(
       }
     }
     finishChildrenSubtasks(taskId, result)
+    flushOutput()
+    emittedOutputLength.keys.removeAll { findActiveRootTaskId(it) == taskId }
+    outputSpills.remove(taskId)?.close()
     tasksInProgress.remove(taskId)
     taskFailures.remove(taskId)
     subtaskParentMap.entries.removeAll { findActiveRootTaskId(it.value) == taskId }
@@ -229,6 +261,7 @@ abstract class BaseTaskConsole(
     subtaskId: TaskId,
     message: String,
   ) {
+    flushOutput()
     subtaskMessageMap[subtaskId] = message
     subtaskParentMap[subtaskId] = parentTaskId
     val event = ProgressBuildEventImpl(subtaskId, parentTaskId, System.currentTimeMillis(), message, -1, -1, "")
@@ -256,10 +289,12 @@ abstract class BaseTaskConsole(
     val messageToDisplay = message ?: savedMessage
 
     finishChildrenSubtasks(subtaskId, result)
+    flushOutput()
     val event = FinishEventImpl(subtaskId, null, System.currentTimeMillis(), messageToDisplay, result)
     taskView.onEvent(rootTask, event)
 
     subtaskParentMap.remove(subtaskId)
+    emittedOutputLength.remove(subtaskId)
   }
 
   private fun finishChildrenSubtasks(parentId: TaskId, result: EventResult) {
@@ -317,6 +352,7 @@ abstract class BaseTaskConsole(
         )
       }
 
+    flushOutput()
     taskView.onEvent(taskId, event)
   }
 
@@ -325,7 +361,7 @@ abstract class BaseTaskConsole(
     if (message.isBlank()) return
     val rootTaskId = findActiveRootTaskId(taskId) ?: return
     val activeTaskId = findActiveTaskId(taskId) ?: return
-    doAddMessage(activeTaskId, message)
+    doAddMessage(rootTaskId, activeTaskId, message)
   }
 
   @Synchronized
@@ -334,29 +370,65 @@ abstract class BaseTaskConsole(
     return taskFailures.getOrPut(rootTaskId) { mutableSetOf() }.add(ex)
   }
 
-  private fun doAddMessage(taskId: TaskId, message: String) {
-    if (tasksInProgress.contains(taskId)) {
-      sendMessageEvent(taskId, message)
+  private fun doAddMessage(rootTaskId: TaskId, taskId: TaskId, message: String) {
+    // a subtask's output is shown in the consoles of all its ancestors too
+    var id: TaskId? = taskId
+    while (id != null) {
+      addOutput(rootTaskId, id, message)
+      id = subtaskParentMap[id]
+    }
+    if (outputFlushDelayMillis <= 0 || pendingOutputLength >= MAX_PENDING_OUTPUT_CHARS) {
+      flushOutput()
     }
-    else if (subtaskParentMap.containsKey(taskId)) {
-      sendMessageEvent(taskId, message)
-      sendMessageToAncestors(taskId, message)
+    else if (!isOutputFlushScheduled) {
+      isOutputFlushScheduled = true
+      AppExecutorUtil.getAppScheduledExecutorService().schedule(Runnable { flushOutput() }, outputFlushDelayMillis, TimeUnit.MILLISECONDS)
     }
   }
 
-  private fun sendMessageToAncestors(taskId: TaskId, message: String) {
-    val parentTask = subtaskParentMap[taskId]
-    if (parentTask != null) {
-      sendMessageEvent(parentTask, message)
-      sendMessageToAncestors(parentTask, message)
+  private fun addOutput(rootTaskId: TaskId, taskId: TaskId, message: String) {
+    pendingOutput.getOrPut(taskId) { PendingOutput(rootTaskId) }.text.append(message)
+    pendingOutputLength += message.length
+  }
+
+  @Synchronized
+  private fun flushOutput() {
+    isOutputFlushScheduled = false
+    if (pendingOutput.isEmpty()) return
+    for ((taskId, output) in pendingOutput) {
+      sendOutputEvent(output.rootTaskId, taskId, output.text.toString())
     }
+    pendingOutput.clear()
+    pendingOutputLength = 0
   }
 
-  private fun sendMessageEvent(taskId: TaskId, message: String) {
-    val subtaskId = if (tasksInProgress.contains(taskId)) null else taskId
-    val event = OutputBuildEventImpl(subtaskId, message, true)
-    findActiveRootTaskId(taskId)?.let { rootTaskId ->
-      taskView.onEvent(rootTaskId, event)
+  private fun sendOutputEvent(rootTaskId: TaskId, taskId: TaskId, text: String) {
+    val subtaskId = if (taskId == rootTaskId) null else taskId
+    val previousLength = emittedOutputLength[taskId] ?: 0L
+    emittedOutputLength[taskId] = previousLength + text.length
+    if (previousLength + text.length <= maxOutputChars) {
+      taskView.onEvent(rootTaskId, OutputBuildEventImpl(subtaskId, text, true))
+      return
+    }
+
+    // the root task's console has all the output of its subtasks, so only its copy is written to the file
+    val spill = if (rootTaskId in outputSpills) outputSpills[rootTaskId] else OutputSpill.create().also { outputSpills[rootTaskId] = it }
+    var rest = text
+    if (previousLength <= maxOutputChars) {
+      val shown = text.take((maxOutputChars - previousLength).toInt())
+      rest = text.substring(shown.length)
+      val notice =
+        if (spill != null) {
+          BazelPluginBundle.message("console.output.spilled", maxOutputChars, spill.file)
+        }
+        else {
+          BazelPluginBundle.message("console.output.truncated", maxOutputChars)
+        }
+      val shownText = if (shown.isEmpty()) "" else prepareTextToPrint(shown)
+      taskView.onEvent(rootTaskId, OutputBuildEventImpl(subtaskId, shownText + prepareTextToPrint(notice), true))
+    }
+    if (subtaskId == null) {
+      spill?.write(rest)
     }
   }
 
@@ -382,6 +454,38 @@ abstract class BaseTaskConsole(
 
   private fun prepareTextToPrint(text: String): String = if (text.endsWith("\n")) text else text + "\n"
 
+  private class OutputSpill(val file: Path, private val writer: Writer) {
+    fun write(text: String) {
+      try {
+        writer.write(text)
+      }
+      catch (e: IOException) {
+        log.warn("Could not write the task output to $file", e)
+      }
+    }
+
+    fun close() {
+      try {
+        writer.close()
+      }
+      catch (e: IOException) {
+        log.warn("Could not write the task output to $file", e)
+      }
+    }
+
+    companion object {
+      fun create(): OutputSpill? =
+        try {
+          val file = Files.createTempFile("bazel-task-output", ".log")
+          OutputSpill(file, file.bufferedWriter())
+        }
+        catch (e: IOException) {
+          log.warn("Could not create a file for the task output", e)
+          null
+        }
+    }
+  }
+
   private inner class CancelAction(private val doCancelAction: () -> Unit, private val taskId: TaskId) :
     DumbAwareAction({ BazelPluginBundle.message("cancel.action.text") }, AllIcons.Actions.Suspend) {
     @Volatile
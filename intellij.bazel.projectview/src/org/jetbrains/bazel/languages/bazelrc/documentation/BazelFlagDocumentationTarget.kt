@@ -24,8 +24,8 @@ private val reFlag = Regex("""(?<=\s)(--[\S=]+)(?=[\s$.])""")
 private val reFlagQuoted = Regex("""(?<=\s)('--['\S=]+')(?=[\s$.])""")
 
 // this will take the description and massage it into a better markdown variant so that the transformed HTML is nicer
-private fun Flag.help(): String =
-  option.help
+private fun Flag.helpMarkdown(): String =
+  help
     .trimIndent()
     .replace(reFlag) { "`${it.groups[1]?.value}`" } // -> _--asdfasd_ -> _`--asdfasd`_
     .replace(reFlagQuoted) { "`${it.groups[1]?.value}`" } // -> _'--asdfasd_' -> _`--asdfasd`_
@@ -114,7 +114,7 @@ fun flagToDocumentationMarkdownText(flag: Flag): String {
           |
           |${flag.allowMultiple()}
           |
-          |${flag.help()}
+          |${flag.helpMarkdown()}
           |
           |${flag.expandsTo()}
           |
@@ -1,9 +1,6 @@
 package org.jetbrains.bazel.languages.bazelrc.flags
 
-import kotlinx.collections.immutable.PersistentMap
-import kotlinx.collections.immutable.toPersistentMap
 import org.jetbrains.annotations.ApiStatus
-import java.lang.reflect.Field
 import kotlin.reflect.KProperty
 
 @ApiStatus.Internal
@@ -30,64 +27,30 @@ sealed class Flag {
 
   data class OneOf(override val name: String) : Flag()
 
-  /** Lazily load and return the @Option() annotation associated with this value, if any. */
+  /**
+   * Lazily load and return the @Option() metadata of this flag, if any.
+   * The help text is not part of it, use [help] instead.
+   */
   val option: Option by object : LazyExtension<Option, Flag>() {
-    override fun initValue(o: Flag): Option =
-      KnownFlags.declaredFieldsMap[o.name]?.getDeclaredAnnotation(Option::class.java) ?: Option(o.name)
+    override fun initValue(o: Flag): Option = FlagTable.instance.option(o.name) ?: Option(o.name)
   }
 
-  companion object {
-    internal val KnownFlags.declaredFieldsMap by object : LazyExtension<PersistentMap<String, Field>, KnownFlags>() {
-      override fun initValue(o: KnownFlags): PersistentMap<String, Field> =
-        KnownFlags::class.java.declaredFields
-          .filter { it.getDeclaredAnnotation(Option::class.java) != null }
-          .associateBy { it.name }
-          .toPersistentMap()
-    }
-
-    private val KnownFlags.allFlags by object : LazyExtension<PersistentMap<String, Flag>, KnownFlags>() {
-      override fun initValue(o: KnownFlags): PersistentMap<String, Flag> =
-        KnownFlags.declaredFieldsMap
-          .values
-          .mapNotNull {
-            it.getDeclaredAnnotation(Option::class.java)?.let { op -> Pair(it, op) }
-          }.mapNotNull { (f, op) -> (f.get(o) as? Flag)?.let { flag -> Pair(flag, op) } }
-          .flatMap { knownFlagNames(it) }
-          .toMap()
-          .toPersistentMap()
-    }
+  /** The help text of this flag, help texts are only loaded when the first one is requested. */
+  val help: String
+    get() = FlagTable.instance.help(name)
 
-    private val KnownFlags.allCommands by object : LazyExtension<Set<String>, KnownFlags>() {
-      override fun initValue(o: KnownFlags): Set<String> =
-        KnownFlags.allFlags
-          .flatMap { x ->
-            x.value.option.commands
-              .asIterable()
-          }.toSet()
-    }
+  /** Whether this flag can be used with the given Bazel [command]. */
+  fun isAvailableFor(command: String): kotlin.Boolean = FlagTable.instance.isAvailableFor(name, command)
 
-    fun commands() = KnownFlags.allCommands
+  companion object {
+    fun commands(): List<String> = FlagTable.instance.commands
 
-    fun byName(name: String) = KnownFlags.allFlags[name]
+    fun byName(name: String): Flag? = FlagTable.instance.byName(name)
 
-    fun all() = KnownFlags.allFlags
+    fun all(): Map<String, Flag> = FlagTable.instance.flagsByName
   }
 }
 
-internal fun knownFlagNames(pair: Pair<Flag, Option>): List<Pair<String, Flag>> {
-  val (flag, option) = pair
-  var names = listOf(option.name, option.oldName).filter { it.isNotEmpty() }
-
-  names =
-    when (flag) {
-      is Flag.Boolean -> names.flatMap { listOf("--$it", "--no$it") }
-      is Flag.TriState -> names.flatMap { listOf("--$it", "--no$it") }
-      else -> names.map { "--$it" }
-    }
-
-  return names.map { it to flag }
-}
-
 internal abstract class LazyExtension<T, This> {
   private lateinit var value: T & Any
 
@@ -0,0 +1,237 @@
+package org.jetbrains.bazel.languages.bazelrc.flags
+
+import org.jetbrains.annotations.ApiStatus
+import java.io.Writer
+
+private const val TABLE_PATH = "/bazelrcFlags/flags.tsv"
+private const val HELP_PATH = "/bazelrcFlags/flag-help.txt"
+private const val HEADER = "# Generated by //plugins/bazel/tools/bazelrc_flags:generator from KnownFlags, do not edit."
+
+/**
+ * The known Bazel flags, read from a table generated from [KnownFlags] by `//plugins/bazel/tools/bazelrc_flags:generator`,
+ * so that neither the flag declarations nor their annotations have to be loaded with reflection.
+ *
+ * The table has one tab separated row per flag, help texts are kept in a separate resource with the same row order
+ * and are only read when first requested. The commands a flag applies to are stored as a bitset over [commands].
+ *
+ * ### Updating
+ * Regenerate the table after changing [KnownFlags]:
+ * ```bash
+ * bazel run //plugins/bazel/tools/bazelrc_flags:generator
+ * ```
+ */
+internal class FlagTable private constructor(rows: List<List<String>>, val commands: List<String>) {
+  private val flags: Array<Flag>
+  private val rows: Array<List<String>>
+  private val commandBits: LongArray
+  private val flagIndex: NameIndex
+  private val flagByName: NameIndex
+
+  init {
+    flags = Array(rows.size) { flagOf(rows[it][0], rows[it][1]) }
+    this.rows = rows.toTypedArray()
+    commandBits = LongArray(rows.size) { java.lang.Long.parseUnsignedLong(rows[it][10], 16) }
+    flagIndex = NameIndex(Array(rows.size) { rows[it][0] }, IntArray(rows.size) { it })
+
+    val names = ArrayList<String>(rows.size * 2)
+    val indices = ArrayList<Int>(rows.size * 2)
+    for ((index, row) in rows.withIndex()) {
+      for (name in listOf(row[2], row[3])) {
+        if (name.isEmpty()) continue
+        names.add("--$name")
+        indices.add(index)
+        if (flags[index] is Flag.Boolean || flags[index] is Flag.TriState) {
+          names.add("--no$name")
+          indices.add(index)
+        }
+      }
+    }
+    flagByName = NameIndex(names.toTypedArray(), indices.toIntArray())
+  }
+
+  /** All flag names, including the negated and old names, mapped to their flag. */
+  val flagsByName: Map<String, Flag> =
+    object : AbstractMap<String, Flag>() {
+      override val entries: Set<Map.Entry<String, Flag>> =
+        object : AbstractSet<Map.Entry<String, Flag>>() {
+          override val size: Int
+            get() = flagByName.size
+
+          override fun iterator(): Iterator<Map.Entry<String, Flag>> =
+            (0 until flagByName.size).asSequence().map { FlagEntry(flagByName.keyAt(it), flags[flagByName.valueAt(it)]) }.iterator()
+        }
+
+      override fun get(key: String): Flag? = byName(key)
+
+      override fun containsKey(key: String): Boolean = flagByName.indexOf(key) >= 0
+    }
+
+  fun byName(name: String): Flag? = flagByName.indexOf(name).takeIf { it >= 0 }?.let { flags[it] }
+
+  /** The [Option] of the flag declared as [fieldName], the help text is not included, see [help]. */
+  fun option(fieldName: String): Option? {
+    val index = flagIndex.indexOf(fieldName).takeIf { it >= 0 } ?: return null
+    val row = rows[index]
+    return Option(
+      name = row[2],
+      abbrev = row[4].firstOrNull() ?: 0.toChar(),
+      valueHelp = row[5],
+      defaultValue = row[6],
+      allowMultiple = row[7].toBoolean(),
+      effectTags = row[8].splitNames().map { OptionEffectTag.valueOf(it) }.toTypedArray(),
+      metadataTags = row[9].splitNames().map { OptionMetadataTag.valueOf(it) }.toTypedArray(),
+      expandsTo = row.drop(11).toTypedArray(),
+      oldName = row[3],
+      commands = commandsOf(commandBits[index]).toTypedArray(),
+    )
+  }
+
+  fun isAvailableFor(fieldName: String, command: String): Boolean {
+    val index = flagIndex.indexOf(fieldName).takeIf { it >= 0 } ?: return false
+    val commandIndex = commands.indexOf(command).takeIf { it >= 0 } ?: return false
+    return commandBits[index] and (1L shl commandIndex) != 0L
+  }
+
+  fun help(fieldName: String): String {
+    val index = flagIndex.indexOf(fieldName).takeIf { it >= 0 } ?: return ""
+    return helpTexts[index]
+  }
+
+  private val helpTexts: List<String> by lazy {
+    readRows(HELP_PATH).map { it.single() }
+  }
+
+  private fun commandsOf(bits: Long): List<String> = commands.filterIndexed { index, _ -> bits and (1L shl index) != 0L }
+
+  private fun String.splitNames(): List<String> = if (isEmpty()) emptyList() else split(',')
+
+  private class FlagEntry(override val key: String, override val value: Flag) : Map.Entry<String, Flag>
+
+  companion object {
+    val instance: FlagTable by lazy {
+      val rows = readRows(TABLE_PATH)
+      FlagTable(rows.drop(1), commands = rows.firstOrNull().orEmpty())
+    }
+
+    private fun readRows(path: String): List<List<String>> {
+      val stream = FlagTable::class.java.getResourceAsStream(path) ?: error("Missing bazelrc flag resource $path")
+      return stream.bufferedReader().useLines { lines ->
+        // the first line is the generated file header
+        lines.drop(1).map { line -> line.split('\t').map(::unescape) }.toList()
+      }
+    }
+
+    private fun flagOf(fieldName: String, kind: String): Flag =
+      when (kind) {
+        "Boolean" -> Flag.Boolean(fieldName)
+        "TriState" -> Flag.TriState(fieldName)
+        "Integer" -> Flag.Integer(fieldName)
+        "Path" -> Flag.Path(fieldName)
+        "Double" -> Flag.Double(fieldName)
+        "Duration" -> Flag.Duration(fieldName)
+        "Str" -> Flag.Str(fieldName)
+        "Label" -> Flag.Label(fieldName)
+        "OneOf" -> Flag.OneOf(fieldName)
+        else -> Flag.Unknown(fieldName)
+      }
+
+    private fun unescape(value: String): String {
+      if ('\\' !in value) return value
+      val result = StringBuilder(value.length)
+      var i = 0
+      while (i < value.length) {
+        val c = value[i++]
+        if (c != '\\' || i == value.length) {
+          result.append(c)
+          continue
+        }
+        when (val next = value[i++]) {
+          't' -> result.append('\t')
+          'n' -> result.append('\n')
+          'r' -> result.append('\r')
+          else -> result.append(next)
+        }
+      }
+      return result.toString()
+    }
+  }
+}
+
+/**
+ * An open addressing hash table from names to ints, compact enough to hold every flag name without boxing.
+ * A name given more than once maps to its last value.
+ */
+private class NameIndex(names: Array<String>, indices: IntArray) {
+  private val keys = ArrayList<String>(names.size)
+  private val values = IntArray(names.size)
+  // position in keys + 1 for each slot, 0 for an empty one
+  private val slots = IntArray(Integer.highestOneBit(maxOf(names.size, 1)) * 4)
+  private val mask = slots.size - 1
+
+  init {
+    for (i in names.indices) {
+      val slot = findSlot(names[i])
+      if (slots[slot] == 0) {
+        keys.add(names[i])
+        slots[slot] = keys.size
+      }
+      values[slots[slot] - 1] = indices[i]
+    }
+  }
+
+  val size: Int
+    get() = keys.size
+
+  fun keyAt(position: Int): String = keys[position]
+
+  fun valueAt(position: Int): Int = values[position]
+
+  /** Returns the value of [name], or -1 if it is not in the table. */
+  fun indexOf(name: String): Int {
+    val position = slots[findSlot(name)]
+    return if (position == 0) -1 else values[position - 1]
+  }
+
+  private fun findSlot(name: String): Int {
+    var slot = name.hashCode() and mask
+    while (slots[slot] != 0 && keys[slots[slot] - 1] != name) {
+      slot = (slot + 1) and mask
+    }
+    return slot
+  }
+}
+
+/**
+ * Writes the resources read by [FlagTable] for the given [KnownFlags] declarations, see `//plugins/bazel/tools/bazelrc_flags:generator`.
+ */
+@ApiStatus.Internal
+fun writeFlagTable(flags: List<Pair<Flag, Option>>, table: Writer, help: Writer) {
+  val commands = flags.flatMap { (_, option) -> option.commands.asIterable() }.toSortedSet().toList()
+  require(commands.size <= Long.SIZE_BITS) { "Too many commands for the command bitset: ${commands.size}" }
+
+  table.appendLine(HEADER)
+  table.appendLine(commands.joinToString("\t") { escape(it) })
+  help.appendLine(HEADER)
+  for ((flag, option) in flags) {
+    val commandBits = option.commands.fold(0L) { bits, command -> bits or (1L shl commands.indexOf(command)) }
+    val row =
+      listOf(
+        flag.name,
+        flag::class.java.simpleName,
+        option.name,
+        option.oldName,
+        if (option.abbrev == 0.toChar()) "" else option.abbrev.toString(),
+        option.valueHelp,
+        option.defaultValue,
+        option.allowMultiple.toString(),
+        option.effectTags.joinToString(",") { it.name },
+        option.metadataTags.joinToString(",") { it.name },
+        java.lang.Long.toHexString(commandBits),
+      ) + option.expandsTo
+    table.appendLine(row.joinToString("\t") { escape(it) })
+    help.appendLine(escape(option.help.trimIndent()))
+  }
+}
+
+private fun escape(value: String): String =
+  value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r")
@@ -18,6 +18,7 @@ import org.jetbrains.bazel.languages.projectview.sections.ImportRunConfiguration
 import org.jetbrains.bazel.languages.projectview.sections.IndexAllFilesInDirectoriesSection
 import org.jetbrains.bazel.languages.projectview.sections.PythonDebugFlagsSection
 import org.jetbrains.bazel.languages.projectview.sections.RunConfigRunWithBazelSection
+import org.jetbrains.bazel.languages.projectview.sections.ShardHeapBudgetMbSection
 import org.jetbrains.bazel.languages.projectview.sections.ShardSyncSection
 import org.jetbrains.bazel.languages.projectview.sections.ShardingApproachSection
 import org.jetbrains.bazel.languages.projectview.sections.SyncFlagsSection
@@ -53,6 +54,7 @@ internal class DefaultProjectViewSectionProvider : ProjectViewSectionProvider {
       IndexAllFilesInDirectoriesSection(),
       PythonDebugFlagsSection(),
       ShardingApproachSection(),
+      ShardHeapBudgetMbSection(),
       ShardSyncSection(),
       SyncFlagsSection(),
       TargetShardSizeSection(),
@@ -24,7 +24,7 @@ internal class FlagCompletionProvider(vararg val commands: String) : CompletionP
     val flags =
       Flag.all().filter {
         !previousFlags.contains(it.key) &&
-          commands.all { cmd -> cmd in it.value.option.commands }
+          commands.all { cmd -> it.value.isAvailableFor(cmd) }
       }
     result.run {
       addAllElements(
@@ -0,0 +1,9 @@
+package org.jetbrains.bazel.languages.projectview.sections
+
+import org.jetbrains.bazel.languages.projectview.SHARD_HEAP_BUDGET_MB_KEY
+import org.jetbrains.bazel.languages.projectview.sections.presets.IntScalarSection
+
+internal class ShardHeapBudgetMbSection : IntScalarSection() {
+  override val sectionKey = SHARD_HEAP_BUDGET_MB_KEY
+  override val doc = "Bazel heap (in megabytes) each build shard should fit in. Shards are sized from the heap usage of previous syncs."
+}
@@ -19,7 +19,7 @@ internal abstract class FlagListSection(private vararg val commands: String) : L
       holder.annotateWarning(element, message)
       return
     }
-    if (commands.any { it !in flag.option.commands }) {
+    if (commands.any { !flag.isAvailableFor(it) }) {
       val message = ProjectViewBundle.getMessage("annotator.flag.not.allowed.here.error", element.text, commands.contentToString())
       holder.annotateWarning(element, message)
     }
@@ -41,6 +41,7 @@ import com.intellij.task.TaskRunnerResults
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import org.jetbrains.bazel.commons.ExecUtils
+import org.jetbrains.bazel.config.BazelFeatureFlags
 import org.jetbrains.bazel.config.BazelPluginBundle
 import org.jetbrains.bazel.config.rootDir
 import org.jetbrains.bazel.coroutines.BazelCoroutineService
@@ -52,6 +53,7 @@ import org.jetbrains.concurrency.AsyncPromise
 import org.jetbrains.concurrency.Promise
 import java.io.BufferedReader
 import java.io.File
+import java.io.IOException
 import java.io.OutputStreamWriter
 import java.nio.file.Files
 import java.nio.file.Path
@@ -195,80 +197,22 @@ internal object FastBuildUtils {
               throw ExecutionException(BazelPluginBundle.message("widget.fastbuild.error.null.jvm.toolchain"))
             }
 
-          val arguments =
+          val javaCommand =
             buildList {
               add(toolchainInfo.java_home + File.separator + "bin" + File.separator + ExecUtils.calculateExecutableName("java"))
               toolchainInfo.jvm_opts.forEach { add(it) }
               add("-jar")
               add(toolchainInfo.toolchain_path)
-              add("@${paramsFile0.pathString}")
-              add("@${paramsFile1.pathString}")
             }
-
-          val command =
-            GeneralCommandLine(arguments).apply {
-              withWorkingDirectory(project.projectCtx.bazelExecPath ?: throw ExecutionException(BazelPluginBundle.message("widget.fastbuild.error.null.bazel.exec.path")))
-            }
-          val handler = OSProcessHandler(command)
-          handler.addProcessListener(
-            object : ProcessListener {
-              // TODO: adapt EclipseOutputParser and JavacOutputParser and group parse errors properly
-              val JAVAC_WARNING = "warning:"
-              val JAVAC_ERROR = "error:"
-              val ECLIPSE_PROBLEM_SEPARATOR = "----------"
-              val ECLIPSE_WARNING = ". WARNING in "
-              val ECLIPSE_ERROR = ". ERROR in "
-
-              var isWarning = false
-
-              override fun onTextAvailable(event: ProcessEvent, outputType: Key<*>) {
-                if (outputType == ProcessOutputType.STDERR) {
-                  if (ECLIPSE_PROBLEM_SEPARATOR in event.text) return
-                  if (JAVAC_WARNING in event.text || ECLIPSE_WARNING in event.text) {
-                    isWarning = true
-                  } else if (JAVAC_ERROR in event.text || ECLIPSE_ERROR in event.text) {
-                    isWarning = false
-                  }
-                  val compilerCategory = if (isWarning) CompilerMessageCategory.WARNING else CompilerMessageCategory.ERROR
-
-                  val parts = event.text.split(':')
-                  val line = parts.firstOrNull()?.trim()?.toIntOrNull()
-                  if (parts.size >= 4 && line != null) {
-                    val error = parts[3]
-                    compileContext.addMessage(
-                      CompilerMessageImpl(
-                        project,
-                        compilerCategory,
-                        error,
-                        inputFile,
-                        line,
-                        0,
-                        null,
-                      ),
-                    )
-                  } else {
-                    compileContext.addMessage(
-                      CompilerMessageImpl(
-                        project,
-                        compilerCategory,
-                        event.text,
-                      ),
-                    )
-                  }
-                } else if (outputType == ProcessOutputType.STDOUT) {
-                  compileContext.addMessage(
-                    CompilerMessageImpl(
-                      project,
-                      CompilerMessageCategory.INFORMATION,
-                      event.text,
-                    ),
-                  )
-                }
-              }
-            },
-          )
-          handler.startNotify()
-          if (!handler.waitFor() || handler.exitCode != 0) {
+          val paramsArguments = listOf("@${paramsFile0.pathString}", "@${paramsFile1.pathString}")
+          val workingDirectory =
+            project.projectCtx.bazelExecPath ?: throw ExecutionException(BazelPluginBundle.message("widget.fastbuild.error.null.bazel.exec.path"))
+          val outputReporter = CompilerOutputReporter(project, compileContext, inputFile)
+
+          val succeeded =
+            compileWithWorker(project, javaCommand, workingDirectory, paramsArguments, outputReporter)
+              ?: compileWithProcess(javaCommand + paramsArguments, workingDirectory, outputReporter)
+          if (!succeeded) {
             compileTask.setEndCompilationStamp(ExitStatus.ERRORS, System.currentTimeMillis())
             // tempDir.delete()
             fastBuildTargetStatus =
@@ -318,6 +262,117 @@ internal object FastBuildUtils {
     }
   }
 
+  /**
+   * Compiles on a persistent Java builder worker, returns null when the worker is disabled or could not be used,
+   * in which case the compilation should be repeated in a new process.
+   */
+  private fun compileWithWorker(
+    project: Project,
+    javaCommand: List<String>,
+    workingDirectory: Path,
+    paramsArguments: List<String>,
+    outputReporter: CompilerOutputReporter,
+  ): Boolean? {
+    if (!BazelFeatureFlags.fastBuildPersistentWorker) return null
+    val response =
+      try {
+        JavaBuilderWorkerPool.getInstance(project).execute(javaCommand, workingDirectory, paramsArguments)
+      } catch (e: IOException) {
+        logger.warn("Java builder worker failed, falling back to a new compiler process", e)
+        return null
+      } catch (e: ExecutionException) {
+        logger.warn("Java builder worker failed, falling back to a new compiler process", e)
+        return null
+      }
+    response.output.lineSequence().filter { it.isNotEmpty() }.forEach { outputReporter.onStderr(it + "\n") }
+    return response.exitCode == 0
+  }
+
+  private fun compileWithProcess(
+    arguments: List<String>,
+    workingDirectory: Path,
+    outputReporter: CompilerOutputReporter,
+  ): Boolean {
+    val command =
+      GeneralCommandLine(arguments).apply {
+        withWorkingDirectory(workingDirectory)
+      }
+    val handler = OSProcessHandler(command)
+    handler.addProcessListener(
+      object : ProcessListener {
+        override fun onTextAvailable(event: ProcessEvent, outputType: Key<*>) {
+          if (outputType == ProcessOutputType.STDERR) {
+            outputReporter.onStderr(event.text)
+          } else if (outputType == ProcessOutputType.STDOUT) {
+            outputReporter.onStdout(event.text)
+          }
+        }
+      },
+    )
+    handler.startNotify()
+    return handler.waitFor() && handler.exitCode == 0
+  }
+
+  private class CompilerOutputReporter(
+    private val project: Project,
+    private val compileContext: CompileContextImpl,
+    private val inputFile: VirtualFile,
+  ) {
+    // TODO: adapt EclipseOutputParser and JavacOutputParser and group parse errors properly
+    val JAVAC_WARNING = "warning:"
+    val JAVAC_ERROR = "error:"
+    val ECLIPSE_PROBLEM_SEPARATOR = "----------"
+    val ECLIPSE_WARNING = ". WARNING in "
+    val ECLIPSE_ERROR = ". ERROR in "
+
+    var isWarning = false
+
+    fun onStderr(text: String) {
+      if (ECLIPSE_PROBLEM_SEPARATOR in text) return
+      if (JAVAC_WARNING in text || ECLIPSE_WARNING in text) {
+        isWarning = true
+      } else if (JAVAC_ERROR in text || ECLIPSE_ERROR in text) {
+        isWarning = false
+      }
+      val compilerCategory = if (isWarning) CompilerMessageCategory.WARNING else CompilerMessageCategory.ERROR
+
+      val parts = text.split(':')
+      val line = parts.firstOrNull()?.trim()?.toIntOrNull()
+      if (parts.size >= 4 && line != null) {
+        val error = parts[3]
+        compileContext.addMessage(
+          CompilerMessageImpl(
+            project,
+            compilerCategory,
+            error,
+            inputFile,
+            line,
+            0,
+            null,
+          ),
+        )
+      } else {
+        compileContext.addMessage(
+          CompilerMessageImpl(
+            project,
+            compilerCategory,
+            text,
+          ),
+        )
+      }
+    }
+
+    fun onStdout(text: String) {
+      compileContext.addMessage(
+        CompilerMessageImpl(
+          project,
+          CompilerMessageCategory.INFORMATION,
+          text,
+        ),
+      )
+    }
+  }
+
   /**
    * Copies the original params file updating certain fields to reduce compile time
    * and point to a different output
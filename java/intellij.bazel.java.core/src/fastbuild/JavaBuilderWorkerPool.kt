@@ -0,0 +1,235 @@
+package org.jetbrains.bazel.fastbuild
+
+import com.intellij.execution.ExecutionException
+import com.intellij.execution.configurations.GeneralCommandLine
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.project.Project
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.jetbrains.annotations.VisibleForTesting
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.file.Path
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.ExecutionException as FutureExecutionException
+
+internal data class WorkResponse(val exitCode: Int, val output: String)
+
+/**
+ * Keeps the Java builder of recently used toolchains running as Bazel persistent workers,
+ * so that a fast build does not pay for JVM startup and JIT warmup of the compiler every time.
+ *
+ * A worker is identified by the full command used to start it, a changed toolchain gets a new worker
+ * and the least recently used one is stopped once more than [MAX_WORKERS] are running.
+ */
+@Service(Service.Level.PROJECT)
+internal class JavaBuilderWorkerPool : Disposable {
+  private data class WorkerKey(val command: List<String>, val workingDirectory: Path)
+
+  private val workers = LinkedHashMap<WorkerKey, JavaBuilderWorker>(MAX_WORKERS + 1, 0.75f, true)
+
+  /**
+   * Runs a single compilation with [arguments] on the worker started by [command] in [workingDirectory].
+   * A worker which fails to answer, or doesn't answer in time, is stopped, so the next call starts a fresh one.
+   */
+  @Throws(IOException::class, ExecutionException::class)
+  fun execute(command: List<String>, workingDirectory: Path, arguments: List<String>): WorkResponse {
+    val key = WorkerKey(command, workingDirectory)
+    val worker = acquire(key)
+    try {
+      return worker.execute(arguments)
+    }
+    catch (e: IOException) {
+      release(key, worker)
+      throw e
+    }
+  }
+
+  private fun acquire(key: WorkerKey): JavaBuilderWorker {
+    val evicted = mutableListOf<JavaBuilderWorker>()
+    val worker =
+      synchronized(workers) {
+        workers[key]?.takeIf { it.isAlive }?.let { return@synchronized it }
+        workers.remove(key)?.let { evicted.add(it) }
+        val started = JavaBuilderWorker(key.command, key.workingDirectory)
+        workers[key] = started
+        while (workers.size > MAX_WORKERS) {
+          val eldest = workers.entries.first()
+          workers.remove(eldest.key)
+          evicted.add(eldest.value)
+        }
+        started
+      }
+    evicted.forEach { it.destroy() }
+    return worker
+  }
+
+  private fun release(key: WorkerKey, worker: JavaBuilderWorker) {
+    synchronized(workers) {
+      if (workers[key] === worker) {
+        workers.remove(key)
+      }
+    }
+    worker.destroy()
+  }
+
+  override fun dispose() {
+    val running = synchronized(workers) { workers.values.toList().also { workers.clear() } }
+    running.forEach { it.destroy() }
+  }
+
+  companion object {
+    private const val MAX_WORKERS = 2
+
+    fun getInstance(project: Project): JavaBuilderWorkerPool = project.service()
+  }
+}
+
+/**
+ * A Java builder process started with `--persistent_worker`.
+ *
+ * A worker which doesn't answer within [RESPONSE_TIMEOUT_SECONDS] is destroyed, the caller then compiles in a new process.
+ */
+private class JavaBuilderWorker(command: List<String>, workingDirectory: Path) {
+  private val process: Process =
+    GeneralCommandLine(command + PERSISTENT_WORKER_FLAG)
+      .withWorkingDirectory(workingDirectory)
+      .createProcess()
+  private val requests = BufferedOutputStream(process.outputStream)
+  private val responses = BufferedInputStream(process.inputStream)
+
+  init {
+    // the worker reports diagnostics in the response, stderr only carries its own logging
+    val stderr = process.errorStream
+    AppExecutorUtil.getAppExecutorService().execute {
+      try {
+        stderr.bufferedReader().forEachLine { logger.debug("Java builder worker: $it") }
+      }
+      catch (_: IOException) {
+      }
+    }
+  }
+
+  val isAlive: Boolean
+    get() = process.isAlive
+
+  @Synchronized
+  fun execute(arguments: List<String>): WorkResponse {
+    WorkProtocol.writeWorkRequest(requests, arguments)
+    requests.flush()
+
+    val response = AppExecutorUtil.getAppExecutorService().submit<WorkResponse> { WorkProtocol.readWorkResponse(responses) }
+    try {
+      return response.get(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    }
+    catch (e: TimeoutException) {
+      // the destroyed process closes its output, which ends the pending read
+      destroy()
+      throw IOException("Java builder worker did not respond within $RESPONSE_TIMEOUT_SECONDS seconds", e)
+    }
+    catch (e: FutureExecutionException) {
+      throw e.cause as? IOException ?: IOException(e.cause)
+    }
+  }
+
+  fun destroy() {
+    process.destroy()
+  }
+
+  private companion object {
+    val logger = Logger.getInstance(JavaBuilderWorker::class.java)
+    const val PERSISTENT_WORKER_FLAG = "--persistent_worker"
+    const val RESPONSE_TIMEOUT_SECONDS = 120L
+  }
+}
+
+/**
+ * Requests and responses of a Bazel persistent worker are length-delimited `WorkRequest` and `WorkResponse` protos,
+ * only the few fields needed for a singleplex worker are encoded here.
+ */
+@VisibleForTesting
+internal object WorkProtocol {
+  // field number shl 3 or wire type
+  private const val WORK_REQUEST_ARGUMENTS_TAG = 1 shl 3 or 2
+  private const val WORK_RESPONSE_EXIT_CODE_FIELD = 1
+  private const val WORK_RESPONSE_OUTPUT_FIELD = 2
+  private const val WIRE_TYPE_VARINT = 0
+  private const val WIRE_TYPE_FIXED64 = 1
+  private const val WIRE_TYPE_LENGTH_DELIMITED = 2
+  private const val WIRE_TYPE_FIXED32 = 5
+
+  fun writeWorkRequest(output: OutputStream, arguments: List<String>) {
+    val request = ByteArrayOutputStream()
+    for (argument in arguments) {
+      val bytes = argument.toByteArray(Charsets.UTF_8)
+      writeVarint(request, WORK_REQUEST_ARGUMENTS_TAG.toLong())
+      writeVarint(request, bytes.size.toLong())
+      request.write(bytes)
+    }
+    writeVarint(output, request.size().toLong())
+    request.writeTo(output)
+  }
+
+  fun readWorkResponse(input: InputStream): WorkResponse {
+    val size = readVarint(input).toInt()
+    val response = input.readNBytes(size)
+    if (response.size != size) throw EOFException("Java builder worker closed its output")
+    return parseWorkResponse(response)
+  }
+
+  fun parseWorkResponse(bytes: ByteArray): WorkResponse {
+    val input = bytes.inputStream()
+    var exitCode = 0
+    var output = ""
+    while (input.available() > 0) {
+      val tag = readVarint(input).toInt()
+      val field = tag ushr 3
+      when (tag and 7) {
+        WIRE_TYPE_VARINT -> {
+          val value = readVarint(input)
+          if (field == WORK_RESPONSE_EXIT_CODE_FIELD) exitCode = value.toInt()
+        }
+        WIRE_TYPE_LENGTH_DELIMITED -> {
+          val length = readVarint(input).toInt()
+          val value = input.readNBytes(length)
+          if (value.size != length) throw EOFException("Truncated WorkResponse")
+          if (field == WORK_RESPONSE_OUTPUT_FIELD) output = value.toString(Charsets.UTF_8)
+        }
+        WIRE_TYPE_FIXED64 -> input.skipNBytes(8)
+        WIRE_TYPE_FIXED32 -> input.skipNBytes(4)
+        else -> throw IOException("Unexpected wire type in WorkResponse: ${tag and 7}")
+      }
+    }
+    return WorkResponse(exitCode, output)
+  }
+
+  fun writeVarint(output: OutputStream, value: Long) {
+    var remaining = value
+    while (remaining and 0x7FL.inv() != 0L) {
+      output.write(((remaining and 0x7F) or 0x80).toInt())
+      remaining = remaining ushr 7
+    }
+    output.write(remaining.toInt())
+  }
+
+  fun readVarint(input: InputStream): Long {
+    var result = 0L
+    var shift = 0
+    while (shift < 64) {
+      val byte = input.read()
+      if (byte == -1) throw EOFException("Java builder worker closed its output")
+      result = result or ((byte and 0x7F).toLong() shl shift)
+      if (byte and 0x80 == 0) return result
+      shift += 7
+    }
+    throw IOException("Malformed varint from Java builder worker")
+  }
+}
@@ -47,7 +47,7 @@ private class HotSwapTask(
 
     val sessions = BazelHotSwapManager.getInstance(project).getCurrentDebugSessions()
     if (sessions.isEmpty()) return
-    val oldManifest = JarFileManifest.build(jars, previousManifest = null)
+    val oldManifest = JarFileManifestCache.getInstance(project).build(jars)
     hotSwapState = HotSwapState(jars, listener, oldManifest, sessions)
   }
 
@@ -66,7 +66,7 @@ private class HotSwapTask(
       hotSwapState.listener?.onFailure(hotSwapState.sessions)
       return
     }
-    val newManifest = JarFileManifest.build(hotSwapState.jars, previousManifest = hotSwapState.oldManifest)
+    val newManifest = JarFileManifestCache.getInstance(project).build(hotSwapState.jars)
     BazelHotSwapManager.getInstance(project).hotswap(
       BazelHotSwapManager.HotSwapEnvironment(
         oldManifest = hotSwapState.oldManifest,
@@ -15,11 +15,22 @@
  */
 package org.jetbrains.bazel.hotswap
 
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
 import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.project.Project
+import com.intellij.util.concurrency.AppExecutorUtil
 import com.intellij.util.containers.MultiMap
+import com.intellij.util.io.ByteBufferUtil
+import org.jetbrains.annotations.VisibleForTesting
 import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
 import java.nio.file.Path
+import java.nio.file.StandardOpenOption
 import java.nio.file.attribute.FileTime
+import java.util.concurrent.Callable
 import java.util.jar.JarFile
 
 /**
@@ -34,23 +45,28 @@ class JarFileManifest private constructor(
 ) {
   data class Diff(val perJarModifiedFiles: MultiMap<Path, String>)
 
-  /** file manifest for a single jar.  */
-  private data class JarManifest(val jar: Path, val nameToHash: Map<String, Long>) {
+  /**
+   * Adds the jars of [previous] which are not part of this manifest,
+   * unless that would make it more than [MAX_RETAINED_FACTOR] times larger.
+   */
+  internal fun retainingJarsOf(previous: JarFileManifest?): JarFileManifest {
+    if (previous == null || previous.jarManifests.size + jarManifests.size > jarManifests.size * MAX_RETAINED_FACTOR) {
+      return this
+    }
+    val jarFileState = previous.jarFileState + jarFileState
+    return JarFileManifest(jarFileState, (previous.jarManifests + jarManifests).filterKeys { it in jarFileState })
+  }
+
+  /**
+   * File manifest for a single jar, [crcs] holds the CRC-32 of the entry at the same index of [names].
+   * Entries are kept in the order of the jar's central directory, which Bazel keeps stable between builds.
+   */
+  @VisibleForTesting
+  internal class JarManifest(val jar: Path, val names: Array<String>, val crcs: IntArray) {
     companion object {
       fun build(file: Path): JarManifest? {
         try {
-          val jar = JarFile(file.toFile())
-          return JarManifest(
-            file,
-            jar
-              .entries()
-              .asSequence()
-              .filter { entry -> !entry.isDirectory }
-              .associateBy(
-                keySelector = { it.name },
-                valueTransform = { it.crc },
-              ),
-          )
+          return readCentralDirectory(file) ?: readWithJarFile(file)
         }
         catch (e: IOException) {
           logger.warn(
@@ -61,16 +77,90 @@ class JarFileManifest private constructor(
         }
       }
 
-      /** Returns the list of files changed in the new manifest. */
-      fun diff(oldManifest: JarManifest?, newManifest: JarManifest): List<String> =
-        newManifest
-          .nameToHash
-          .entries
-          .filter {
-            val oldHash = oldManifest?.nameToHash[it.key]
-            it.value != oldHash
+      /** Fallback for archives the central directory reader does not handle, e.g. zip64 or corrupt ones. */
+      @VisibleForTesting
+      fun readWithJarFile(file: Path): JarManifest =
+        JarFile(file.toFile()).use { jar ->
+          val entries = jar.entries().asSequence().filter { entry -> !entry.isDirectory }.toList()
+          JarManifest(
+            file,
+            Array(entries.size) { entries[it].name },
+            IntArray(entries.size) { entries[it].crc.toInt() },
+          )
+        }
+
+      /**
+       * Reads entry names and CRCs straight from the memory-mapped central directory,
+       * without opening the archive through [JarFile]. Returns null if the archive needs zip64 support
+       * or its central directory is inconsistent, [readWithJarFile] then reports what is wrong with it.
+       */
+      @VisibleForTesting
+      fun readCentralDirectory(file: Path): JarManifest? =
+        FileChannel.open(file, StandardOpenOption.READ).use { channel ->
+          val fileSize = channel.size()
+          if (fileSize < END_RECORD_SIZE) return null
+          val tailSize = minOf(fileSize, (END_RECORD_SIZE + MAX_COMMENT_SIZE).toLong()).toInt()
+          val tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN)
+          while (tail.hasRemaining()) {
+            if (channel.read(tail, fileSize - tailSize + tail.position()) < 0) return null
+          }
+          val endRecord = (tailSize - END_RECORD_SIZE downTo 0).firstOrNull { tail.getInt(it) == END_RECORD_SIGNATURE } ?: return null
+          val entryCount = tail.getShort(endRecord + 10).toInt() and 0xFFFF
+          val directorySize = tail.getInt(endRecord + 12).toLong() and 0xFFFFFFFFL
+          val directoryOffset = tail.getInt(endRecord + 16).toLong() and 0xFFFFFFFFL
+          if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > fileSize) return null
+
+          val directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize).order(ByteOrder.LITTLE_ENDIAN)
+          try {
+            val names = ArrayList<String>(entryCount)
+            val crcs = IntArray(entryCount)
+            var position = 0
+            repeat(entryCount) {
+              if (position + DIRECTORY_HEADER_SIZE > directorySize || directory.getInt(position) != DIRECTORY_HEADER_SIGNATURE) return null
+              val crc = directory.getInt(position + 16)
+              val nameLength = directory.getShort(position + 28).toInt() and 0xFFFF
+              val extraLength = directory.getShort(position + 30).toInt() and 0xFFFF
+              val commentLength = directory.getShort(position + 32).toInt() and 0xFFFF
+              // the lengths come from the file, an entry reaching past the directory means a corrupt archive
+              if (position + DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength > directorySize) return null
+              val name = ByteArray(nameLength)
+              directory.get(position + DIRECTORY_HEADER_SIZE, name)
+              if (nameLength > 0 && name[nameLength - 1] != '/'.code.toByte()) {
+                crcs[names.size] = crc
+                names.add(name.toString(Charsets.UTF_8))
+              }
+              position += DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength
+            }
+            JarManifest(file, names.toTypedArray(), crcs.copyOf(names.size))
           }
-          .map { it.key }
+          finally {
+            ByteBufferUtil.cleanBuffer(directory)
+          }
+        }
+
+      /** Returns the list of files changed in the new manifest. */
+      fun diff(oldManifest: JarManifest?, newManifest: JarManifest): List<String> {
+        if (oldManifest == null) {
+          return newManifest.names.asList()
+        }
+        // a rebuilt jar usually has the same entries in the same order, compare position by position
+        if (oldManifest.names.contentEquals(newManifest.names)) {
+          return newManifest.names.indices
+            .filter { oldManifest.crcs[it] != newManifest.crcs[it] }
+            .map { newManifest.names[it] }
+        }
+        val oldIndex = HashMap<String, Int>(oldManifest.names.size * 2)
+        oldManifest.names.forEachIndexed { index, name -> oldIndex[name] = index }
+        return newManifest.names.indices
+          .filter { index -> oldIndex[newManifest.names[index]]?.let { oldManifest.crcs[it] } != newManifest.crcs[index] }
+          .map { newManifest.names[it] }
+      }
+
+      private const val END_RECORD_SIGNATURE = 0x06054b50
+      private const val END_RECORD_SIZE = 22
+      private const val MAX_COMMENT_SIZE = 0xFFFF
+      private const val DIRECTORY_HEADER_SIGNATURE = 0x02014b50
+      private const val DIRECTORY_HEADER_SIZE = 46
     }
   }
 
@@ -78,13 +168,19 @@ class JarFileManifest private constructor(
     private val logger: Logger =
       Logger.getInstance(JarFileManifest::class.java)
 
+    private const val MAX_RETAINED_FACTOR = 4
+    private const val MAX_PARALLEL_READS = 8
+
+    /** Reads the central directories of rebuilt jars, which is blocking IO, so it doesn't run on the common pool */
+    private val manifestExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Bazel Jar Manifest Reader", MAX_PARALLEL_READS)
+
     /** Returns a per-jar map of files changed in the new manifest  */
     fun diffJarManifests(oldManifest: JarFileManifest?, newManifest: JarFileManifest): Diff {
       val changedFilesMap = MultiMap<Path, String>()
       for (entry in newManifest.jarManifests.entries) {
         // quick test for object equality -- jars are often not rebuilt
         val old = oldManifest?.jarManifests[entry.key]
-        if (old == entry.value) {
+        if (old === entry.value) {
           continue
         }
         val changedFiles =
@@ -113,6 +209,28 @@ class JarFileManifest private constructor(
       return JarFileManifest(diff.newFileState, jarManifests)
     }
 
-    private fun buildJarManifests(jars: Collection<Path>): List<JarManifest> = jars.mapNotNull { jar -> JarManifest.build(jar) }
+    private fun buildJarManifests(jars: Collection<Path>): List<JarManifest> =
+      jars.map { jar -> manifestExecutor.submit(Callable { JarManifest.build(jar) }) }.mapNotNull { it.get() }
+  }
+}
+
+/**
+ * Keeps the manifest of the jars seen by previous HotSwaps in the project,
+ * so that a new debug session only rescans the jars which were rebuilt since.
+ */
+@Service(Service.Level.PROJECT)
+internal class JarFileManifestCache {
+  @Volatile
+  private var lastManifest: JarFileManifest? = null
+
+  fun build(jars: Collection<Path>): JarFileManifest {
+    val previous = lastManifest
+    val manifest = JarFileManifest.build(jars, previousManifest = previous)
+    lastManifest = manifest.retainingJarsOf(previous)
+    return manifest
+  }
+
+  companion object {
+    fun getInstance(project: Project): JarFileManifestCache = project.service()
   }
 }
@@ -45,6 +45,7 @@ import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceTargetKey
 import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceTargetMerger
 import org.jetbrains.bazel.sync.workspace.snapshot.allSources
 import org.jetbrains.bazel.sync.workspace.snapshot.findBuildData
+import org.jetbrains.bazel.utils.FileExistenceCache
 import org.jetbrains.bazel.workspace.indexAdditionalFiles.ProjectViewGlobSet
 import org.jetbrains.bazel.workspacemodel.entities.BazelDummyEntitySource
 import org.jetbrains.bazel.workspacemodel.entities.BazelModuleEntitySource
@@ -86,6 +87,9 @@ class ImportContext(
   val currentCompiledSourceExcludeEntity: CompiledSourceCodeInsideJarExcludeEntity?,
   val progressReporter: RawProgressReporter? = null,
 ) {
+  // the BUILD file lookups of the resource roots of all targets share their directory listings
+  val fileExistenceCache: FileExistenceCache = FileExistenceCache()
+
   // merge aspect-only duplicates so the whole pipeline sees one target per (label, configuration)
   val targets: List<BuildTarget> = WorkspaceTargetMerger(mergeFunctions = jvmTargetMergeFunctions).mergeByTargetKey(targets)
 
@@ -178,7 +182,8 @@ private val TARGET_KEY_COMPARATOR = compareBy<WorkspaceTargetKey> { it.label }
  * they split into) directly into the supplied [MutableEntityStorage].
  *
  * Runs two passes: first resolves every target into a [TargetPlan] (pure, no writes) so the dummy modules know
- * which directories are already covered by real source roots; then writes all entities sequentially.
+ * which directories are already covered by real source roots; then writes the entities in shards, each into its own
+ * storage, which are merged into [MutableEntityStorage] in a fixed order.
  */
 // RC: the spine - replaces `ProjectDetailsToModuleDetailsTransformer` + `TargetIdToModuleEntitiesMap` +
 // `ModuleDetailsToJavaModuleTransformer` + `JavaModuleUpdater` + `ModuleEntityUpdater`, and drops the
@@ -189,6 +194,8 @@ class JvmTargetEntitiesBuilder(private val ctx: ImportContext) {
   private val dummyModuleType = ModuleTypeId(BazelDummyModuleType.ID)
   private val resolverParallelism = Runtime.getRuntime().availableProcessors() * 2
   private val resolverBatchSize = 512
+  private val writerParallelism = Runtime.getRuntime().availableProcessors()
+  private val minWriterShardSize = 1024
 
   suspend fun writeAll(storage: MutableEntityStorage): Unit = coroutineScope {
     val resolvedTargets = AtomicInteger()
@@ -234,20 +241,16 @@ class JvmTargetEntitiesBuilder(private val ctx: ImportContext) {
       .toMutableSet()
     val packageMarkerBuilder = PackageMarkerBuilder(coveredDirs, PackageMarkerBuilder.excludedDirectoriesFrom(storage))
 
-    // phase 2: write entities sequentially.
-    // `writtenNames` preserves the original `distinctBy { it.getModuleName() }` semantics: if two targets
-    // (or dummies) end up with the same module name, the first one wins and the rest are skipped,
+    // phase 2: write entities.
+    // module names are claimed sequentially up front, which preserves the original `distinctBy { it.getModuleName() }`
+    // semantics: if two targets (or dummies) end up with the same module name, the first one wins and the rest are skipped,
     // always write targets with `JvmBuildTarget` present
     ctx.progressReporter?.text(BazelJavaBackendBundle.message("workspace.java.importer.building.model"))
-    val writtenNames = mutableSetOf<String>()
     val comparator = compareBy<Pair<BuildTarget, TargetPlan>, WorkspaceTargetKey>(TARGET_KEY_COMPARATOR) { (target, _) -> target.key }
       .thenByDescending { (target, _) -> extractJvmBuildTarget(target) != null }
       .thenBy { (_, plan) -> plan.moduleName }
-    plans.sortedWith(comparator)
-      .forEachIndexed { index, (target, plan) ->
-        writeOne(target, plan, packageMarkerBuilder, writtenNames, storage)
-        ctx.progressReporter?.fraction((index + 1).toDouble() / plans.size)
-      }
+    val writes = claimModuleNames(plans.sortedWith(comparator))
+    writeEntities(writes, packageMarkerBuilder, storage)
 
     // phase 3: compute excluded sources inside Jars
     if (ctx.excludeCompiledSourceCodeInsideJars) {
@@ -316,6 +319,7 @@ class JvmTargetEntitiesBuilder(private val ctx: ImportContext) {
           bazelProjectName = ctx.projectName,
           workspaceRoot = ctx.projectBasePath,
           sourceContentRoots = mainSourceRoots.map { it.sourcePath },
+          fileExistenceCache = ctx.fileExistenceCache,
         )
         TargetPlan.Full(
           moduleName = moduleName,
@@ -335,20 +339,74 @@ class JvmTargetEntitiesBuilder(private val ctx: ImportContext) {
     }
   }
 
-  private fun writeOne(
-    target: BuildTarget,
-    plan: TargetPlan,
+  private fun claimModuleNames(sortedPlans: List<Pair<BuildTarget, TargetPlan>>): ModuleWrites {
+    val writtenNames = mutableSetOf<String>()
+    val targets = mutableListOf<Pair<BuildTarget, TargetPlan>>()
+    val dummies = mutableListOf<DummyWrite>()
+    for ((target, plan) in sortedPlans) {
+      if (!writtenNames.add(plan.moduleName)) {
+        continue
+      }
+      targets += target to plan
+      // matches old MMM behavior: dummy modules' hardcoded kind always includesKotlin(), so when the kotlin
+      // facet EP is absent (kotlin plugin disabled), `JavaModuleUpdater.addKotlinModuleIfPossible` returned
+      // null and the dummies were silently dropped, preserve that here
+      if (plan is TargetPlan.Full && KotlinFacetEntityUpdater.ep.extensionList.isNotEmpty()) {
+        plan.dummies
+          .filter { writtenNames.add(it.name) }
+          .mapTo(dummies) { DummyWrite(target, it, plan) }
+      }
+    }
+    return ModuleWrites(targets, dummies)
+  }
+
+  /**
+   * Target modules are written in shards of consecutive targets on [Dispatchers.Default], each into a fresh storage.
+   * Dummy modules share the directories visited by [PackageMarkerBuilder], so they are written in order into a shard
+   * of their own. The shards are applied to [storage] in order, dummies last, so the result doesn't depend on timing.
+   */
+  private suspend fun writeEntities(
+    writes: ModuleWrites,
     packageMarkerBuilder: PackageMarkerBuilder,
-    writtenNames: MutableSet<String>,
     storage: MutableEntityStorage,
-  ) {
-    if (!writtenNames.add(plan.moduleName)) {
-      return
+  ): Unit = coroutineScope {
+    val writtenModules = AtomicInteger()
+    val moduleCount = writes.targets.size + writes.dummies.size
+    val reportWritten = { ctx.progressReporter?.fraction(writtenModules.incrementAndGet().toDouble() / moduleCount) }
+
+    fun writeTargets(targets: List<Pair<BuildTarget, TargetPlan>>, shardStorage: MutableEntityStorage) {
+      for ((target, plan) in targets) {
+        when (plan) {
+          is TargetPlan.WithoutSources -> writeWithoutSources(target, plan, shardStorage)
+          is TargetPlan.Full -> writeFull(target, plan, shardStorage)
+        }
+        reportWritten()
+      }
     }
-    when (plan) {
-      is TargetPlan.WithoutSources -> writeWithoutSources(target, plan, storage)
-      is TargetPlan.Full -> writeFull(target, plan, packageMarkerBuilder, writtenNames, storage)
+
+    fun writeDummies(shardStorage: MutableEntityStorage) {
+      for (write in writes.dummies) {
+        writeDummy(write.parentTarget, write.dummy, write.parentPlan, packageMarkerBuilder, shardStorage)
+        reportWritten()
+      }
+    }
+
+    val shardSize = maxOf(minWriterShardSize, (writes.targets.size + writerParallelism - 1) / writerParallelism)
+    if (writes.targets.size <= shardSize) {
+      writeTargets(writes.targets, storage)
+      writeDummies(storage)
+      return@coroutineScope
+    }
+
+    val targetShards = writes.targets.chunked(shardSize).map { targets ->
+      async(Dispatchers.Default) {
+        MutableEntityStorage.create().also { writeTargets(targets, it) }
+      }
     }
+    val dummyShard = async(Dispatchers.Default) {
+      MutableEntityStorage.create().also { writeDummies(it) }
+    }
+    (targetShards + dummyShard).awaitAll().forEach { storage.applyChangesFrom(it) }
   }
 
   private fun writeWithoutSources(target: BuildTarget, plan: TargetPlan.WithoutSources, storage: MutableEntityStorage) {
@@ -367,8 +425,6 @@ class JvmTargetEntitiesBuilder(private val ctx: ImportContext) {
   private fun writeFull(
     target: BuildTarget,
     plan: TargetPlan.Full,
-    packageMarkerBuilder: PackageMarkerBuilder,
-    writtenNames: MutableSet<String>,
     storage: MutableEntityStorage,
   ) {
     val scalaSdkDep = plan.scalaTarget?.takeIf { scalaSdkExtensionExists() }
@@ -407,18 +463,6 @@ class JvmTargetEntitiesBuilder(private val ctx: ImportContext) {
         storage = storage,
       )
     }
-
-    // matches old MMM behavior: dummy modules' hardcoded kind always includesKotlin(), so when the kotlin
-    // facet EP is absent (kotlin plugin disabled), `JavaModuleUpdater.addKotlinModuleIfPossible` returned
-    // null and the dummies were silently dropped, preserve that here
-    if (KotlinFacetEntityUpdater.ep.extensionList.isNotEmpty()) {
-      for (dummy in plan.dummies) {
-        if (!writtenNames.add(dummy.name)) {
-          continue
-        }
-        writeDummy(target, dummy, plan, packageMarkerBuilder, storage)
-      }
-    }
   }
 
   private fun writeDummy(
@@ -573,6 +617,17 @@ class JvmTargetEntitiesBuilder(private val ctx: ImportContext) {
     ctx.jvmResolved[target.key.copy(aspectIds = WorkspaceAspectIds.EMPTY)]?.javaHome?.let { ctx.projectName.projectNameToJdkName(it) }
     ?: ctx.defaultJdkName
 
+  private class ModuleWrites(
+    val targets: List<Pair<BuildTarget, TargetPlan>>,
+    val dummies: List<DummyWrite>,
+  )
+
+  private class DummyWrite(
+    val parentTarget: BuildTarget,
+    val dummy: DummyModuleSplitter.DummyModule,
+    val parentPlan: TargetPlan.Full,
+  )
+
   private sealed interface TargetPlan {
     val moduleName: String
     val resolvedDeps: DependencyBuilder.Resolved
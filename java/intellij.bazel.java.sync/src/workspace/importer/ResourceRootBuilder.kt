@@ -22,13 +22,13 @@ import org.jetbrains.bazel.commons.symlinks.BazelSymlinksCalculator
 import org.jetbrains.bazel.sync.workspace.languages.jvm.extractJvmBuildTarget
 import org.jetbrains.bazel.sync.workspace.languages.jvm.extractKotlinBuildTarget
 import org.jetbrains.bazel.sync.workspace.languages.jvm.extractScalaBuildTarget
+import org.jetbrains.bazel.utils.FileExistenceCache
 import org.jetbrains.bazel.utils.findVirtualFile
 import org.jetbrains.bazel.sync.workspace.snapshot.isTestTarget
 import org.jetbrains.bazel.utils.isUnder
 import org.jetbrains.bsp.protocol.BuildTarget
 import java.nio.file.Path
 import kotlin.io.path.Path as KPath
-import kotlin.io.path.exists
 import kotlin.io.path.isDirectory
 import kotlin.io.path.name
 
@@ -49,6 +49,7 @@ object ResourceRootBuilder {
     bazelProjectName: String,
     workspaceRoot: Path,
     sourceContentRoots: List<Path> = emptyList(),
+    fileExistenceCache: FileExistenceCache = FileExistenceCache(),
   ): List<ResolvedResourceRoot> {
     val rootType = target.inferRootType()
     val stripPrefixes = extractStripPrefixOrNull(target) ?: defaultStripPrefixes(target)
@@ -62,7 +63,7 @@ object ResourceRootBuilder {
     val leftoverPaths = collapseLeftoversByTopology(
       leftovers = result.leftovers,
       alreadyMerged = result.merged,
-      ceilingFor = { parent -> collapseCeiling(parent, target.baseDirectory, workspaceRoot) },
+      ceilingFor = { parent -> collapseCeiling(parent, target.baseDirectory, workspaceRoot, fileExistenceCache) },
       dirtinessCache = dirtinessCache,
     )
     return (result.merged + leftoverPaths).map { path ->
@@ -306,10 +307,15 @@ object ResourceRootBuilder {
   //    in this case treat closest bazel package as collapse celling, generally safe
   // by widening scope of resource file merging we prevent creating single file resource content roots per
   // resource file which with big enough resource file set can cause OOM
-  private fun collapseCeiling(parent: Path, baseDirectory: Path, workspaceRoot: Path): Path? =
-    if (parent.startsWith(baseDirectory)) baseDirectory else findClosestOwningPackage(parent, workspaceRoot)
+  private fun collapseCeiling(
+    parent: Path,
+    baseDirectory: Path,
+    workspaceRoot: Path,
+    fileExistenceCache: FileExistenceCache,
+  ): Path? =
+    if (parent.startsWith(baseDirectory)) baseDirectory else findClosestOwningPackage(parent, workspaceRoot, fileExistenceCache)
 
-  private fun findClosestOwningPackage(path: Path, workspaceRoot: Path): Path? {
+  private fun findClosestOwningPackage(path: Path, workspaceRoot: Path, fileExistenceCache: FileExistenceCache): Path? {
     var next: Path? = path
     while (next != null && next.startsWith(workspaceRoot)) {
       val candidate = next
@@ -319,8 +325,8 @@ object ResourceRootBuilder {
         return null
       }
 
-      // nearest package found
-      if (Constants.BUILD_FILE_NAMES.any { candidate.resolve(it).exists() }) {
+      // nearest package found, all BUILD file names are answered by a single listing of the candidate
+      if (Constants.BUILD_FILE_NAMES.any { fileExistenceCache.exists(candidate.resolve(it)) }) {
         return candidate
       }
 
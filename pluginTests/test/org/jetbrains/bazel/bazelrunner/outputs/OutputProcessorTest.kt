@@ -4,6 +4,8 @@ import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.matchers.shouldBe
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.withTimeout
+import org.jetbrains.bazel.taskEvents.isEmptyTargetSetWarning
+import org.junit.Assume
 import org.junit.Test
 import java.util.concurrent.TimeUnit
 import kotlin.coroutines.cancellation.CancellationException
@@ -64,6 +66,41 @@ class OutputProcessorTest {
     process.isAlive shouldBe false
   }
 
+  @Test
+  fun `output is collected and passed to the handler with line separators preserved`() {
+    Assume.assumeFalse(isWindows)
+    val process = ProcessBuilder("sh", "-c", "printf 'first\\nsecond\\r\\nprogress\\rzażółć\\nlast' 1>&2").start()
+    val handled = mutableListOf<String>()
+    val proc = OutputProcessor(process, handler = { synchronized(handled) { handled.add(it) } })
+
+    runBlocking {
+      withTimeout(1000) {
+        proc.waitForExit(false)
+      }
+    }
+    handled.joinToString("") shouldBe "first\nsecond\r\nprogress\rzażółć\nlast"
+    handled.any { it.endsWith("progress\r") } shouldBe true
+    proc.stderrCollector.lines() shouldBe listOf("first", "second", "progress", "zażółć", "last")
+  }
+
+  @Test
+  fun `lines read together are passed to the handler one by one`() {
+    Assume.assumeFalse(isWindows)
+    val warning = "WARNING: Usage: bazel build <options> <targets>.\n"
+    val error = "ERROR: /workspace/BUILD:1:1: no such target\n"
+    val process = ProcessBuilder("sh", "-c", "printf '$warning$error' 1>&2").start()
+    val handled = mutableListOf<String>()
+    val proc = OutputProcessor(process, handler = { synchronized(handled) { handled.add(it) } })
+
+    runBlocking {
+      withTimeout(1000) {
+        proc.waitForExit(false)
+      }
+    }
+    handled shouldBe listOf(warning, error)
+    handled.filterNot { isEmptyTargetSetWarning(it) } shouldBe listOf(error)
+  }
+
   fun startProcess(windowsCommand: List<String>, unixCommand: List<String>): Process {
     val command =
       when {
@@ -0,0 +1,95 @@
+package org.jetbrains.bazel.fastbuild
+
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+
+class WorkProtocolTest {
+  @Test
+  fun `should round trip single and multi byte varints`() {
+    for (value in listOf(0L, 1L, 127L, 128L, 300L, 1L shl 35, Long.MAX_VALUE, -1L)) {
+      val bytes = varint(value)
+      WorkProtocol.readVarint(bytes.inputStream()) shouldBe value
+    }
+  }
+
+  @Test
+  fun `should encode varints in little endian groups of seven bits`() {
+    varint(1).toList() shouldBe listOf<Byte>(1)
+    varint(300).toList() shouldBe listOf(0xAC.toByte(), 0x02)
+    varint(-1).size shouldBe 10
+  }
+
+  @Test
+  fun `should fail on a truncated varint`() {
+    shouldThrow<EOFException> { WorkProtocol.readVarint(byteArrayOf(0x80.toByte()).inputStream()) }
+  }
+
+  @Test
+  fun `should parse an empty response as a success without output`() {
+    WorkProtocol.parseWorkResponse(ByteArray(0)) shouldBe WorkResponse(exitCode = 0, output = "")
+  }
+
+  @Test
+  fun `should parse the exit code and output and skip other fields`() {
+    // given
+    val output = "Foo.java:1: error: ';' expected".toByteArray()
+    val response =
+      ByteArrayOutputStream().apply {
+        // exit_code = 1
+        write(1 shl 3 or 0)
+        write(1)
+        // output
+        write(2 shl 3 or 2)
+        write(output.size)
+        write(output)
+        // request_id = 300, unknown to the parser
+        write(3 shl 3 or 0)
+        write(varint(300))
+      }
+
+    // then
+    WorkProtocol.parseWorkResponse(response.toByteArray()) shouldBe WorkResponse(exitCode = 1, output = "Foo.java:1: error: ';' expected")
+  }
+
+  @Test
+  fun `should write the arguments as a length delimited request`() {
+    // given
+    val request = ByteArrayOutputStream().also { WorkProtocol.writeWorkRequest(it, listOf("@params0", "@p")) }.toByteArray()
+
+    // then
+    val arguments = byteArrayOf(ARGUMENTS_TAG, 8) + "@params0".toByteArray() + byteArrayOf(ARGUMENTS_TAG, 2) + "@p".toByteArray()
+    request.toList() shouldBe (varint(arguments.size.toLong()) + arguments).toList()
+  }
+
+  @Test
+  fun `should read a length delimited response`() {
+    // given
+    val response = byteArrayOf(EXIT_CODE_TAG, 2, OUTPUT_TAG, 2) + "ok".toByteArray()
+    val input = (varint(response.size.toLong()) + response + byteArrayOf(42)).inputStream()
+
+    // then
+    WorkProtocol.readWorkResponse(input) shouldBe WorkResponse(exitCode = 2, output = "ok")
+    input.read() shouldBe 42
+  }
+
+  @Test
+  fun `should fail on a response cut short by the worker`() {
+    // given
+    val truncated = varint(10) + byteArrayOf(EXIT_CODE_TAG, 1)
+
+    // then
+    shouldThrow<EOFException> { WorkProtocol.readWorkResponse(truncated.inputStream()) }
+  }
+
+  private fun varint(value: Long): ByteArray = ByteArrayOutputStream().also { WorkProtocol.writeVarint(it, value) }.toByteArray()
+
+  private companion object {
+    // field number shl 3 or wire type
+    const val ARGUMENTS_TAG: Byte = 10
+    const val EXIT_CODE_TAG: Byte = 8
+    const val OUTPUT_TAG: Byte = 18
+  }
+}
@@ -0,0 +1,102 @@
+package org.jetbrains.bazel.hotswap
+
+import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.nulls.shouldBeNull
+import io.kotest.matchers.nulls.shouldNotBeNull
+import io.kotest.matchers.shouldBe
+import org.jetbrains.bazel.hotswap.JarFileManifest.JarManifest
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Path
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+import kotlin.io.path.outputStream
+import kotlin.io.path.readBytes
+import kotlin.io.path.writeBytes
+
+class JarFileManifestTest {
+  @TempDir
+  lateinit var tempDir: Path
+
+  @Test
+  fun `should read the same entries as JarFile`() {
+    // given
+    val jar = writeJar("classes.jar", "com/example/Foo.class", "com/example/Foo\$Inner.class", "META-INF/services/Bar")
+
+    // then
+    shouldMatchJarFile(jar)
+  }
+
+  @Test
+  fun `should skip directory entries like JarFile`() {
+    // given
+    val jar = writeJar("classes.jar", "com/", "com/example/", "com/example/Foo.class", "res/", "res/strings.txt")
+
+    // then
+    val manifest = shouldMatchJarFile(jar)
+    manifest.names.toList() shouldContainExactly listOf("com/example/Foo.class", "res/strings.txt")
+  }
+
+  @Test
+  fun `should find the directory of a jar with an archive comment`() {
+    // given
+    val jar = writeJar("classes.jar", "com/example/Foo.class", "com/example/Bar.class", comment = "built by a test ".repeat(100))
+
+    // then
+    shouldMatchJarFile(jar)
+  }
+
+  @Test
+  fun `should leave a jar with an entry reaching past the directory to JarFile`() {
+    // given
+    val jar = writeJar("classes.jar", "com/example/Foo.class", "com/example/Bar.class")
+    val bytes = jar.readBytes()
+    val lastHeader = (bytes.size - 4 downTo 0).first { bytes.intAt(it) == 0x02014b50 }
+    // name length of the last entry
+    bytes[lastHeader + 28] = 0xFF.toByte()
+    bytes[lastHeader + 29] = 0xFF.toByte()
+    jar.writeBytes(bytes)
+
+    // then
+    JarManifest.readCentralDirectory(jar).shouldBeNull()
+  }
+
+  @Test
+  fun `should leave a truncated jar to JarFile`() {
+    // given
+    val jar = writeJar("classes.jar", "com/example/Foo.class")
+    val bytes = jar.readBytes()
+    jar.writeBytes(bytes.copyOf(bytes.size / 2))
+
+    // then
+    JarManifest.readCentralDirectory(jar).shouldBeNull()
+    JarManifest.build(jar).shouldBeNull()
+  }
+
+  private fun shouldMatchJarFile(jar: Path): JarManifest {
+    val manifest = JarManifest.readCentralDirectory(jar).shouldNotBeNull()
+    val expected = JarManifest.readWithJarFile(jar)
+    manifest.names.toList() shouldBe expected.names.toList()
+    manifest.crcs.toList() shouldBe expected.crcs.toList()
+    return manifest
+  }
+
+  private fun writeJar(name: String, vararg entries: String, comment: String? = null): Path {
+    val jar = tempDir.resolve(name)
+    JarOutputStream(jar.outputStream()).use { output ->
+      for (entry in entries) {
+        output.putNextEntry(JarEntry(entry))
+        if (!entry.endsWith("/")) output.write("content of $entry".toByteArray())
+        output.closeEntry()
+      }
+      comment?.let { output.setComment(it) }
+    }
+    return jar
+  }
+
+  private fun ByteArray.intAt(index: Int): Int =
+    (this[index].toInt() and 0xFF) or
+      ((this[index + 1].toInt() and 0xFF) shl 8) or
+      ((this[index + 2].toInt() and 0xFF) shl 16) or
+      ((this[index + 3].toInt() and 0xFF) shl 24)
+}
@@ -0,0 +1,60 @@
+package org.jetbrains.bazel.languages.bazelrc.flags
+
+import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import org.junit.jupiter.api.Test
+
+class FlagTableTest {
+  private val declaredFlags: List<Pair<Flag, Option>> =
+    KnownFlags::class.java.declaredFields.mapNotNull { field ->
+      val option = field.getDeclaredAnnotation(Option::class.java) ?: return@mapNotNull null
+      (field.get(KnownFlags) as Flag) to option
+    }
+
+  @Test
+  fun `generated flag table should match KnownFlags`() {
+    // regenerate with //plugins/bazel/tools/bazelrc_flags:generator if this fails
+    for ((flag, declared) in declaredFlags) {
+      Flag.byName("--${declared.name}") shouldBe flag
+
+      val option = flag.option
+      option.name shouldBe declared.name
+      option.oldName shouldBe declared.oldName
+      option.abbrev shouldBe declared.abbrev
+      option.valueHelp shouldBe declared.valueHelp
+      option.defaultValue shouldBe declared.defaultValue
+      option.allowMultiple shouldBe declared.allowMultiple
+      option.effectTags.toList() shouldBe declared.effectTags.toList()
+      option.metadataTags.toList() shouldBe declared.metadataTags.toList()
+      option.expandsTo.toList() shouldBe declared.expandsTo.toList()
+      option.commands.toList() shouldContainExactlyInAnyOrder declared.commands.toList()
+      flag.help shouldBe declared.help.trimIndent()
+    }
+  }
+
+  @Test
+  fun `should find negated and old flag names`() {
+    val flag = Flag.byName("--action_cache_store_output_metadata")
+    flag shouldNotBe null
+    Flag.byName("--noaction_cache_store_output_metadata") shouldBe flag
+    Flag.byName("--experimental_action_cache_store_output_metadata") shouldBe flag
+    Flag.byName("--noexperimental_action_cache_store_output_metadata") shouldBe flag
+    Flag.byName("--noadb") shouldBe null
+    Flag.byName("--not_a_flag") shouldBe null
+  }
+
+  @Test
+  fun `should check commands of a flag`() {
+    val flag = Flag.byName("--adb")!!
+    flag.isAvailableFor("mobile-install") shouldBe true
+    flag.isAvailableFor("build") shouldBe false
+    flag.isAvailableFor("not_a_command") shouldBe false
+  }
+
+  @Test
+  fun `should contain every flag name`() {
+    Flag.all().size shouldBe Flag.all().keys.toSet().size
+    Flag.all().keys.forEach { Flag.all()[it] shouldBe Flag.byName(it) }
+  }
+}
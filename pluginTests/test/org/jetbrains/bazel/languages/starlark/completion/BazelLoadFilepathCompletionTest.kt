@@ -1,5 +1,6 @@
 package org.jetbrains.bazel.languages.starlark.completion
 
+import com.intellij.openapi.application.WriteAction
 import com.intellij.openapi.command.WriteCommandAction
 import com.intellij.openapi.util.io.toNioPathOrNull
 import com.intellij.platform.backend.workspace.workspaceModel
@@ -8,6 +9,7 @@ import com.intellij.testFramework.builders.ModuleFixtureBuilder
 import com.intellij.testFramework.fixtures.CodeInsightFixtureTestCase
 import com.intellij.testFramework.fixtures.ModuleFixture
 import io.kotest.matchers.collections.shouldContainAll
+import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
 import org.jetbrains.bazel.languages.starlark.references.getCanonicalRepoNameToBzlFiles
 import org.jetbrains.bazel.languages.starlark.repomapping.injectCanonicalRepoNameToApparentName
 import org.jetbrains.bazel.languages.starlark.repomapping.injectCanonicalRepoNameToPath
@@ -42,6 +44,63 @@ class BazelLoadFilepathCompletionTest : CodeInsightFixtureTestCase<ModuleFixture
     lookups shouldContainAll listOf("\"//:defs_one.bzl\"", "\"//:defs_dir/defs_two.bzl\"")
   }
 
+  @Test
+  fun `should pick up bzl files created after the first lookup`() {
+    myFixture.tempDirFixture.createFile("BUILD.bazel", "")
+    myFixture.tempDirFixture.createFile("defs_one.bzl", "")
+
+    val myRootPath = myFixture.tempDirFixture.tempDirPath.toNioPathOrNull()!!
+    project.injectCanonicalRepoNameToPath(mapOf("" to myRootPath))
+    getCanonicalRepoNameToBzlFiles(project).values.flatten().map { it.toString() } shouldContainAll listOf("@//:defs_one.bzl")
+
+    myFixture.tempDirFixture.createFile("defs_dir/defs_two.bzl", "")
+
+    getCanonicalRepoNameToBzlFiles(project).values.flatten().map { it.toString() } shouldContainAll
+      listOf("@//:defs_one.bzl", "@//:defs_dir/defs_two.bzl")
+  }
+
+  @Test
+  fun `should pick up a bzl file created in an existing package`() {
+    myFixture.tempDirFixture.createFile("BUILD.bazel", "")
+    myFixture.tempDirFixture.createFile("defs_one.bzl", "")
+    project.injectCanonicalRepoNameToPath(mapOf("" to myFixture.tempDirFixture.tempDirPath.toNioPathOrNull()!!))
+    bzlFileLabels() shouldContainExactlyInAnyOrder listOf("@//:defs_one.bzl")
+
+    myFixture.tempDirFixture.createFile("defs_two.bzl", "")
+
+    bzlFileLabels() shouldContainExactlyInAnyOrder listOf("@//:defs_one.bzl", "@//:defs_two.bzl")
+  }
+
+  @Test
+  fun `should follow a bzl file renamed to another extension and back`() {
+    myFixture.tempDirFixture.createFile("BUILD.bazel", "")
+    myFixture.tempDirFixture.createFile("defs_one.bzl", "")
+    val file = myFixture.tempDirFixture.createFile("defs.bzl", "")
+    project.injectCanonicalRepoNameToPath(mapOf("" to myFixture.tempDirFixture.tempDirPath.toNioPathOrNull()!!))
+    bzlFileLabels() shouldContainExactlyInAnyOrder listOf("@//:defs_one.bzl", "@//:defs.bzl")
+
+    WriteAction.runAndWait<Throwable> { file.rename(this, "defs.txt") }
+    bzlFileLabels() shouldContainExactlyInAnyOrder listOf("@//:defs_one.bzl")
+
+    WriteAction.runAndWait<Throwable> { file.rename(this, "defs.bzl") }
+    bzlFileLabels() shouldContainExactlyInAnyOrder listOf("@//:defs_one.bzl", "@//:defs.bzl")
+  }
+
+  @Test
+  fun `should drop a deleted bzl file`() {
+    myFixture.tempDirFixture.createFile("BUILD.bazel", "")
+    myFixture.tempDirFixture.createFile("defs_one.bzl", "")
+    val file = myFixture.tempDirFixture.createFile("defs.bzl", "")
+    project.injectCanonicalRepoNameToPath(mapOf("" to myFixture.tempDirFixture.tempDirPath.toNioPathOrNull()!!))
+    bzlFileLabels() shouldContainExactlyInAnyOrder listOf("@//:defs_one.bzl", "@//:defs.bzl")
+
+    WriteAction.runAndWait<Throwable> { file.delete(this) }
+
+    bzlFileLabels() shouldContainExactlyInAnyOrder listOf("@//:defs_one.bzl")
+  }
+
+  private fun bzlFileLabels(): List<String> = getCanonicalRepoNameToBzlFiles(project).values.flatten().map { it.toString() }
+
   @get:Rule
   val tempFolder = TemporaryFolder()
 
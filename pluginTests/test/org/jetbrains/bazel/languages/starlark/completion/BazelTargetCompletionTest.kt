@@ -1,8 +1,10 @@
 package org.jetbrains.bazel.languages.starlark.completion
 
+import com.intellij.openapi.util.registry.Registry
 import com.intellij.testFramework.fixtures.BasePlatformTestCase
 import io.kotest.matchers.collections.shouldBeEmpty
 import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
+import io.kotest.matchers.shouldBe
 import org.jetbrains.bazel.commons.RuleType
 import org.jetbrains.bazel.commons.TargetKind
 import org.jetbrains.bazel.label.Label
@@ -106,4 +108,40 @@ class BazelTargetCompletionTest : BasePlatformTestCase() {
     lookups2 shouldContainExactlyInAnyOrder listOf("\"//abcd1234\"", "\"//abcd1239\"")
     lookups3 shouldContainExactlyInAnyOrder listOf("\"//abcd1234\"")
   }
+
+  @Test
+  fun `should offer at most the variant limit of targets`() {
+    Registry.get("ide.completion.variant.limit").setValue(2, testRootDisposable)
+    setTargets(listOf("//lib:alpha", "//lib:beta", "//lib:gamma", "//app:main", "//app:util"))
+
+    myFixture.configureByText(
+      "BUILD",
+      """
+      load("@rules_kotlin//kotlin:jvm.bzl", "kt_jvm_library")
+      kt_jvm_library(deps = [<caret>],)
+      """.trimMargin(),
+    )
+    myFixture.type("\"")
+    val lookups = myFixture.completeBasic().flatMap { it.allLookupStrings }
+
+    lookups.size shouldBe 2
+  }
+
+  @Test
+  fun `should find targets beyond the variant limit by the typed prefix`() {
+    Registry.get("ide.completion.variant.limit").setValue(2, testRootDisposable)
+    setTargets(listOf("//lib:alpha", "//lib:beta", "//lib:gamma", "//app:main", "//app:util"))
+
+    myFixture.configureByText(
+      "BUILD",
+      """
+      load("@rules_kotlin//kotlin:jvm.bzl", "kt_jvm_library")
+      kt_jvm_library(deps = [<caret>],)
+      """.trimMargin(),
+    )
+    myFixture.type("\"//app")
+    val lookups = myFixture.completeBasic().flatMap { it.allLookupStrings }
+
+    lookups shouldContainExactlyInAnyOrder listOf("\"//app:main\"", "\"//app:util\"")
+  }
 }
@@ -0,0 +1,61 @@
+package org.jetbrains.bazel.languages.starlark.index
+
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.collections.shouldContainExactly
+import org.junit.jupiter.api.Test
+
+class StarlarkLoadScannerTest {
+  private fun scan(text: String): List<Pair<String, List<String>>> {
+    val loads = mutableListOf<Pair<String, List<String>>>()
+    StarlarkLoadScanner.scan(text) { fileName, symbols -> loads.add(fileName to symbols) }
+    return loads
+  }
+
+  @Test
+  fun `should report loaded file and original symbol names`() {
+    scan("""load(":foo.bzl", "bar", alias = "original", 'baz')""") shouldContainExactly
+      listOf(":foo.bzl" to listOf("bar", "original", "baz"))
+  }
+
+  @Test
+  fun `should handle multi-line loads with comments and trailing comma`() {
+    val text =
+      """
+      |# header
+      |load(
+      |    "@rules_java//java:defs.bzl",  # rules
+      |    "java_library",
+      |    jb = "java_binary",
+      |)
+      |
+      |java_library(name = "lib")
+      |load("//:other.bzl")
+      """.trimMargin()
+
+    scan(text) shouldContainExactly
+      listOf(
+        "@rules_java//java:defs.bzl" to listOf("java_library", "java_binary"),
+        "//:other.bzl" to emptyList(),
+      )
+  }
+
+  @Test
+  fun `should ignore loads which are not top-level statements`() {
+    val text =
+      """
+      |def macro():
+      |    load(":nested.bzl", "x")
+      |foo(load = 1)
+      |call(
+      |load(":in_call.bzl", "y"))
+      """.trimMargin()
+
+    scan(text).shouldBeEmpty()
+  }
+
+  @Test
+  fun `should skip values the parser does not accept`() {
+    scan("""load(":foo.bzl", name, 1, alias = other, "ok")""") shouldContainExactly listOf(":foo.bzl" to listOf("ok"))
+    scan("""load(name, "x")""").shouldBeEmpty()
+  }
+}
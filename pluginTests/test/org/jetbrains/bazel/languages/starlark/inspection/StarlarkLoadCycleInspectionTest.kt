@@ -341,6 +341,58 @@ class StarlarkLoadCycleInspectionTest : BasePlatformTestCase() {
     myFixture.checkHighlighting(true, false, false)
   }
 
+  @Test
+  fun `load cycle closed through an existing chain should be highlighted`() {
+    myFixture.addFileToProject("MODULE.bazel", "")
+    myFixture.addFileToProject("BUILD", "")
+
+    myFixture.addFileToProject(
+      "chain_B.bzl",
+      """
+      load("//:chain_C.bzl", "c")
+      b = 1
+      """.trimIndent(),
+    )
+    val c = myFixture.addFileToProject(
+      "chain_C.bzl",
+      """
+      c = 1
+      """.trimIndent(),
+    )
+
+    myFixture.configureByText(
+      "chain_A.bzl",
+      """
+      load("//:chain_B.bzl", "b")
+      a = 1
+      """.trimIndent(),
+    )
+
+    waitUntilIndexesAreReady()
+
+    myFixture.checkHighlighting(true, false, false)
+
+    myFixture.saveText(
+      c.virtualFile,
+      """
+      load("//:chain_A.bzl", "a")
+      c = 1
+      """.trimIndent(),
+    )
+
+    myFixture.configureByText(
+      "chain_A.bzl",
+      """
+      load(<error descr="$description">"//:chain_B.bzl"</error>, "b")
+      a = 1
+      """.trimIndent(),
+    )
+
+    waitUntilIndexesAreReady()
+
+    myFixture.checkHighlighting(true, false, false)
+  }
+
   private fun waitUntilIndexesAreReady() {
     PsiDocumentManager.getInstance(project).commitAllDocuments()
     FileDocumentManager.getInstance().saveAllDocuments()
@@ -1,5 +1,6 @@
 package org.jetbrains.bazel.server.bep
 
+import io.kotest.matchers.collections.shouldBeEmpty
 import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
 import io.kotest.matchers.nulls.shouldNotBeNull
 import io.kotest.matchers.shouldBe
@@ -20,6 +21,7 @@ import org.jetbrains.bsp.protocol.TestStatus
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.io.TempDir
 import java.nio.file.Path
+import kotlin.io.path.listDirectoryEntries
 import kotlin.io.path.writeText
 
 class TestXmlParserTest {
@@ -1124,6 +1126,88 @@ WARNING: Delegated to the 'execute' command.
     client.taskStartCalls.size shouldBe 2
   }
 
+  @Test
+  fun `huge test output should be truncated`(
+    @TempDir tempDir: Path,
+  ) {
+    val hugeOutput = "at com.example.Test.frame\n".repeat(100_000)
+    val sampleContents =
+      """
+      <?xml version='1.0' encoding='UTF-8'?>
+      <testsuites>
+        <testsuite name='//src:huge_test' timestamp='2026-01-15T10:00:00Z' hostname='localhost' tests='2' failures='1' errors='0' time='0.5' package='' id='0'>
+          <testcase name='testFailing' classname='HugeTest' time='0.4'><failure message='failed' type='java.lang.AssertionError'><![CDATA[$hugeOutput]]></failure></testcase>
+          <testcase name='testPassing' classname='HugeTest' time='0.1' />
+        </testsuite>
+      </testsuites>
+      """.trimIndent()
+
+    val client = MockBuildTaskEventsHandler()
+    val notifier = BspClientTestNotifier(client)
+
+    val reported = TestXmlParser(notifier).parseAndReport(TaskGroupId.EMPTY.task(""), writeTempFile(tempDir, sampleContents))
+
+    reported shouldBe 1
+    val finishes = client.taskFinishCalls.map { it.data as TestFinish }
+    finishes.map { it.displayName } shouldContainExactlyInAnyOrder listOf("//src:huge_test", "testFailing", "testPassing")
+    val failing = finishes.single { it.displayName == "testFailing" }
+    failing.status shouldBe TestStatus.FAILED
+    val output = (failing.data as JUnitStyleTestCaseData).output.shouldNotBeNull()
+    (output.length < hugeOutput.length) shouldBe true
+    output shouldContain "output truncated"
+  }
+
+  @Test
+  fun `spilled test output should be deleted once the file is parsed`(
+    @TempDir tempDir: Path,
+    @TempDir spillDir: Path,
+  ) {
+    val hugeOutput = "at com.example.Test.frame\n".repeat(100_000)
+    val sampleContents =
+      """
+      <?xml version='1.0' encoding='UTF-8'?>
+      <testsuites>
+        <testsuite name='//src:huge_test' timestamp='2026-01-15T10:00:00Z' hostname='localhost' tests='1' failures='1' errors='0' time='0.5' package='' id='0'>
+          <testcase name='testFailing' classname='HugeTest' time='0.4'><failure message='failed' type='java.lang.AssertionError'><![CDATA[$hugeOutput]]></failure></testcase>
+          <system-out><![CDATA[$hugeOutput]]></system-out>
+        </testsuite>
+      </testsuites>
+      """.trimIndent()
+
+    val client = MockBuildTaskEventsHandler()
+    val notifier = BspClientTestNotifier(client)
+
+    val reported = TestXmlParser(notifier, spillDir).parseAndReport(TaskGroupId.EMPTY.task(""), writeTempFile(tempDir, sampleContents))
+
+    reported shouldBe 1
+    spillDir.listDirectoryEntries().shouldBeEmpty()
+  }
+
+  @Test
+  fun `suite cut off after a reported testcase is counted`(
+    @TempDir tempDir: Path,
+  ) {
+    // The test process was killed while writing the file. The test case read before the end is reported,
+    // so the suite is finished and counted and the caller doesn't add a target-level result on top of it.
+    val sampleContents =
+      """
+      <?xml version='1.0' encoding='UTF-8'?>
+      <testsuites>
+        <testsuite name='//src:killed_test' timestamp='2026-01-15T10:00:00Z' hostname='localhost' tests='2' failures='0' errors='0' time='0.5' package='' id='0'>
+          <testcase name='testFirst' classname='KilledTest' time='0.1' />
+          <testcase name='testSecond' classname='KilledTest'
+      """.trimIndent()
+
+    val client = MockBuildTaskEventsHandler()
+    val notifier = BspClientTestNotifier(client)
+
+    val reported = TestXmlParser(notifier).parseAndReport(TaskGroupId.EMPTY.task(""), writeTempFile(tempDir, sampleContents))
+
+    reported shouldBe 1
+    val finishes = client.taskFinishCalls.map { it.data as TestFinish }
+    finishes.map { it.displayName } shouldContainExactlyInAnyOrder listOf("//src:killed_test", "testFirst")
+  }
+
   private fun writeTempFile(tempDir: Path, contents: String): Path {
     val tempFile = tempDir.resolve("tempFile.xml")
     tempFile.writeText(contents)
@@ -1192,6 +1192,39 @@ class DiagnosticsServiceTest {
     diagnostics shouldContainExactlyInAnyOrder expected
   }
 
+  @Test
+  @EnabledOnOs(OS.WINDOWS)
+  fun `should extract diagnostics for source file with Windows drive letter in path`() {
+    // given
+    val output =
+      """
+      |INFO: Found 1 target...
+      |C:/workspace/path/to/package/Test.java:5:3: error: cannot find symbol
+      |  symbol:   class Foo
+      |  location: class Test
+      """.trimMargin()
+
+    // when
+    val diagnostics = extractDiagnostics(output, Label.parse("//path/to/package:test"))
+
+    // then
+    val expected =
+      listOf(
+        publishDiagnosticsParams(
+          TextDocumentIdentifier(Path("C:/workspace/path/to/package/Test.java")),
+          Label.parse("@//path/to/package:test"),
+          errorDiagnostic(
+            Position.fromHumanReadable(5, 3),
+            """cannot find symbol
+              |  symbol:   class Foo
+              |  location: class Test
+            """.trimMargin(),
+          ),
+        ),
+      )
+    diagnostics shouldContainExactlyInAnyOrder expected
+  }
+
   private fun publishDiagnosticsParams(
     textDocument: TextDocumentIdentifier?,
     buildTarget: Label,
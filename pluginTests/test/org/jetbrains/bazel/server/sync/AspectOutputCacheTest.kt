@@ -0,0 +1,92 @@
+package org.jetbrains.bazel.server.sync
+
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.TargetIdeInfo
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.TargetKey
+import io.kotest.matchers.nulls.shouldBeNull
+import io.kotest.matchers.shouldBe
+import org.h2.mvstore.MVStore
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import kotlin.io.path.Path
+
+class AspectOutputCacheTest {
+  private val store = MVStore.Builder().open()
+  private val cache = AspectOutputCache { store }
+  private val rawEntries = store.openMap<String, ByteArray>("targetInfos")
+
+  private val file = Path("/execroot/bazel-out/k8-fastbuild/bin/foo/foo-12345.intellij-info.txt")
+  private val stamp = AspectOutputStamp(size = 120, lastModifiedMillis = 1_700_000_000_000)
+  private val target = TargetIdeInfo.newBuilder().setKey(TargetKey.newBuilder().setLabel("//foo:foo")).setKind("java_library").build()
+
+  @AfterEach
+  fun tearDown() {
+    cache.dispose()
+  }
+
+  @Test
+  fun `should return the stored target for the same stamp`() {
+    // given
+    cache.put(file, stamp, target)
+
+    // then
+    cache.get(file, stamp) shouldBe target
+    cache.get(Path("/execroot/other.intellij-info.txt"), stamp).shouldBeNull()
+  }
+
+  @Test
+  fun `should miss when the file was rewritten`() {
+    // given
+    cache.put(file, stamp, target)
+
+    // then
+    cache.get(file, stamp.copy(lastModifiedMillis = stamp.lastModifiedMillis + 1)).shouldBeNull()
+    cache.get(file, stamp.copy(size = stamp.size + 1)).shouldBeNull()
+    rawEntries.containsKey(file.toString()) shouldBe true
+  }
+
+  @Test
+  fun `should drop an entry too short to hold a stamp`() {
+    // given
+    rawEntries[file.toString()] = ByteArray(Long.SIZE_BYTES + 3)
+
+    // then
+    cache.get(file, stamp).shouldBeNull()
+    rawEntries.containsKey(file.toString()) shouldBe false
+  }
+
+  @Test
+  fun `should drop an entry with an unreadable target`() {
+    // given
+    val garbage = byteArrayOf(0x0A, 0x7F, 0x01)
+    rawEntries[file.toString()] =
+      ByteBuffer.allocate(2 * Long.SIZE_BYTES + garbage.size)
+        .putLong(stamp.size)
+        .putLong(stamp.lastModifiedMillis)
+        .put(garbage)
+        .array()
+
+    // then
+    cache.get(file, stamp).shouldBeNull()
+    rawEntries.containsKey(file.toString()) shouldBe false
+  }
+
+  @Test
+  fun `should keep stale entries until they outnumber the live ones`() {
+    // given
+    val otherFiles = (1..3).map { Path("/execroot/bazel-out/k8-fastbuild/bin/lib$it.intellij-info.txt") }
+    (otherFiles + file).forEach { cache.put(it, stamp, target) }
+
+    // when
+    cache.commit(setOf(file, otherFiles[0]))
+
+    // then
+    rawEntries.size shouldBe 4
+
+    // when
+    cache.commit(setOf(file))
+
+    // then
+    rawEntries.keys shouldBe setOf(file.toString())
+  }
+}
@@ -0,0 +1,60 @@
+package org.jetbrains.bazel.server.sync
+
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.TargetIdeInfo
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.TargetKey
+import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
+import io.kotest.matchers.shouldBe
+import kotlinx.coroutines.runBlocking
+import org.jetbrains.bazel.label.Label
+import org.jetbrains.bazel.sync.workspace.snapshot.WorkspaceTargetKey
+import org.junit.jupiter.api.Test
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlin.io.path.Path
+import kotlin.io.path.nameWithoutExtension
+
+class ShardAspectOutputReaderTest {
+  private fun infoFile(target: String): Path = Path("/execroot/bazel-out/bin/$target.intellij-info.txt")
+
+  private fun targetOf(file: Path): Pair<WorkspaceTargetKey, TargetIdeInfo> {
+    val label = "//:${file.nameWithoutExtension.removeSuffix(".intellij-info")}"
+    return WorkspaceTargetKey(label = Label.parse(label)) to
+      TargetIdeInfo.newBuilder().setKey(TargetKey.newBuilder().setLabel(label)).build()
+  }
+
+  @Test
+  fun `should parse info files shared by several shards once and merge all shards`() {
+    // given
+    val parsedFiles = ConcurrentLinkedQueue<Path>()
+
+    // when
+    val targets =
+      runBlocking {
+        val reader =
+          ShardAspectOutputReader(this) { files ->
+            parsedFiles.addAll(files)
+            files.associate { targetOf(it) }
+          }
+        reader.submit { setOf(infoFile("app"), infoFile("guava"), infoFile("util")) }
+        reader.submit { setOf(infoFile("server"), infoFile("guava"), infoFile("util")) }
+        reader.submit { setOf(infoFile("guava")) }
+        reader.awaitTargets()
+      }
+
+    // then
+    parsedFiles shouldContainExactlyInAnyOrder listOf("app", "guava", "util", "server").map { infoFile(it) }
+    targets.keys shouldBe setOf("//:app", "//:guava", "//:util", "//:server").mapTo(HashSet()) { WorkspaceTargetKey(label = Label.parse(it)) }
+  }
+
+  @Test
+  fun `should have no shards until one is submitted`() {
+    runBlocking {
+      val reader = ShardAspectOutputReader(this) { emptyMap() }
+      reader.hasShards shouldBe false
+
+      reader.submit { emptySet() }
+      reader.hasShards shouldBe true
+      reader.awaitTargets() shouldBe emptyMap()
+    }
+  }
+}
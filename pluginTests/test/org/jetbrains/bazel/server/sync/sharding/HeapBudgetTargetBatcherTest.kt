@@ -0,0 +1,54 @@
+package org.jetbrains.bazel.server.sync.sharding
+
+import io.kotest.matchers.shouldBe
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap
+import org.jetbrains.bazel.label.Label
+import org.junit.jupiter.api.Test
+
+class HeapBudgetTargetBatcherTest {
+  private fun estimator(vararg dependencyCounts: Pair<String, Int>): ShardCostEstimator =
+    ShardCostEstimator(
+      Object2IntOpenHashMap<Label>().apply { dependencyCounts.forEach { (label, count) -> put(Label.parse(label), count) } },
+      0,
+    )
+
+  private fun labels(vararg labels: String): Set<Label> = labels.mapTo(LinkedHashSet()) { Label.parse(it) }
+
+  @Test
+  fun `should cut shards at the cost budget`() {
+    // each target costs 1 unit, each package PACKAGE_COST units
+    val batcher = HeapBudgetTargetBatcher(estimator(), costBudget = PACKAGE_COST + 2)
+
+    val batches = batcher.calculateTargetBatches(labels("//a:c", "//a:b", "//a:a"), emptySet(), MAX_TARGET_SHARD_SIZE)
+
+    batches shouldBe listOf(labels("//a:a", "//a:b").toList(), labels("//a:c").toList())
+  }
+
+  @Test
+  fun `should give expensive targets their own shard`() {
+    val batcher = HeapBudgetTargetBatcher(estimator("//a:heavy" to 100), costBudget = 50)
+
+    val batches = batcher.calculateTargetBatches(labels("//a:a", "//a:heavy", "//a:z"), emptySet(), MAX_TARGET_SHARD_SIZE)
+
+    batches shouldBe listOf(labels("//a:a").toList(), labels("//a:heavy").toList(), labels("//a:z").toList())
+  }
+
+  @Test
+  fun `should charge every package once per shard`() {
+    val batcher = HeapBudgetTargetBatcher(estimator(), costBudget = 2 * PACKAGE_COST + 2)
+
+    val batches = batcher.calculateTargetBatches(labels("//a:a", "//b:b", "//c:c"), emptySet(), MAX_TARGET_SHARD_SIZE)
+
+    batches shouldBe listOf(labels("//a:a", "//b:b").toList(), labels("//c:c").toList())
+  }
+
+  @Test
+  fun `should respect the maximal shard size and append excludes`() {
+    val batcher = HeapBudgetTargetBatcher(estimator(), costBudget = Long.MAX_VALUE)
+    val excludes = labels("//a:excluded")
+
+    val batches = batcher.calculateTargetBatches(labels("//a:a", "//a:b", "//a:c"), excludes, 2)
+
+    batches shouldBe listOf(labels("//a:a", "//a:b").toList() + excludes, labels("//a:c").toList() + excludes)
+  }
+}
@@ -0,0 +1,73 @@
+package org.jetbrains.bazel.server.sync.sharding
+
+import io.kotest.matchers.nulls.shouldBeNull
+import io.kotest.matchers.nulls.shouldNotBeNull
+import io.kotest.matchers.shouldBe
+import org.h2.mvstore.MVStore
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import kotlin.io.path.Path
+
+class PackageListCacheTest {
+  private val store = MVStore.Builder().open()
+  private val cache = PackageListCache { store }
+
+  private val directory = Path("/workspace/lib")
+
+  @AfterEach
+  fun tearDown() {
+    cache.dispose()
+  }
+
+  @Test
+  fun `should return the stored listing for the same modification time`() {
+    // given
+    cache.put(directory, 1_000, DirectoryListing(hasBuildFile = true, subdirectories = listOf("src", "test")))
+
+    // then
+    val listing = cache.get(directory, 1_000).shouldNotBeNull()
+    listing.hasBuildFile shouldBe true
+    listing.subdirectories shouldBe listOf("src", "test")
+  }
+
+  @Test
+  fun `should keep a listing without subdirectories`() {
+    // given
+    cache.put(directory, 1_000, DirectoryListing(hasBuildFile = false, subdirectories = emptyList()))
+
+    // then
+    val listing = cache.get(directory, 1_000).shouldNotBeNull()
+    listing.hasBuildFile shouldBe false
+    listing.subdirectories shouldBe emptyList()
+  }
+
+  @Test
+  fun `should miss when the directory was modified`() {
+    // given
+    cache.put(directory, 1_000, DirectoryListing(hasBuildFile = true, subdirectories = listOf("src")))
+
+    // then
+    cache.get(directory, 2_000).shouldBeNull()
+    cache.get(Path("/workspace/other"), 1_000).shouldBeNull()
+  }
+
+  @Test
+  fun `should drop listings of unvisited directories once they outnumber the visited ones`() {
+    // given
+    val directories = (1..4).map { Path("/workspace/dir$it") }
+    directories.forEach { cache.put(it, 1_000, DirectoryListing(hasBuildFile = true, subdirectories = emptyList())) }
+
+    // when
+    cache.commit(directories.take(2).toSet())
+
+    // then
+    directories.forEach { cache.get(it, 1_000).shouldNotBeNull() }
+
+    // when
+    cache.commit(setOf(directories[0]))
+
+    // then
+    cache.get(directories[0], 1_000).shouldNotBeNull()
+    directories.drop(1).forEach { cache.get(it, 1_000).shouldBeNull() }
+  }
+}
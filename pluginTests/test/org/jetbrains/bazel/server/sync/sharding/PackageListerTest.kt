@@ -0,0 +1,98 @@
+package org.jetbrains.bazel.server.sync.sharding
+
+import com.intellij.testFramework.junit5.TestApplication
+import io.kotest.matchers.shouldBe
+import kotlinx.coroutines.runBlocking
+import org.h2.mvstore.MVStore
+import org.jetbrains.bazel.commons.BazelInfo
+import org.jetbrains.bazel.commons.BazelPathsResolver
+import org.jetbrains.bazel.commons.BazelRelease
+import org.jetbrains.bazel.label.Label
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import kotlin.io.path.Path
+import kotlin.io.path.createDirectories
+import kotlin.io.path.createFile
+
+@TestApplication
+class PackageListerTest {
+  @TempDir
+  lateinit var workspaceRoot: Path
+
+  private val pathResolver by lazy {
+    BazelPathsResolver(
+      BazelInfo(
+        execRoot = Path("execRoot"),
+        outputBase = Path("outputBase"),
+        workspaceRoot = workspaceRoot,
+        bazelBin = Path("bazel-bin"),
+        release = BazelRelease(8),
+        isBzlModEnabled = true,
+        isWorkspaceEnabled = false,
+        externalAutoloads = emptyList(),
+      ),
+    )
+  }
+
+  private fun file(relativePath: String): Path =
+    workspaceRoot.resolve(relativePath).also { it.parent.createDirectories() }.createFile()
+
+  private fun labels(vararg labels: String): List<Label> = labels.map { Label.parse(it) }
+
+  private fun expand(pattern: String, cache: PackageListCache? = null): List<Label>? =
+    runBlocking { PackageLister.expandPackageTargets(pathResolver, labels(pattern), cache) }[Label.parse(pattern)]
+
+  @Test
+  fun `should find nested packages in sorted order`() {
+    // given
+    file("MODULE.bazel")
+    file("BUILD")
+    file("b/BUILD.bazel")
+    file("a/BUILD")
+    file("a/src/Foo.java")
+    file("a/src/deep/nested/BUILD")
+    file("c/BUILD/Foo.java")
+    workspaceRoot.resolve("empty").createDirectories()
+
+    // then
+    expand("//...") shouldBe labels("//:all", "//a:all", "//a/src/deep/nested:all", "//b:all")
+    expand("//a/...") shouldBe labels("//a:all", "//a/src/deep/nested:all")
+  }
+
+  @Test
+  fun `should skip the bazelbsp directory`() {
+    // given
+    file("BUILD")
+    file(".bazelbsp/BUILD")
+    file("a/.bazelbsp/BUILD")
+
+    // then
+    expand("//...") shouldBe labels("//:all", "//a/.bazelbsp:all")
+  }
+
+  @Test
+  fun `should use cached listings until the directory changes`() {
+    // given
+    file("BUILD")
+    val directory = workspaceRoot.resolve("lib").createDirectories()
+    val lastModified = FileTime.fromMillis(1_700_000_000_000)
+    Files.setLastModifiedTime(directory, lastModified)
+    MVStore.Builder().open().use { store ->
+      val cache = PackageListCache { store }
+      // a stale listing which still claims a BUILD file
+      cache.put(directory, lastModified.toMillis(), DirectoryListing(hasBuildFile = true, subdirectories = emptyList()))
+
+      // then
+      expand("//...", cache) shouldBe labels("//:all", "//lib:all")
+
+      // when
+      Files.setLastModifiedTime(directory, FileTime.fromMillis(lastModified.toMillis() + 1_000))
+
+      // then
+      expand("//...", cache) shouldBe labels("//:all")
+    }
+  }
+}
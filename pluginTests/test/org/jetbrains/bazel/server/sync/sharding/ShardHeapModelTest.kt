@@ -0,0 +1,75 @@
+package org.jetbrains.bazel.server.sync.sharding
+
+import io.kotest.matchers.doubles.plusOrMinus
+import io.kotest.matchers.longs.shouldBeInRange
+import io.kotest.matchers.nulls.shouldBeNull
+import io.kotest.matchers.nulls.shouldNotBeNull
+import io.kotest.matchers.shouldBe
+import org.junit.jupiter.api.Test
+
+class ShardHeapModelTest {
+  private val mb = 1024L * 1024
+
+  @Test
+  fun `should have no budget before any shard was observed`() {
+    ShardHeapModel().costBudget(1024 * mb).shouldBeNull()
+  }
+
+  @Test
+  fun `should separate the base heap from the heap per cost unit`() {
+    // given
+    val model = ShardHeapModel()
+
+    // when
+    for (cost in listOf(1_000L, 4_000L, 2_000L, 8_000L, 3_000L)) {
+      model.recordShard(cost, 500 * mb + cost * mb / 10)
+    }
+
+    // then
+    val (base, perUnit) = model.fit().shouldNotBeNull()
+    base shouldBe ((500 * mb).toDouble() plusOrMinus mb.toDouble())
+    perUnit shouldBe ((mb / 10).toDouble() plusOrMinus 1_000.0)
+    model.costBudget(1500 * mb).shouldNotBeNull() shouldBeInRange 9_900L..10_100L
+  }
+
+  @Test
+  fun `should charge everything to the cost units for shards of the same cost`() {
+    // given
+    val model = ShardHeapModel()
+
+    // when
+    repeat(3) { model.recordShard(1_000, 1000 * mb) }
+
+    // then
+    model.fit() shouldBe (0.0 to mb.toDouble())
+    model.costBudget(2000 * mb) shouldBe 2_000L
+  }
+
+  @Test
+  fun `should allow a single target when the budget does not cover the base heap`() {
+    // given
+    val model = ShardHeapModel()
+    for (cost in listOf(1_000L, 5_000L, 9_000L)) {
+      model.recordShard(cost, 800 * mb + cost * mb / 100)
+    }
+
+    // then
+    model.costBudget(500 * mb) shouldBe 1L
+  }
+
+  @Test
+  fun `should keep the fit through persisting the state`() {
+    // given
+    val model = ShardHeapModel()
+    for (cost in listOf(1_000L, 4_000L, 2_000L)) {
+      model.recordShard(cost, 300 * mb + cost * mb / 20)
+    }
+
+    // when
+    val restored = ShardHeapModel().apply { loadState(model.state) }
+
+    // then
+    val budget = model.costBudget(1000 * mb).shouldNotBeNull()
+    restored.costBudget(1000 * mb).shouldNotBeNull() shouldBeInRange budget - 50..budget + 50
+  }
+}
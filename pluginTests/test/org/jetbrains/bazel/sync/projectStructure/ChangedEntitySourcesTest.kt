@@ -0,0 +1,47 @@
+package org.jetbrains.bazel.sync.projectStructure
+
+import com.intellij.platform.workspace.jps.entities.DependencyScope
+import com.intellij.platform.workspace.jps.entities.ModuleDependency
+import com.intellij.platform.workspace.jps.entities.ModuleEntity
+import com.intellij.platform.workspace.jps.entities.ModuleId
+import com.intellij.platform.workspace.storage.MutableEntityStorage
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
+import org.jetbrains.bazel.workspacemodel.entities.BazelModuleEntitySource
+import org.junit.jupiter.api.Test
+
+class ChangedEntitySourcesTest {
+  @Test
+  fun `should find no changes for the same modules`() {
+    val current = storageWithModules("a" to emptyList(), "b" to listOf("a"))
+    val new = storageWithModules("b" to listOf("a"), "a" to emptyList())
+
+    findChangedBazelEntitySources(current, new).shouldBeEmpty()
+  }
+
+  @Test
+  fun `should find changed, added and removed modules`() {
+    val current = storageWithModules("a" to emptyList(), "b" to emptyList(), "c" to emptyList())
+    val new = storageWithModules("a" to emptyList(), "b" to listOf("a"), "d" to emptyList())
+
+    findChangedBazelEntitySources(current, new) shouldContainExactlyInAnyOrder
+      listOf("b", "c", "d").map { BazelModuleEntitySource(it) }
+  }
+
+  private fun storageWithModules(vararg modules: Pair<String, List<String>>): MutableEntityStorage {
+    val storage = MutableEntityStorage.create()
+    for ((name, dependencies) in modules) {
+      storage.addEntity(
+        ModuleEntity(
+          name = name,
+          dependencies =
+            dependencies.map {
+              ModuleDependency(module = ModuleId(it), exported = false, scope = DependencyScope.COMPILE, productionOnTest = false)
+            },
+          entitySource = BazelModuleEntitySource(name),
+        ),
+      )
+    }
+    return storage
+  }
+}
@@ -0,0 +1,23 @@
+package org.jetbrains.bazel.sync.workspace.persistence.mvstore
+
+import io.kotest.matchers.shouldBe
+import org.jetbrains.bazel.sync.workspace.persistence.mvstore.SnapshotCompaction.Step
+import org.junit.jupiter.api.Test
+
+class SnapshotCompactionTest {
+  @Test
+  fun `should leave a dense storage alone`() {
+    SnapshotCompaction.nextStep(fillRate = 95, chunksFillRate = 90) shouldBe Step.NONE
+  }
+
+  @Test
+  fun `should rewrite chunks with many dead pages`() {
+    SnapshotCompaction.nextStep(fillRate = 70, chunksFillRate = 50) shouldBe Step.REWRITE_CHUNKS
+  }
+
+  @Test
+  fun `should compact the file only once most of it is unused`() {
+    SnapshotCompaction.nextStep(fillRate = 30, chunksFillRate = 90) shouldBe Step.COMPACT_FILE
+    SnapshotCompaction.nextStep(fillRate = 30, chunksFillRate = 50) shouldBe Step.COMPACT_FILE
+  }
+}
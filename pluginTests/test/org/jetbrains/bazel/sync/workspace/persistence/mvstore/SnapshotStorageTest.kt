@@ -177,6 +177,63 @@ class SnapshotStorageTest {
     }
   }
 
+  @Test
+  fun `delta generation reads unchanged targets through its base after reopen`(): Unit = runBlocking {
+    val dbFile = tempDir.resolve("snapshot_db.data")
+    val changedKey = key("@//pkg1:target")
+    val changedTarget = rawTarget(changedKey, 10)
+
+    val (state, partial) = SnapshotStorage(dbFile, buildKryo()).let { storage ->
+      val base = storage.createGeneration(1)
+      val state = saveAllBulk(base, count = 3)
+      storage.commit()
+
+      val stringTable = base.seededStringTable()
+      val encoded = storage.encodeTargets(listOf(changedTarget), stringTable)
+      val delta = storage.createGeneration(2, base)
+      delta.saveEncodedTargets(listOf(4 to encoded.single()), stringTable)
+      storage.commit()
+      storage.close()
+
+      val keyId2Target = Int2ObjectBiMap<WorkspaceTargetKey>()
+      keyId2Target[1] = key("@//pkg0:target")
+      keyId2Target[4] = changedKey
+      keyId2Target[3] = key("@//pkg2:target")
+      state to PersistentWorkspaceSnapshot(
+        configurations = emptyMap(),
+        targetGraph = WorkspaceTargetGraph.EMPTY,
+        syncConfigs = emptyList(),
+        repoMapping = RepoMappingDisabled,
+        metadata = WorkspaceSnapshotMetadata(version = 2),
+        keyId2Target = keyId2Target,
+        labelId2Label = Int2ObjectBiMap(),
+      )
+    }
+
+    val reopenedStorage = SnapshotStorage(dbFile, buildKryo())
+    try {
+      reopenedStorage.hasGeneration(2) shouldBe true
+      val reopened = reopenedStorage.openGeneration(2)
+      val expected = state.targets + (changedKey to changedTarget)
+      for ((targetKey, raw) in expected) {
+        assertComposedEquals(reopened.findOrLoadTarget(partial, targetKey, TargetLoadOptions.ALL), raw)
+      }
+      val scanned = reopened.scanAllTargets(partial, TargetLoadOptions.ALL).toList()
+      scanned.map { it.key }.toSet() shouldBe expected.keys
+      for (target in scanned) {
+        assertComposedEquals(target, expected.getValue(target.key))
+      }
+
+      // the base is kept as long as the delta is
+      reopenedStorage.sweepGenerationsExcept(setOf(2))
+      reopenedStorage.commit()
+      reopenedStorage.hasGeneration(1) shouldBe true
+    }
+    finally {
+      reopenedStorage.close()
+    }
+  }
+
   @Test
   fun `targets survive commit and reopen`() {
     val dbFile = tempDir.resolve("snapshot_db.data")
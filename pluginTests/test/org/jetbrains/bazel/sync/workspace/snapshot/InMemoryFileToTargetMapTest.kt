@@ -1,6 +1,8 @@
 package org.jetbrains.bazel.sync.workspace.snapshot
 
+import com.intellij.testFramework.common.timeoutRunBlocking
 import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.shouldBe
 import org.jetbrains.bazel.commons.RuleType
 import org.jetbrains.bazel.commons.TargetKind
 import org.jetbrains.bazel.label.Label
@@ -28,4 +30,34 @@ class InMemoryFileToTargetMapTest {
     val map = File2TargetMapBuilder.build(targets = listOf(target))
     map.getTargetsByFile(workspaceRoot.resolve("app/Main.java")).shouldContainExactly(key)
   }
+
+  @Test
+  fun `concurrently built file map keeps the targets of a file in order`() = timeoutRunBlocking {
+    val workspaceRoot = Path.of("/workspace")
+    // more targets than a single partition, files are shared by neighbouring targets, also across partitions
+    val targets = (0 until 10_000).map { index ->
+      TestBuildTarget(
+        key = WorkspaceTargetKey(label = Label.parse("//pkg:t$index")),
+        dependencies = emptyList(),
+        kind = TargetKind(kind = "java_library", ruleType = RuleType.LIBRARY, languageClasses = setOf(JavaLanguageClass.JAVA)),
+        sources = SourceFileCollectionBuilder.build(
+          relativeRoot = workspaceRoot,
+          paths = listOf(workspaceRoot.resolve("pkg/F${(index + 1) / 2}.java"), workspaceRoot.resolve("pkg/Own$index.java")),
+        ),
+        generatedSources = SourceFileCollection.EMPTY,
+        resources = SourceFileCollection.EMPTY,
+        baseDirectory = workspaceRoot.resolve("pkg"),
+      )
+    }
+
+    val map = File2TargetMapBuilder.buildConcurrently(targets = targets)
+    val expected = File2TargetMapBuilder.build(targets = targets)
+
+    map.size shouldBe expected.size
+    for (index in listOf(0, 4095, 4096, 5001, 9999)) {
+      val sharedFile = workspaceRoot.resolve("pkg/F${(index + 1) / 2}.java")
+      map.getTargetsByFile(sharedFile).shouldContainExactly(expected.getTargetsByFile(sharedFile))
+      map.getTargetsByFile(workspaceRoot.resolve("pkg/Own$index.java")).shouldContainExactly(targets[index].key)
+    }
+  }
 }
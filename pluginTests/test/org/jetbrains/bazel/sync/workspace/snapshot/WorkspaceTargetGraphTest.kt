@@ -1,5 +1,6 @@
 package org.jetbrains.bazel.sync.workspace.snapshot
 
+import com.intellij.testFramework.common.timeoutRunBlocking
 import io.kotest.matchers.shouldBe
 import org.jetbrains.bazel.commons.RuleType
 import org.jetbrains.bazel.commons.TargetKind
@@ -101,6 +102,20 @@ class WorkspaceTargetGraphTest {
       first shouldBe setOf(b, c)
     }
 
+    @Test
+    fun `should return every member of a dependency cycle and what it depends on`() {
+      val d = workspaceTarget("//d")
+      val c = workspaceTarget("//c", compileDeps = listOf("//b" to null, "//d" to null))
+      val b = workspaceTarget("//b", compileDeps = listOf("//c" to null))
+      val a = workspaceTarget("//A", compileDeps = listOf("//b" to null))
+      val graph = buildGraph(listOf(a), a, b, c, d)
+      val map = targetMapOf(a, b, c, d)
+
+      graph.findAllTransitiveSuccessors(a.key).resolved(map) shouldBe setOf(b, c, d)
+      graph.findAllTransitiveSuccessors(b.key).resolved(map) shouldBe setOf(b, c, d)
+      graph.findAllTransitiveSuccessors(d.key).resolved(map) shouldBe emptySet()
+    }
+
     @Test
     fun `should not follow runtime dependencies`() {
       val runtimeDep = workspaceTarget("//runtimeDep")
@@ -589,6 +604,60 @@ class WorkspaceTargetGraphTest {
     }
   }
 
+  @Nested
+  @DisplayName("WorkspaceTargetGraphBuilder.buildConcurrently")
+  inner class BuildConcurrentlyTest {
+    @Test
+    fun `should assign the same ids and successors as the sequential build`(): Unit = timeoutRunBlocking {
+      // more targets than a single partition, with duplicated, missing, runtime and shadow dependencies,
+      // also reaching across partitions
+      val size = 10_000
+      val targets = (0 until size).flatMap { index ->
+        val target = workspaceTarget(
+          "//pkg:t$index",
+          compileDeps = listOf(
+            "//pkg:t${(index + 1) % size}" to null,
+            "//pkg:t${(index + 1) % size}" to null,
+            "//pkg:t${(index * 7 + 4096) % size}" to null,
+            "//missing:m$index" to null,
+          ),
+          runtimeDeps = listOf("//pkg:t${(index + 5000) % size}", "//missing:r$index"),
+        )
+        if (index % 100 == 0) listOf(target, shadowTarget("//pkg:t$index", aspectIds = listOf("bazel_java_proto_aspect")))
+        else listOf(target)
+      }
+      val rootTargets = targets.filterIndexed { index, _ -> index % 3 == 0 }.map { it.key }.toSet()
+
+      val sequential = WorkspaceTargetGraphBuilder.build(rootTargets, targets) as WorkspaceTargetGraphImpl
+      val concurrent = WorkspaceTargetGraphBuilder.buildConcurrently(rootTargets, targets) as WorkspaceTargetGraphImpl
+
+      concurrent.id2WorkspaceTarget.toList() shouldBe sequential.id2WorkspaceTarget.toList()
+      concurrent.id2CompileSuccessors.map { it.toList() } shouldBe sequential.id2CompileSuccessors.map { it.toList() }
+      concurrent.id2AllSuccessors.map { it.toList() } shouldBe sequential.id2AllSuccessors.map { it.toList() }
+      concurrent.id2RelaxedCompileSuccessors.map { it.toList() } shouldBe sequential.id2RelaxedCompileSuccessors.map { it.toList() }
+      concurrent.id2RelaxedAllSuccessors.map { it.toList() } shouldBe sequential.id2RelaxedAllSuccessors.map { it.toList() }
+      concurrent.findAllTargetsAtDepth(maxDepth = 2).toList() shouldBe sequential.findAllTargetsAtDepth(maxDepth = 2).toList()
+    }
+
+    @Test
+    fun `should build the same small graph as the sequential build`(): Unit = timeoutRunBlocking {
+      val b = workspaceTarget("//b", runtimeDeps = listOf("//c", "//missing"))
+      val c = workspaceTarget("//c")
+      val a = workspaceTarget("//A", compileDeps = listOf("//b" to null, "//b" to null, "//c" to null, "//missing" to null))
+      val shadow = shadowTarget("//c", aspectIds = listOf("bazel_java_proto_aspect"))
+      val targets = listOf(a, b, c, shadow)
+
+      val sequential = WorkspaceTargetGraphBuilder.build(setOf(a.key), targets) as WorkspaceTargetGraphImpl
+      val concurrent = WorkspaceTargetGraphBuilder.buildConcurrently(setOf(a.key), targets) as WorkspaceTargetGraphImpl
+
+      concurrent.id2WorkspaceTarget.toList() shouldBe targets.map { it.key }
+      concurrent.id2CompileSuccessors.map { it.toList() } shouldBe listOf(listOf(1, 1, 2), emptyList(), emptyList(), emptyList())
+      concurrent.id2AllSuccessors.map { it.toList() } shouldBe sequential.id2AllSuccessors.map { it.toList() }
+      concurrent.id2RelaxedCompileSuccessors.map { it.toList() } shouldBe sequential.id2RelaxedCompileSuccessors.map { it.toList() }
+      concurrent.id2RelaxedAllSuccessors.map { it.toList() } shouldBe sequential.id2RelaxedAllSuccessors.map { it.toList() }
+    }
+  }
+
   private fun targetMapOf(vararg targets: BuildTarget): WorkspaceTargetMap =
     InMemoryWorkspaceTargetMap(targets.associateBy { it.key })
 
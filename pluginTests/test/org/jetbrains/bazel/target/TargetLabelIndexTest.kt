@@ -0,0 +1,38 @@
+package org.jetbrains.bazel.target
+
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
+import org.junit.jupiter.api.Test
+
+class TargetLabelIndexTest {
+  private val index =
+    TargetLabelIndex(
+      listOf("//app:main", "//app/util:Strings", "//lib/network:client", "@maven//:guava", "//abcd1234"),
+    )
+
+  @Test
+  fun `should return all labels for empty pattern`() {
+    index.findMatching("", limit = 10) shouldContainExactly
+      listOf("//app:main", "//app/util:Strings", "//lib/network:client", "@maven//:guava", "//abcd1234")
+  }
+
+  @Test
+  fun `should match characters in order ignoring case`() {
+    index.findMatching("aUtil", limit = 10) shouldContainExactlyInAnyOrder listOf("//app/util:Strings")
+    index.findMatching("netcl", limit = 10) shouldContainExactlyInAnyOrder listOf("//lib/network:client")
+    index.findMatching("12", limit = 10) shouldContainExactlyInAnyOrder listOf("//abcd1234")
+  }
+
+  @Test
+  fun `should not match characters out of order`() {
+    index.findMatching("21", limit = 10).shouldBeEmpty()
+    index.findMatching("guava:", limit = 10).shouldBeEmpty()
+  }
+
+  @Test
+  fun `should prefer labels containing the whole pattern when limited`() {
+    index.findMatching("app", limit = 2) shouldContainExactly listOf("//app:main", "//app/util:Strings")
+    index.findMatching("a", limit = 1) shouldContainExactly listOf("//app:main")
+  }
+}
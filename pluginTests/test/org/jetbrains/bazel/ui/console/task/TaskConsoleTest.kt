@@ -18,6 +18,8 @@ import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.util.SystemInfo
 import io.kotest.matchers.maps.shouldContainExactly
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.string.shouldStartWith
 import org.jetbrains.bazel.action.SuspendableAction
 import org.jetbrains.bazel.ui.console.BaseTaskConsole
 import org.jetbrains.bazel.workspace.model.test.framework.WorkspaceModelBaseTest
@@ -25,6 +27,7 @@ import org.jetbrains.bsp.protocol.TaskGroupId
 import org.jetbrains.bsp.protocol.TaskId
 import org.junit.jupiter.api.Test
 import kotlin.io.path.Path
+import kotlin.io.path.readText
 import kotlin.reflect.KClass
 
 private abstract class TestableEvent(
@@ -106,7 +109,9 @@ class TestTaskConsole(
   taskView: BuildProgressListener,
   basePath: String,
   project: Project,
-) : BaseTaskConsole(taskView, basePath, project) {
+  outputFlushDelayMillis: Long = 0,
+  maxOutputChars: Long = Long.MAX_VALUE,
+) : BaseTaskConsole(taskView, basePath, project, outputFlushDelayMillis, maxOutputChars) {
   override fun calculateRedoAction(redoAction: (suspend () -> Unit)?): AnAction =
     object : SuspendableAction({ "test" }) {
       override suspend fun actionPerformed(project: Project, e: AnActionEvent) {}
@@ -610,4 +615,65 @@ class TaskConsoleTest : WorkspaceModelBaseTest() {
           ),
       )
   }
+
+  @Test
+  fun `should coalesce messages until another event is sent`() {
+    // given
+    val buildProcessListener = MockProgressEventListener(disposable)
+    val basePath = "/project/"
+
+    // when
+    val root = TaskGroupId("group").task("root")
+    val subtask1 = root.subTask("subtask1")
+
+    val taskConsole = TestTaskConsole(buildProcessListener, basePath, project, outputFlushDelayMillis = 60_000)
+    taskConsole.startTask(root, "Root task", "Root started")
+    taskConsole.startSubtask(subtask1, "Subtask 1 started")
+    taskConsole.addMessage(subtask1, "Message 1\n")
+    taskConsole.addMessage(root, "Message 2\n")
+    taskConsole.addMessage(subtask1, "Message 3\n")
+    taskConsole.finishSubtask(subtask1, "Subtask 1 finished")
+    taskConsole.addMessage(root, "Message 4\n")
+    taskConsole.finishTask(root, "Root finished")
+
+    // then
+    buildProcessListener.events shouldContainExactly
+      mapOf(
+        TaskGroupId("group") to
+          listOf(
+            TestableBuildEvent(StartBuildEventImpl::class, root, null, "Root started"),
+            TestableBuildEvent(ProgressBuildEventImpl::class, subtask1, root, "Subtask 1 started"),
+            TestableBuildEvent(OutputBuildEventImpl::class, null, subtask1, "Message 1\nMessage 3\n"),
+            TestableBuildEvent(OutputBuildEventImpl::class, null, null, "Message 1\nMessage 2\nMessage 3\n"),
+            TestableBuildEvent(FinishEventImpl::class, subtask1, null, "Subtask 1 finished"),
+            TestableBuildEvent(OutputBuildEventImpl::class, null, null, "Message 4\n"),
+            TestableBuildEvent(FinishBuildEventImpl::class, root, null, "Root finished"),
+          ),
+      )
+  }
+
+  @Test
+  fun `should write output above the limit to a file`() {
+    // given
+    val buildProcessListener = MockProgressEventListener(disposable)
+    val basePath = "/project/"
+
+    // when
+    val root = TaskGroupId("group").task("root")
+
+    val taskConsole = TestTaskConsole(buildProcessListener, basePath, project, maxOutputChars = 16)
+    taskConsole.startTask(root, "Root task", "Root started")
+    taskConsole.addMessage(root, "Message 1\n")
+    taskConsole.addMessage(root, "Message 2\n")
+    taskConsole.addMessage(root, "Message 3\n")
+    taskConsole.finishTask(root, "Root finished")
+
+    // then
+    val outputs = buildProcessListener.events.getValue(TaskGroupId("group")).filter { it.eventType == OutputBuildEventImpl::class }
+    outputs.size shouldBe 2
+    outputs[0].message shouldBe "Message 1\n"
+    outputs[1].message shouldStartWith "Messag\nThe output is longer than 16 characters, the rest of it is written to "
+    val spillFile = Path(outputs[1].message.substringAfter("written to ").trim())
+    spillFile.readText() shouldBe "e 2\nMessage 3\n"
+  }
 }
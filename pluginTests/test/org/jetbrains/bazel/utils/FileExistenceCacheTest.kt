@@ -0,0 +1,44 @@
+package org.jetbrains.bazel.utils
+
+import io.kotest.matchers.shouldBe
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Path
+import kotlin.io.path.createDirectories
+import kotlin.io.path.createFile
+import kotlin.io.path.deleteExisting
+
+class FileExistenceCacheTest {
+  @TempDir
+  lateinit var tempDir: Path
+
+  @Test
+  fun `should check files and directories by listing their parent`() {
+    // given
+    tempDir.resolve("src/main").createDirectories()
+    tempDir.resolve("src/BUILD").createFile()
+    val cache = FileExistenceCache()
+
+    // then
+    cache.exists(tempDir.resolve("src/BUILD")) shouldBe true
+    cache.exists(tempDir.resolve("src/BUILD.bazel")) shouldBe false
+    cache.exists(tempDir.resolve("src/main")) shouldBe true
+    cache.exists(tempDir.resolve("missing/Foo.java")) shouldBe false
+    cache.exists(tempDir.resolve("src/BUILD/Foo.java")) shouldBe false
+  }
+
+  @Test
+  fun `should keep a listed directory until the cache is dropped`() {
+    // given
+    val file = tempDir.resolve("Foo.java").createFile()
+    val cache = FileExistenceCache()
+    cache.exists(file) shouldBe true
+
+    // when
+    file.deleteExisting()
+
+    // then
+    cache.exists(file) shouldBe true
+    FileExistenceCache().exists(file) shouldBe false
+  }
+}
@@ -367,6 +367,32 @@ internal class JvmTargetEntitiesBuilderTest : WorkspaceModelBaseTest() {
     dep.exported shouldBe true
   }
 
+  @Test
+  fun `writes every module and its dependencies when the import is written in shards`(): Unit = timeoutRunBlocking {
+    val kind = TargetKind(kind = "java_library", ruleType = RuleType.LIBRARY, languageClasses = setOf(JavaLanguageClass.JAVA))
+    val labels = (0 until 2500).map { Label.parse("//lib$it") }
+    val targets = labels.mapIndexed { index, label ->
+      createTestBuildTarget(
+        id = label,
+        kind = kind,
+        dependencies = listOfNotNull(
+          labels.getOrNull(index - 1)?.let { DependencyLabel(targetKey = WorkspaceTargetKey(label = it), kind = DependencyLabelKind.COMPILE) },
+        ),
+        data = listOf(JvmBuildTarget()),
+      )
+    }
+
+    runImport(targets = targets)
+
+    val modules = loadedEntries(ModuleEntity::class.java)
+    modules.map { it.name } shouldContainExactlyInAnyOrder labels.map { it.formatAsModuleNameTest() }
+    val modulesByName = modules.associateBy { it.name }
+    labels.zipWithNext { previous, label ->
+      val dependencies = modulesByName.getValue(label.formatAsModuleNameTest()).dependencies.filterIsInstance<ModuleDependency>()
+      dependencies.map { it.module.name } shouldContainExactly listOf(previous.formatAsModuleNameTest())
+    }
+  }
+
   private suspend fun runImport(
     targets: List<BuildTarget>,
     resolved: Map<WorkspaceTargetKey, JvmResolvedTarget> = defaultResolved(targets),
@@ -0,0 +1,47 @@
+package org.jetbrains.bazel.tools.generator
+
+import org.jetbrains.bazel.languages.bazelrc.flags.Flag
+import org.jetbrains.bazel.languages.bazelrc.flags.Option
+import org.jetbrains.bazel.languages.bazelrc.flags.writeFlagTable
+import java.lang.reflect.Modifier
+import kotlin.io.path.Path
+import kotlin.io.path.bufferedWriter
+import kotlin.io.path.createDirectories
+
+private const val KNOWN_FLAGS_CLASS = "org.jetbrains.bazel.languages.bazelrc.flags.KnownFlags"
+private const val FLAG_TABLE_RELATIVE_PATH = "plugins/bazel/intellij.bazel.projectview/resources/bazelrcFlags"
+
+/**
+ * Generates the bazelrc flag table read by the plugin from the `@Option` annotated declarations in `KnownFlags`.
+ *
+ * The plugin reads `flags.tsv` and `flag-help.txt` in `intellij.bazel.projectview/resources/bazelrcFlags/`
+ * instead of reflecting over `KnownFlags` at runtime, so the table has to be regenerated whenever a flag is added or changed.
+ *
+ * ## Usage
+ *
+ * From the monorepo root:
+ * ```
+ * bazel run //plugins/bazel/tools/bazelrc_flags:generator
+ * ```
+ **/
+fun main() {
+  val workspaceDir = System.getenv("BUILD_WORKSPACE_DIRECTORY") ?: error("BUILD_WORKSPACE_DIRECTORY is not set.")
+  val outputDir = Path(workspaceDir).resolve(FLAG_TABLE_RELATIVE_PATH).createDirectories()
+
+  // KnownFlags is internal to the plugin, its @JvmField declarations are read as static fields
+  val flags =
+    Class.forName(KNOWN_FLAGS_CLASS).declaredFields
+      .filter { Modifier.isStatic(it.modifiers) }
+      .mapNotNull { field ->
+        val option = field.getDeclaredAnnotation(Option::class.java) ?: return@mapNotNull null
+        val flag = field.get(null) as? Flag ?: return@mapNotNull null
+        flag to option
+      }
+
+  outputDir.resolve("flags.tsv").bufferedWriter().use { table ->
+    outputDir.resolve("flag-help.txt").bufferedWriter().use { help ->
+      writeFlagTable(flags, table, help)
+    }
+  }
+  println("Wrote ${flags.size} flags to $outputDir")
+}